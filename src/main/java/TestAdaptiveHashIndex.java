@@ -0,0 +1,52 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.entries.BPKeyInt;
+import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
+
+public class TestAdaptiveHashIndex {
+
+	public static void main(String[] args) throws IOException {
+		int numberOfEntries = 2000000;
+		int numberOfLookups = 5000000;
+		int hotKeys = 1000;
+		File indexFile = new File("/var/tmp/indexBPHash.idx");
+		List<BPObjectIntDouble> entries = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < numberOfEntries; i++) {
+			entries.add(new BPObjectIntDouble(i, i));
+		}
+		BPKeyInt[] lookups = new BPKeyInt[numberOfLookups];
+		Random random = new Random(1);
+		for (int i = 0; i < numberOfLookups; i++) { // 90% of the lookups are of the hot keys
+			int key = random.nextInt(10) < 9 ? random.nextInt(hotKeys) * (numberOfEntries / hotKeys)
+					: random.nextInt(numberOfEntries);
+			lookups[i] = new BPKeyInt(key);
+		}
+		for (int capacity : new int[] { 0, 4 * hotKeys }) {
+			BPTree<BPKeyInt, BPObjectIntDouble> tree = new BPTree<BPKeyInt, BPObjectIntDouble>(
+					BPObjectIntDouble.class, indexFile);
+			tree.setCacheCapacity(20000);
+			tree.setAdaptiveHashIndex(capacity);
+			tree.openAndBatchUpdate(entries.iterator(), numberOfEntries);
+			tree.close();
+			tree.openForRead();
+			for (BPKeyInt key : lookups) { // warm up
+				tree.get(key);
+			}
+			tree.resetCountIOs();
+			long time = System.nanoTime();
+			for (BPKeyInt key : lookups) {
+				tree.get(key);
+			}
+			time = System.nanoTime() - time;
+			System.out.printf("adaptive hash index %5d keys: %6.0f ns/lookup, %d IOs, %d hits%n", capacity,
+					(double) time / numberOfLookups, tree.getCountIOs(), tree.getCountAdaptiveHashHits());
+			tree.close();
+		}
+		indexFile.delete();
+	}
+}
@@ -10,11 +10,10 @@ import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
 
 public class TestBPTrees {
 
-	public static void main(String[] args) throws IOException, ClassNotFoundException {
+	public static void main(String[] args) throws IOException {
 		int numberOfEntries = 50000;
 		String indexFile1 = "/var/tmp/indexBP.idx";
 		String indexFile2 = "/var/tmp/indexBP2.idx";
-		String treeObjectFile = "/var/tmp/BPtree.obj";
 		//generating entries
 		ArrayList<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>(numberOfEntries);
 		for (int i = 0; i < numberOfEntries; i++) {
@@ -42,13 +41,12 @@ public class TestBPTrees {
 		time2 = System.currentTimeMillis() - time2;
 		System.out.println("Time of creation 2: "+time2 + " ms");
 		
-		//we can store the tree for a future use
+		//closing stores the description of the tree to the first page of the index file
 		tree.close();
-		tree.store(new File(treeObjectFile));
 		tree = null;
 		
-		//later (in different program/process) we can load it back 
-		tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class,new File(indexFile1),new File(treeObjectFile));;
+		//later (in different program/process) we can open it again 
+		tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class,new File(indexFile1));
 		tree.open();
 		//follows the test that both trees has the same content as the source ArrayList
 		Iterator<BPObjectIntDouble> it1 = tree.iterator();
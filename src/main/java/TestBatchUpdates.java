@@ -0,0 +1,66 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.entries.BPKeyInt;
+import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
+
+public class TestBatchUpdates {
+
+	public static void main(String[] args) throws IOException {
+		int numberOfEntries = 200000;
+		int batchSize = 50000;
+		String indexFile1 = "/var/tmp/indexBPLoop.idx";
+		String indexFile2 = "/var/tmp/indexBPBatch.idx";
+		//generating entries
+		ArrayList<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>(numberOfEntries);
+		for (int i = 0; i < numberOfEntries; i++) {
+			values.add(new BPObjectIntDouble((int)(Math.random()*1000000000),Math.random()));
+		}
+		List<BPObjectIntDouble> batch = values.subList(0, batchSize);
+
+		//entries added and removed one-by-one as in TestBPTrees
+		BPTree<BPKeyInt, BPObjectIntDouble> tree =  new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class,new File(indexFile1));
+		tree.setCacheCapacity(100);
+		tree.openNewFile();
+		tree.resetCountIOs();
+		long time1 =  System.currentTimeMillis();
+		for (int i = 0; i < values.size(); i++) {
+			tree.add(values.get(i));
+		}
+		time1 = System.currentTimeMillis() - time1;
+		System.out.println("add one-by-one:    " + time1 + " ms, IOs: " + tree.getCountIOs());
+		tree.resetCountIOs();
+		time1 =  System.currentTimeMillis();
+		for (int i = 0; i < batch.size(); i++) {
+			tree.remove(batch.get(i));
+		}
+		time1 = System.currentTimeMillis() - time1;
+		System.out.println("remove one-by-one: " + time1 + " ms, IOs: " + tree.getCountIOs());
+
+		//the same entries added and removed by batches
+		BPTree<BPKeyInt, BPObjectIntDouble> tree2 =  new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class,new File(indexFile2));
+		tree2.setCacheCapacity(100);
+		tree2.openNewFile();
+		tree2.resetCountIOs();
+		long time2 =  System.currentTimeMillis();
+		for (int i = 0; i < values.size(); i += batchSize) {
+			tree2.addAll(values.subList(i, Math.min(values.size(), i + batchSize)));
+		}
+		time2 = System.currentTimeMillis() - time2;
+		System.out.println("addAll:            " + time2 + " ms, IOs: " + tree2.getCountIOs());
+		tree2.resetCountIOs();
+		time2 =  System.currentTimeMillis();
+		tree2.removeAll(batch);
+		time2 = System.currentTimeMillis() - time2;
+		System.out.println("removeAll:         " + time2 + " ms, IOs: " + tree2.getCountIOs());
+
+		System.out.println("entries: " + tree.getNumberOfEntries() + " and " + tree2.getNumberOfEntries());
+		tree.close();
+		tree2.close();
+		new File(indexFile1).delete();
+		new File(indexFile2).delete();
+	}
+}
@@ -0,0 +1,44 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.entries.BPKeyInt;
+import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
+
+public class TestFillFactor {
+
+	public static void main(String[] args) throws IOException {
+		int numberOfEntries = 1000000;
+		int numberOfInserts = 100000;
+		String indexFile = "/var/tmp/indexBPFill.idx";
+		double[] fillFactors = { 1.0, 0.9, 0.8, 0.7 };
+		//generating entries, the inserted entries are between the loaded ones
+		ArrayList<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>(numberOfEntries);
+		for (int i = 0; i < numberOfEntries; i++) {
+			values.add(new BPObjectIntDouble(2 * i, Math.random()));
+		}
+		ArrayList<BPObjectIntDouble> inserts = new ArrayList<BPObjectIntDouble>(numberOfInserts);
+		for (int i = 0; i < numberOfInserts; i++) {
+			inserts.add(new BPObjectIntDouble(2 * (int) (Math.random() * numberOfEntries) + 1, Math.random()));
+		}
+		for (double fillFactor : fillFactors) {
+			BPTree<BPKeyInt, BPObjectIntDouble> tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class,
+					new File(indexFile));
+			tree.setCacheCapacity(100);
+			tree.setFillFactor(fillFactor, fillFactor);
+			tree.openAndBatchUpdate(values.iterator(), values.size());
+			tree.resetCountIOs();
+			long time = System.currentTimeMillis();
+			for (int i = 0; i < inserts.size(); i++) {
+				tree.add(inserts.get(i));
+			}
+			time = System.currentTimeMillis() - time;
+			tree.close();
+			System.out.println("Fill factor " + fillFactor + ": " + (numberOfInserts * 1000L / Math.max(1, time))
+					+ " inserts/s, splits: " + tree.getCountSplits() + ", IOs: " + tree.getCountIOs()
+					+ ", size: " + new File(indexFile).length() / 1024 + " kB");
+			new File(indexFile).delete();
+		}
+	}
+}
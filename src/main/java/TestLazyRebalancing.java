@@ -0,0 +1,53 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.entries.BPKeyInt;
+import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
+
+public class TestLazyRebalancing {
+
+	public static void main(String[] args) throws IOException {
+		int numberOfEntries = 1000000;
+		int numberOfRemoves = 800000;
+		String indexFile = "/var/tmp/indexBPLazy.idx";
+		ArrayList<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>(numberOfEntries);
+		for (int i = 0; i < numberOfEntries; i++) {
+			values.add(new BPObjectIntDouble(2 * i, Math.random()));
+		}
+		//churn: random removes, every fourth one followed by an insert between the loaded entries
+		ArrayList<BPObjectIntDouble> removes = new ArrayList<BPObjectIntDouble>(values);
+		Collections.shuffle(removes, new Random(1));
+		for (boolean lazy : new boolean[] { false, true }) {
+			BPTree<BPKeyInt, BPObjectIntDouble> tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class,
+					new File(indexFile));
+			tree.setCacheCapacity(100);
+			tree.setLazyRebalancing(lazy);
+			tree.openAndBatchUpdate(values.iterator(), values.size());
+			tree.resetCountWrites();
+			long time = System.currentTimeMillis();
+			for (int i = 0; i < numberOfRemoves; i++) {
+				tree.remove(removes.get(i));
+				if (i % 4 == 0)
+					tree.add(new BPObjectIntDouble(removes.get(i).getKey().getKeyInt() + 1, Math.random()));
+			}
+			time = System.currentTimeMillis() - time;
+			tree.close();
+			System.out.println((lazy ? "Lazy" : "Eager") + " rebalancing: " + (numberOfRemoves * 1000L / Math.max(1, time))
+					+ " removes/s, writes: " + tree.getCountWrites());
+			if (lazy) {
+				tree.open();
+				tree.resetCountWrites();
+				time = System.currentTimeMillis();
+				tree.rebalance();
+				tree.close();
+				System.out.println("Rebalance pass: " + (System.currentTimeMillis() - time) + " ms, writes: "
+						+ tree.getCountWrites());
+			}
+			new File(indexFile).delete();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import sk.upjs.gursky.bplustree.NodeSizeAdvisor;
+import sk.upjs.gursky.bplustree.entries.BPKeyInt;
+import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
+
+public class TestNodeSizeAdvisor {
+
+	public static void main(String[] args) throws IOException {
+		long numberOfEntries = 100000000;
+		List<BPObjectIntDouble> sample = new ArrayList<BPObjectIntDouble>();
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			sample.add(new BPObjectIntDouble(random.nextInt(), random.nextDouble()));
+		}
+		NodeSizeAdvisor<BPKeyInt, BPObjectIntDouble> advisor = new NodeSizeAdvisor<BPKeyInt, BPObjectIntDouble>(
+				BPObjectIntDouble.class);
+		advisor.setCacheMemory(64 * 1024 * 1024);
+		double[] pointFractions = { 1, 0.9, 0.5, 0 };
+		for (double pointFraction : pointFractions) {
+			advisor.setWorkload(pointFraction, 10000);
+			System.out.println((int) (pointFraction * 100) + "% point lookups, ranges of 10000 entries:");
+			for (NodeSizeAdvisor.Option option : advisor.advise(sample, numberOfEntries)) {
+				System.out.println("  " + option);
+			}
+		}
+	}
+}
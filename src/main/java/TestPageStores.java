@@ -0,0 +1,40 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.PageStore;
+import sk.upjs.gursky.bplustree.entries.BPKeyInt;
+import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
+
+public class TestPageStores {
+
+	public static void main(String[] args) throws IOException {
+		int numberOfEntries = 200000;
+		String indexFile = "/var/tmp/indexBPStore.idx";
+		for (PageStore.Kind kind : PageStore.Kind.values()) {
+			BPTree<BPKeyInt, BPObjectIntDouble> tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class,
+					new File(indexFile));
+			tree.setCacheCapacity(100);
+			tree.setPageStore(kind);
+			tree.openNewFile();
+			Random random = new Random(1);
+			long time = System.currentTimeMillis();
+			for (int i = 0; i < numberOfEntries; i++) {
+				tree.add(new BPObjectIntDouble(random.nextInt(1000000000), random.nextDouble()));
+			}
+			long insertTime = System.currentTimeMillis() - time;
+			random = new Random(1);
+			time = System.currentTimeMillis();
+			for (int i = 0; i < numberOfEntries; i++) {
+				tree.get(new BPKeyInt(random.nextInt(1000000000)));
+				random.nextDouble();
+			}
+			long lookupTime = System.currentTimeMillis() - time;
+			tree.close();
+			System.out.println(kind + ": " + (numberOfEntries * 1000L / Math.max(1, insertTime)) + " inserts/s, "
+					+ (numberOfEntries * 1000L / Math.max(1, lookupTime)) + " lookups/s");
+			new File(indexFile).delete();
+		}
+	}
+}
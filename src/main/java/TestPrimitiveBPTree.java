@@ -0,0 +1,76 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.IntBPTree;
+import sk.upjs.gursky.bplustree.entries.BPKeyInt;
+import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
+
+public class TestPrimitiveBPTree {
+
+	public static void main(String[] args) throws IOException {
+		int numberOfEntries = 1000000;
+		int cacheCapacity = 10000;
+		File indexFile = new File("/var/tmp/indexBPPrimitive.idx");
+		int[] keys = new int[numberOfEntries];
+		Random random = new Random(1);
+		for (int i = 0; i < numberOfEntries; i++) {
+			keys[i] = random.nextInt(1000000000);
+		}
+
+		BPTree<BPKeyInt, BPObjectIntDouble> tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class,
+				indexFile);
+		tree.setCacheCapacity(cacheCapacity);
+		tree.openNewFile();
+		long time = System.currentTimeMillis();
+		for (int key : keys) {
+			tree.add(new BPObjectIntDouble(key, key));
+		}
+		long insertTime = System.currentTimeMillis() - time;
+		time = System.currentTimeMillis();
+		for (int key : keys) {
+			tree.get(new BPKeyInt(key));
+		}
+		long lookupTime = System.currentTimeMillis() - time;
+		time = System.currentTimeMillis();
+		long scanned = 0;
+		for (int i = 0; i < 10000; i++) {
+			scanned += tree.intervalQuery(new BPKeyInt(keys[i]), new BPKeyInt(keys[i] + 100000)).size();
+		}
+		long scanTime = System.currentTimeMillis() - time;
+		tree.close();
+		print("BPTree<BPKeyInt, BPObjectIntDouble>", numberOfEntries, insertTime, lookupTime, scanned, scanTime);
+
+		IntBPTree intTree = new IntBPTree(indexFile);
+		intTree.setCacheCapacity(cacheCapacity);
+		intTree.openNewFile();
+		time = System.currentTimeMillis();
+		for (int key : keys) {
+			intTree.add(key, key);
+		}
+		insertTime = System.currentTimeMillis() - time;
+		time = System.currentTimeMillis();
+		for (int key : keys) {
+			intTree.get(key, -1);
+		}
+		lookupTime = System.currentTimeMillis() - time;
+		time = System.currentTimeMillis();
+		final long[] sum = { 0 };
+		scanned = 0;
+		for (int i = 0; i < 10000; i++) {
+			scanned += intTree.rangeScan(keys[i], keys[i] + 100000, (key, value) -> sum[0] += value);
+		}
+		scanTime = System.currentTimeMillis() - time;
+		intTree.close();
+		print("IntBPTree", numberOfEntries, insertTime, lookupTime, scanned, scanTime);
+		indexFile.delete();
+	}
+
+	private static void print(String name, int numberOfEntries, long insertTime, long lookupTime, long scanned,
+			long scanTime) {
+		System.out.println(name + ": " + (numberOfEntries * 1000L / Math.max(1, insertTime)) + " inserts/s, "
+				+ (numberOfEntries * 1000L / Math.max(1, lookupTime)) + " lookups/s, "
+				+ (scanned * 1000L / Math.max(1, scanTime)) + " scanned entries/s");
+	}
+}
@@ -0,0 +1,59 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.SearchStrategy;
+import sk.upjs.gursky.bplustree.entries.BPKeyInt;
+import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
+
+public class TestSearchStrategies {
+
+	public static void main(String[] args) throws IOException {
+		int numberOfEntries = 2000000;
+		int numberOfLookups = 2000000;
+		File indexFile = new File("/var/tmp/indexBPSearch.idx");
+		List<BPObjectIntDouble> entries = new ArrayList<BPObjectIntDouble>();
+		Random random = new Random(1);
+		int key = 0;
+		for (int i = 0; i < numberOfEntries; i++) {
+			key += 1 + random.nextInt(100);
+			entries.add(new BPObjectIntDouble(key, i));
+		}
+		BPKeyInt[] lookups = new BPKeyInt[numberOfLookups];
+		for (int i = 0; i < numberOfLookups; i++) {
+			lookups[i] = new BPKeyInt(random.nextInt(key));
+		}
+		for (int nodeSize = 1024; nodeSize <= 65536; nodeSize *= 4) {
+			BPTree<BPKeyInt, BPObjectIntDouble> tree = new BPTree<BPKeyInt, BPObjectIntDouble>(
+					BPObjectIntDouble.class, indexFile);
+			tree.setNodeSize(nodeSize);
+			tree.setCacheCapacity(numberOfEntries * 32 / nodeSize); // all the nodes are in the cache
+			tree.openAndBatchUpdate(entries.iterator(), numberOfEntries);
+			tree.close();
+			tree.openForRead();
+			for (SearchStrategy strategy : SearchStrategy.values()) {
+				tree.setSearchStrategy(strategy);
+				lookup(tree, lookups); // warm up
+				long time = System.nanoTime();
+				int found = lookup(tree, lookups);
+				time = System.nanoTime() - time;
+				System.out.printf("node %5d B, %-13s: %6.0f ns/lookup, found %d%n", nodeSize, strategy,
+						(double) time / numberOfLookups, found);
+			}
+			tree.close();
+		}
+		indexFile.delete();
+	}
+
+	private static int lookup(BPTree<BPKeyInt, BPObjectIntDouble> tree, BPKeyInt[] keys) {
+		int found = 0;
+		for (BPKeyInt key : keys) {
+			if (tree.get(key) != null)
+				found++;
+		}
+		return found;
+	}
+}
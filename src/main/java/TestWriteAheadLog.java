@@ -0,0 +1,56 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.entries.BPKeyInt;
+import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
+
+public class TestWriteAheadLog {
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		int numberOfEntries = 2000;
+		int numberOfThreads = 8;
+		String indexFile = "/var/tmp/indexBPLog.idx";
+		//every insert is committed, the concurrent commits are forced together within the window
+		//without the log the inserts are durable only after close()
+		long[] windows = { -1, 0, 1, 5, 20 };
+		for (long window : windows) {
+			final BPTree<BPKeyInt, BPObjectIntDouble> tree = new BPTree<BPKeyInt, BPObjectIntDouble>(
+					BPObjectIntDouble.class, new File(indexFile));
+			tree.setCacheCapacity(100);
+			tree.setWriteAheadLog(window >= 0);
+			tree.setGroupCommitWindow(Math.max(0, window));
+			tree.openNewFile();
+			ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+			List<Future<?>> inserts = new ArrayList<Future<?>>();
+			long time = System.currentTimeMillis();
+			for (int t = 0; t < numberOfThreads; t++) {
+				inserts.add(executor.submit(() -> {
+					for (int i = 0; i < numberOfEntries / numberOfThreads; i++) {
+						synchronized (tree) {
+							tree.add(new BPObjectIntDouble((int) (Math.random() * 1000000000), Math.random()));
+						}
+						tree.commit();
+					}
+					return null;
+				}));
+			}
+			for (Future<?> insert : inserts) {
+				insert.get();
+			}
+			time = System.currentTimeMillis() - time;
+			executor.shutdown();
+			long syncs = tree.getCountLogSyncs();
+			tree.close();
+			System.out.println((window < 0 ? "no log" : "window " + window + " ms") + ": "
+					+ (numberOfEntries * 1000L / Math.max(1, time)) + " committed inserts/s, log syncs: " + syncs);
+			new File(indexFile).delete();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * sk.upjs.gursky.bplustree.AdaptiveHashIndex.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+/**
+ * Hash index of the hot keys of point lookups, it maps a key to the leaf and
+ * the position of its entry, so a repeated lookup skips the inner nodes. The
+ * lookups of a key are counted in a table of counters indexed by the hash of
+ * the key, the key is added to the index by its lookup after
+ * <code>HOT_LOOKUPS</code> lookups. The counters are halved after every
+ * <code>AGING</code> lookups per counter, so the keys which are not hot anymore
+ * are replaced by the new hot keys.
+ * 
+ * An entry of the index is not updated by the changes of the tree. Before it is
+ * used, it is validated against the leaf: the node on the offset must be a leaf,
+ * which is not free, and must have an entry with the same key on the position.
+ * Splits, merges and removes move the entries, so such an entry is not valid
+ * and it is removed. An entry with the same key is a correct result of
+ * <code>get</code> also after the changes.
+ * 
+ * The index is a direct mapped table of immutable entries, so the concurrent
+ * readers of a tree opened for read need no lock, a lost update of a counter or
+ * of the table only delays the learning. This class is not public.
+ */
+class AdaptiveHashIndex<K extends BPKey<K>, O extends BPObject<K, O>> {
+	private static final int HOT_LOOKUPS = 3; // lookups of a key before it is added to the index
+	private static final int AGING = 8; // lookups per counter after which the counters are halved
+
+	private final BPTree<K, O> tree;
+	private final Entry<K>[] table;
+	private final int[] counters;
+	private final int mask;
+	private int lookups; // lookups since the last aging
+	private long countHits;
+
+	private static final class Entry<K> {
+		final K key;
+		final long offset; // offset of the leaf
+		final int position; // position of the entry in the leaf
+
+		Entry(K key, long offset, int position) {
+			this.key = key;
+			this.offset = offset;
+			this.position = position;
+		}
+	}
+
+	/**
+	 * @param capacity maximal number of hot keys
+	 */
+	@SuppressWarnings("unchecked")
+	AdaptiveHashIndex(BPTree<K, O> tree, int capacity) {
+		this.tree = tree;
+		int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+		table = (Entry<K>[]) new Entry<?>[size];
+		counters = new int[size];
+		mask = size - 1;
+	}
+
+	private int index(K key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * @return the entry with the given key, if the key is in the index and its
+	 *         leaf still contains it, otherwise <code>null</code>
+	 */
+	O get(K key) {
+		int i = index(key);
+		Entry<K> entry = table[i];
+		if (entry == null || entry.key.compareTo(key) != 0)
+			return null;
+		if (tree.isUsedOffset(entry.offset)) {
+			BPNode<K, O> node = tree.getBPNode(entry.offset);
+			if (node instanceof BPLeafNode) {
+				BPLeafNode<K, O> leaf = (BPLeafNode<K, O>) node;
+				if (entry.position < leaf.numberOfEntries) {
+					O result = leaf.entries[entry.position];
+					if (result.getKey().compareTo(key) == 0) {
+						countHits++;
+						return result;
+					}
+				}
+			}
+		}
+		table[i] = null;
+		return null;
+	}
+
+	/**
+	 * Counts the lookup of the key found in the tree, the hot key is added to the
+	 * index.
+	 * 
+	 * @param leaf     leaf with the key
+	 * @param position position of the entry with the key in the leaf
+	 */
+	void found(BPLeafNode<K, O> leaf, int position) {
+		K key = leaf.entries[position].getKey();
+		int i = index(key);
+		if (++counters[i] >= HOT_LOOKUPS)
+			table[i] = new Entry<K>(key, leaf.offset, position);
+		if (++lookups >= AGING * counters.length) {
+			lookups = 0;
+			for (int j = 0; j < counters.length; j++) {
+				counters[j] >>>= 1;
+			}
+		}
+	}
+
+	long getCountHits() {
+		return countHits;
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * sk.upjs.gursky.bplustree.AsyncNodeReader.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *     
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *     
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads nodes of the {@link BPTree} by an {@link AsynchronousFileChannel}. At
+ * most <code>maxConcurrency</code> reads are issued at the same time, other
+ * requests wait in a queue. Requests for the same node share one read. The
+ * nodes read are inserted to the cache of the tree, so the asynchronous and
+ * synchronous operations share the cache. This class is not public.
+ * 
+ * @see BPTree#getAsync(BPKey)
+ *
+ * @param <K> Key class used in inner nodes
+ * @param <O> Entry class used in leaf nodes
+ */
+class AsyncNodeReader<K extends BPKey<K>, O extends BPObject<K, O>> {
+	private final BPTree<K, O> tree;
+	private final AsynchronousFileChannel channel; // null if the pages are not stored in the file
+	private final int maxConcurrency;
+	private final AtomicInteger inFlight = new AtomicInteger(); // number of reads in progress
+	private final ConcurrentLinkedQueue<Long> waiting = new ConcurrentLinkedQueue<Long>();
+	private final ConcurrentHashMap<Long, CompletableFuture<BPNode<K, O>>> requests = new ConcurrentHashMap<Long, CompletableFuture<BPNode<K, O>>>();
+
+	AsyncNodeReader(BPTree<K, O> tree, int maxConcurrency) throws IOException {
+		this.tree = tree;
+		this.maxConcurrency = maxConcurrency;
+		channel = tree.getPageStore() == PageStore.Kind.FILE
+				? AsynchronousFileChannel.open(tree.getIndexFile().toPath(), StandardOpenOption.READ)
+				: null;
+	}
+
+	/**
+	 * Returns a node having a given offset from the cache or reads it from the
+	 * index file.
+	 * 
+	 * @param offset Offset of a node to return.
+	 * @return future completed by the node with given offset.
+	 */
+	CompletableFuture<BPNode<K, O>> getBPNode(long offset) {
+		BPNode<K, O> node = tree.getCachedBPNode(offset);
+		if (node != null) {
+			return CompletableFuture.completedFuture(node);
+		}
+		CompletableFuture<BPNode<K, O>> request = new CompletableFuture<BPNode<K, O>>();
+		CompletableFuture<BPNode<K, O>> previous = requests.putIfAbsent(offset, request);
+		if (previous != null) {
+			return previous;
+		}
+		waiting.add(offset);
+		startReads();
+		return request;
+	}
+
+	/**
+	 * Starts waiting reads while the number of reads in progress is smaller than
+	 * <code>maxConcurrency</code>.
+	 */
+	private void startReads() {
+		while (!waiting.isEmpty()) {
+			int running = inFlight.get();
+			if (running >= maxConcurrency)
+				return;
+			if (!inFlight.compareAndSet(running, running + 1))
+				continue;
+			Long offset = waiting.poll();
+			if (offset == null) {
+				inFlight.decrementAndGet();
+				continue;
+			}
+			read(offset, ByteBuffer.allocate(tree.nodeSize));
+		}
+	}
+
+	private void read(final long offset, final ByteBuffer bb) {
+		if (channel == null) { // the mapped or memory store is read without waiting
+			BPNode<K, O> node = null;
+			Throwable failure = null;
+			try {
+				tree.getStore().readPage(bb, offset);
+				bb.rewind();
+				node = tree.cacheLoadedBPNode(offset, bb);
+			} catch (Throwable t) {
+				failure = t;
+			}
+			finish(offset, node, failure);
+			return;
+		}
+		channel.read(bb, offset + bb.position(), null, new CompletionHandler<Integer, Void>() {
+			public void completed(Integer result, Void attachment) {
+				if (result > 0 && bb.hasRemaining()) {
+					read(offset, bb);
+					return;
+				}
+				if (bb.hasRemaining()) { // the end of the file before the end of the node
+					finish(offset, null, new EOFException("The node " + offset + " is not complete in the index file."));
+					return;
+				}
+				bb.rewind();
+				BPNode<K, O> node = null;
+				Throwable failure = null;
+				try {
+					node = tree.cacheLoadedBPNode(offset, bb);
+				} catch (Throwable t) {
+					failure = t;
+				}
+				finish(offset, node, failure);
+			}
+
+			public void failed(Throwable exc, Void attachment) {
+				finish(offset, null, exc);
+			}
+		});
+	}
+
+	private void finish(long offset, BPNode<K, O> node, Throwable failure) {
+		CompletableFuture<BPNode<K, O>> request = requests.remove(offset);
+		inFlight.decrementAndGet();
+		if (channel != null) // the direct reads are started by the loop in startReads
+			startReads();
+		if (failure != null)
+			request.completeExceptionally(failure);
+		else
+			request.complete(node);
+	}
+
+	/**
+	 * Returns the most left leaf that can contain entries with the given key.
+	 */
+	CompletableFuture<BPLeafNode<K, O>> findLeafLeft(long offset, final K key) {
+		return getBPNode(offset).thenCompose(node -> {
+			if (node instanceof BPInnerNode) {
+				return findLeafLeft(((BPInnerNode<K, O>) node).getChildOffset(key), key);
+			}
+			return CompletableFuture.completedFuture((BPLeafNode<K, O>) node);
+		});
+	}
+
+	/**
+	 * Collects entries with keys from the interval &lt;low, high&gt;.
+	 */
+	CompletableFuture<List<O>> intervalQuery(long rootOffset, final K low, final K high) {
+		return findLeafLeft(rootOffset, low).thenCompose(leaf -> {
+			int position = leaf.getLeftObjectPosition(low);
+			if (position < 0) {
+				position = -1 - position;
+			}
+			return collect(leaf, position, high, new ArrayList<O>());
+		});
+	}
+
+	private CompletableFuture<List<O>> collect(BPLeafNode<K, O> leaf, int position, final K high,
+			final List<O> result) {
+		while (true) {
+			while (position < leaf.numberOfEntries) {
+				O obj = leaf.entries[position++];
+				if (obj.getKey().compareTo(high) > 0) {
+					return CompletableFuture.completedFuture(result);
+				}
+				result.add(obj);
+			}
+			if (leaf.offsetRightNode < 0) {
+				return CompletableFuture.completedFuture(result);
+			}
+			BPNode<K, O> next = tree.getCachedBPNode(leaf.offsetRightNode);
+			if (next == null) {
+				return getBPNode(leaf.offsetRightNode)
+						.thenCompose(node -> collect((BPLeafNode<K, O>) node, 0, high, result));
+			}
+			leaf = (BPLeafNode<K, O>) next;
+			position = 0;
+		}
+	}
+
+	void close() throws IOException {
+		if (channel != null)
+			channel.close();
+	}
+}
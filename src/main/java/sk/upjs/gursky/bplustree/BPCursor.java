@@ -0,0 +1,41 @@
+/*
+ * sk.upjs.gursky.bplustree.BPCursor.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *     
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *     
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Cursor over the entries of a query. The entries are read from the index leaf
+ * by leaf only when they are needed, so the result of the query is never
+ * stored in memory as a whole. The cursor should be closed if it is not read to
+ * the end.
+ * 
+ * @see BPTree#intervalCursor(BPKey, BPKey)
+ *
+ * @param <O> Entry class returned by the cursor
+ */
+public interface BPCursor<O> extends Iterator<O>, Closeable {
+
+	/**
+	 * Stops the cursor and releases the resources held by it. Next call of
+	 * <code>hasNext()</code> returns false.
+	 */
+	public void close();
+}
@@ -0,0 +1,415 @@
+/*
+ * sk.upjs.gursky.bplustree.BPExternalSorter.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *     
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *     
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more entries than fit to the memory, e.g. for
+ * {@link BPTree#openAndBatchUpdate(Iterator, long)}. Entries are collected to
+ * runs of at most <code>runSize</code> entries and at most
+ * <code>runMemory</code> bytes, every full run is sorted and stored to a
+ * temporary file. The runs are merged by at most <code>fanIn</code> at once,
+ * the last merge is done lazily by the returned iterator. If all the entries
+ * fit to one run, nothing is written to the disk. <code>close()</code> deletes
+ * the temporary files also when adding or sorting fails.
+ * 
+ * <pre>
+ * try (BPExternalSorter&lt;BPObjectIntDouble&gt; sorter = new BPExternalSorter&lt;BPObjectIntDouble&gt;(
+ * 		BPObjectIntDouble.class, 100000, 64)) {
+ * 	for (BPObjectIntDouble entry : entries) {
+ * 		sorter.add(entry);
+ * 	}
+ * 	tree.openAndBatchUpdate(sorter.iterator(), sorter.size());
+ * }
+ * </pre>
+ * 
+ * Every entry is stored in the run files in <code>getSize()</code> bytes, in
+ * the memory it is counted as <code>getSize() + ENTRY_OVERHEAD</code> bytes.
+ * 
+ * @param <O> Entry class
+ */
+public class BPExternalSorter<O extends BPObject<?, O>> implements Closeable {
+
+	public static final int DEFAULT_RUN_SIZE = 1 << 20;
+	public static final int DEFAULT_FAN_IN = 64;
+	/**
+	 * Estimated bytes of the object header and the reference of one entry in the
+	 * memory.
+	 */
+	public static final int ENTRY_OVERHEAD = 32;
+	private static final int BUFFER_SIZE = 1 << 16; // bytes read or written by one I/O operation
+
+	private final Class<O> classO;
+	private final int objectSize;
+	private final int runSize;
+	private long runMemory = Runtime.getRuntime().maxMemory() / 8;
+	private int runLimit; // number of entries of a full run
+	private final int fanIn;
+	private final File tempDirectory;
+	private ArrayList<O> run;
+	private LinkedList<Run> runs = new LinkedList<Run>();
+	private List<RunReader> readers = new ArrayList<RunReader>();
+	private long size;
+	private int countRuns;
+	private boolean sorted;
+
+	/**
+	 * Creates a sorter with default run size and fan-in using the default
+	 * temporary directory.
+	 * 
+	 * @param classO class of sorted entries
+	 */
+	public BPExternalSorter(Class<O> classO) {
+		this(classO, DEFAULT_RUN_SIZE, DEFAULT_FAN_IN, null);
+	}
+
+	/**
+	 * Creates a sorter using the default temporary directory.
+	 * 
+	 * @param classO  class of sorted entries
+	 * @param runSize maximal number of entries sorted in memory
+	 * @param fanIn   maximal number of runs merged at once, at least 2
+	 */
+	public BPExternalSorter(Class<O> classO, int runSize, int fanIn) {
+		this(classO, runSize, fanIn, null);
+	}
+
+	/**
+	 * @param classO        class of sorted entries
+	 * @param runSize       maximal number of entries sorted in memory
+	 * @param fanIn         maximal number of runs merged at once, at least 2
+	 * @param tempDirectory directory for run files, <code>null</code> for the
+	 *                      default temporary directory
+	 */
+	public BPExternalSorter(Class<O> classO, int runSize, int fanIn, File tempDirectory) {
+		if (runSize < 1) {
+			throw new RuntimeException("Run size must be at least 1.");
+		}
+		if (fanIn < 2) {
+			throw new RuntimeException("At least 2 runs must be merged at once.");
+		}
+		this.classO = classO;
+		this.runSize = runSize;
+		this.fanIn = fanIn;
+		this.tempDirectory = tempDirectory;
+		objectSize = newObject().getSize();
+		runLimit = computeRunLimit();
+		run = new ArrayList<O>(Math.min(runLimit, 1 << 16));
+	}
+
+	/**
+	 * Sets the memory of one run in bytes, so the runs of big entries fit to the
+	 * heap. Sorters used at the same time share the heap. Default is one eighth of
+	 * the maximal heap.
+	 * 
+	 * @param runMemory maximal memory of one run in bytes
+	 */
+	public void setRunMemory(long runMemory) {
+		if (size > 0) {
+			throw new RuntimeException("Cannot change runMemory after the entries are added.");
+		}
+		if (runMemory < 1) {
+			throw new IllegalArgumentException("runMemory must be positive");
+		}
+		this.runMemory = runMemory;
+		runLimit = computeRunLimit();
+	}
+
+	private int computeRunLimit() {
+		return (int) Math.max(1, Math.min(runSize, runMemory / (objectSize + ENTRY_OVERHEAD)));
+	}
+
+	private O newObject() {
+		try {
+			return classO.newInstance();
+		} catch (Exception e) {
+			throw new Error("Class " + classO + "should have empty constructor!");
+		}
+	}
+
+	/**
+	 * Adds an entry to sort. If the current run is full, it is sorted and stored
+	 * to a temporary file.
+	 * 
+	 * @param entry entry to sort
+	 * @throws IOException
+	 */
+	public void add(O entry) throws IOException {
+		if (sorted) {
+			throw new RuntimeException("Entries cannot be added after the sorting.");
+		}
+		run.add(entry);
+		size++;
+		if (run.size() >= runLimit) {
+			spill();
+		}
+	}
+
+	/**
+	 * @return number of added entries
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return number of runs stored to temporary files including the runs created
+	 *         by intermediate merges
+	 */
+	public int getCountRuns() {
+		return countRuns;
+	}
+
+	private void spill() throws IOException {
+		Collections.sort(run);
+		Run spilled = new Run();
+		runs.add(spilled);
+		write(spilled, run.iterator());
+		run.clear();
+	}
+
+	/**
+	 * Writes the entries to the run, the file of the run is closed also when the
+	 * writing fails.
+	 */
+	private void write(Run r, Iterator<O> entries) throws IOException {
+		RunWriter writer = new RunWriter(r);
+		try {
+			while (entries.hasNext()) {
+				writer.write(entries.next());
+			}
+			writer.flush();
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Returns all the added entries in ascending order. No entry can be added
+	 * after this method is called and this method can be called only once.
+	 * 
+	 * @return iterator over sorted entries
+	 * @throws IOException
+	 */
+	public Iterator<O> iterator() throws IOException {
+		if (sorted) {
+			throw new RuntimeException("Entries are already sorted.");
+		}
+		sorted = true;
+		if (runs.isEmpty()) {
+			Collections.sort(run);
+			return run.iterator();
+		}
+		if (!run.isEmpty()) {
+			spill();
+		}
+		run = null;
+		while (runs.size() > fanIn) {
+			MergeIterator iterator = merge(fanIn);
+			Run merged = new Run();
+			runs.add(merged);
+			write(merged, iterator);
+		}
+		return merge(runs.size());
+	}
+
+	/**
+	 * Returns an iterator merging first <code>count</code> runs. The merged runs
+	 * are removed from the list of runs and their files are deleted after they are
+	 * read.
+	 */
+	private MergeIterator merge(int count) throws IOException {
+		List<RunReader> merged = new ArrayList<RunReader>(count);
+		for (int i = 0; i < count; i++) {
+			RunReader reader = new RunReader(runs.getFirst());
+			runs.removeFirst(); // the file is deleted by the reader now
+			merged.add(reader);
+			readers.add(reader);
+		}
+		return new MergeIterator(merged);
+	}
+
+	/**
+	 * Deletes the temporary files, also the files of the runs, which have not been
+	 * written or read completely.
+	 */
+	public void close() {
+		for (RunReader reader : readers) {
+			reader.close();
+		}
+		readers.clear();
+		for (Run r : runs) {
+			r.file.delete();
+		}
+		runs.clear();
+		run = null;
+	}
+
+	private class Run {
+		final File file;
+		long count;
+
+		Run() throws IOException {
+			file = File.createTempFile("bprun", ".tmp", tempDirectory);
+			file.deleteOnExit();
+			countRuns++;
+		}
+	}
+
+	private class RunWriter {
+		private final Run run;
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private final ByteBuffer bb;
+
+		RunWriter(Run run) throws IOException {
+			this.run = run;
+			raf = new RandomAccessFile(run.file, "rw");
+			channel = raf.getChannel();
+			bb = ByteBuffer.allocateDirect(Math.max(1, BUFFER_SIZE / objectSize) * objectSize);
+		}
+
+		void write(O entry) throws IOException {
+			if (!bb.hasRemaining()) {
+				flush();
+			}
+			int position = bb.position();
+			entry.save(bb);
+			bb.position(position + objectSize);
+			run.count++;
+		}
+
+		void flush() throws IOException {
+			bb.flip();
+			while (bb.hasRemaining()) {
+				channel.write(bb);
+			}
+			bb.clear();
+		}
+
+		void close() throws IOException {
+			raf.close();
+		}
+	}
+
+	private class RunReader {
+		private final Run run;
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private final ByteBuffer bb;
+		private long remaining;
+		private O current;
+
+		RunReader(Run run) throws IOException {
+			this.run = run;
+			raf = new RandomAccessFile(run.file, "r");
+			channel = raf.getChannel();
+			bb = ByteBuffer.allocateDirect(Math.max(1, BUFFER_SIZE / objectSize) * objectSize);
+			bb.limit(0);
+			remaining = run.count;
+			try {
+				advance();
+			} catch (RuntimeException e) {
+				raf.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Reads the next entry of the run to <code>current</code>, at the end of
+		 * the run <code>current</code> is <code>null</code> and the file is deleted.
+		 */
+		void advance() {
+			if (remaining == 0) {
+				current = null;
+				close();
+				return;
+			}
+			try {
+				if (!bb.hasRemaining()) {
+					bb.clear();
+					bb.limit((int) Math.min(remaining, bb.capacity() / objectSize) * objectSize);
+					while (bb.hasRemaining() && channel.read(bb) > 0)
+						;
+					bb.flip();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Unsuccessful reading from the run file!", e);
+			}
+			current = newObject();
+			int position = bb.position();
+			current.load(bb);
+			bb.position(position + objectSize);
+			remaining--;
+		}
+
+		void close() {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			run.file.delete();
+		}
+	}
+
+	private class MergeIterator implements Iterator<O> {
+		private final PriorityQueue<RunReader> queue;
+
+		MergeIterator(List<RunReader> readers) {
+			queue = new PriorityQueue<RunReader>(Math.max(1, readers.size()),
+					(r1, r2) -> r1.current.compareTo(r2.current));
+			for (RunReader reader : readers) {
+				if (reader.current != null) {
+					queue.add(reader);
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		public O next() {
+			RunReader reader = queue.poll();
+			if (reader == null) {
+				throw new NoSuchElementException();
+			}
+			O entry = reader.current;
+			reader.advance();
+			if (reader.current != null) {
+				queue.add(reader);
+			}
+			return entry;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * sk.upjs.gursky.bplustree.BPFragmentation.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *     
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *     
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+/**
+ * Fragmentation of the index file measured by one pass over the leafs. A tree
+ * created by a batch update has the average leaf jump close to 1 (the leafs
+ * follow one another in the file, only the inner nodes lie between them) and
+ * the fill factor given by the batch update. After many
+ * adds and removes the scans jump around the file and the leafs are half empty,
+ * then the tree should be rebuilt by {@link BPTree#optimize()}.
+ * 
+ * @see BPTree#getFragmentation()
+ */
+public class BPFragmentation {
+	private final int numberOfLeafs;
+	private final int numberOfFreeNodes;
+	private final double averageLeafJump;
+	private final double fillFactor;
+
+	BPFragmentation(int numberOfLeafs, int numberOfFreeNodes, double averageLeafJump, double fillFactor) {
+		this.numberOfLeafs = numberOfLeafs;
+		this.numberOfFreeNodes = numberOfFreeNodes;
+		this.averageLeafJump = averageLeafJump;
+		this.fillFactor = fillFactor;
+	}
+
+	/**
+	 * @return number of leafs in the tree
+	 */
+	public int getNumberOfLeafs() {
+		return numberOfLeafs;
+	}
+
+	/**
+	 * @return number of free nodes in the index file waiting for reuse
+	 */
+	public int getNumberOfFreeNodes() {
+		return numberOfFreeNodes;
+	}
+
+	/**
+	 * Returns the average distance between the neighbouring leafs in the file
+	 * measured in nodes, 1 if all the leafs are stored one after another in the
+	 * key order.
+	 * 
+	 * @return average distance of the neighbouring leafs
+	 */
+	public double getAverageLeafJump() {
+		return averageLeafJump;
+	}
+
+	/**
+	 * @return number of entries divided by the capacity of all the leafs
+	 */
+	public double getFillFactor() {
+		return fillFactor;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("leafs: %d, free nodes: %d, average leaf jump: %.2f, fill factor: %.2f", numberOfLeafs,
+				numberOfFreeNodes, averageLeafJump, fillFactor);
+	}
+}
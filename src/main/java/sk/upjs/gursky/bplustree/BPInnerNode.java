@@ -45,16 +45,25 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 	BPInnerNode<K,O>  superNode;
 	long[]            offsets;
 	K[]				  entries;
+	private transient NodeSearch.Eytzinger<K> eytzinger; // keys in the Eytzinger order, only in a tree opened for read
 
 	/**
 	 * Creates new empty inner node
 	 */
-	@SuppressWarnings("unchecked")
 	BPInnerNode(BPTree<K,O> tree)		
+	{
+		this(tree, tree.getNewOffset());
+	}
+
+	/**
+	 * Creates new empty inner node with a given offset
+	 */
+	@SuppressWarnings("unchecked")
+	BPInnerNode(BPTree<K,O> tree, long offset)
 	{
 		isChanged = true;
 		this.tree = tree;
-		offset = tree.getNewOffset();
+		this.offset = offset;
 		numberOfEntries = 0;
 		entries = (K[]) Array.newInstance(tree.classK, tree.internalNodeCapacity);
 		offsets = new long[tree.internalNodeCapacity + 1];
@@ -92,16 +101,56 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 	 * @param key searched key
 	 * @return the offset most left child node in which the entry with the given key should be.
 	 */
-	private long getChildOffset(K key) {
-		int pos = Arrays.binarySearch(entries, 0, numberOfEntries, key);
-		if (pos < 0) 
-			pos = -1 - pos;
-		else {
-			while ((pos > 0)&&(key.compareTo(entries[pos - 1]) == 0)) 
-				pos--;
-			pos++; // because the object with given key is included in the right child subtree 
+	long getChildOffset(K key) {
+		return offsets[getChildPosition(key)];
+	}
+
+	/**
+	 * Finds the position of the most left child node in which the entry with the given key should be. 
+	 *   
+	 * @param key searched key
+	 * @return the position of the most left child node in which the entry with the given key should be.
+	 */
+	int getChildPosition(K key) {
+		int pos;
+		switch (tree.searchStrategy) {
+		case BINARY:
+			pos = Arrays.binarySearch(entries, 0, numberOfEntries, key);
+			if (pos < 0) 
+				pos = -1 - pos;
+			else {
+				while ((pos > 0)&&(key.compareTo(entries[pos - 1]) == 0)) 
+					pos--;
+				pos++; // because the object with given key is included in the right child subtree 
+			}
+			return pos;
+		case INTERPOLATION:
+			pos = NodeSearch.interpolation(entries, numberOfEntries, key);
+			break;
+		case EYTZINGER:
+			if (tree.isReadOnly()) {
+				NodeSearch.Eytzinger<K> layout = eytzinger;
+				if (layout == null)
+					eytzinger = layout = new NodeSearch.Eytzinger<K>(entries, numberOfEntries);
+				pos = layout.search(key);
+			} else { // the layout is built only for the nodes, which do not change
+				pos = NodeSearch.branchless(entries, numberOfEntries, key);
+			}
+			break;
+		default:
+			pos = NodeSearch.branchless(entries, numberOfEntries, key);
 		}
-		return offsets[pos];
+		if (pos < numberOfEntries && entries[pos].compareTo(key) == 0)
+			pos++; // because the object with given key is included in the right child subtree
+		return pos;
+	}
+
+	/**
+	 * Forgets the Eytzinger order of the keys, which is built again when the node
+	 * is searched in a tree opened for read.
+	 */
+	void dropSearchLayout() {
+		eytzinger = null;
 	}
 
 	/**
@@ -111,13 +160,57 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 	 * @return the offset of the child node in which the given entry should be.
 	 */
 	private long getChildOffset(O entry) {
+		return offsets[getChildPosition(entry)];
+	}
+
+	/**
+	 * Returns the number of keys smaller than the given key (or smaller or equal
+	 * if <code>orEqual</code> is true). For smaller keys it is the position of the
+	 * most left child, which can contain the given key, for smaller or equal keys
+	 * it is the position of the most right one.
+	 */
+	int countKeysBefore(K key, boolean orEqual) {
+		int low = 0, high = numberOfEntries;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = entries[mid].compareTo(key);
+			if (cmp < 0 || (orEqual && cmp == 0))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the position of the leftmost child node, which can contain the given
+	 * key. The entries with a key equal to the separators can be in all the
+	 * children between these separators.
+	 * 
+	 * @param key searched key
+	 * @return the position of the leftmost child node with the given key
+	 */
+	int getFirstChildPosition(K key) {
+		int pos = getChildPosition(key);
+		while (pos > 0 && entries[pos - 1].compareTo(key) == 0)
+			pos--;
+		return pos;
+	}
+
+	/**
+	 * Finds the position of the child node in which the given entry should be. 
+	 *   
+	 * @param entry searched entry
+	 * @return the position of the child node in which the given entry should be.
+	 */
+	int getChildPosition(O entry) {
 		int pos = Arrays.binarySearch(entries, 0, numberOfEntries, entry.getKey());
 		if (pos < 0) 
 			pos = -1 - pos;
 		else {
 			pos++; // because the object with given key is included in the right child subtree 
 		}
-		return offsets[pos];
+		return pos;
 	}
 	
 	@Override
@@ -183,8 +276,9 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 		}
 		K  keyUp;														// key for parent node
 		BPInnerNode<K,O> rightNode = new BPInnerNode<K,O>(tree);
+		tree.countSplits++;
 		i = tree.internalNodeCapacity;
-		numberOfEntries = tree.internalNodeCapacity / 2;
+		numberOfEntries = tree.splitPosition(tree.internalNodeCapacity);
 		rightNode.numberOfEntries = tree.internalNodeCapacity - numberOfEntries;
 		while ((offsets[i] != leftOffset)&&(i >= numberOfEntries)) {
 			rightNode.offsets[i - numberOfEntries] = offsets[i];
@@ -221,7 +315,7 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 	}
 	
 	@Override
-	K batchUpdate(Iterator<O> iterator, int size, int height, ArrayList<Integer> maxSizes, int leftOffsetCorrection, int rightOffsetCorrection) {
+	K batchUpdate(Iterator<O> iterator, long size, int height, ArrayList<Long> maxSizes, int leftOffsetCorrection, int rightOffsetCorrection) {
 		isChanged = true;
 		int childHeight = height - 1;
 		int leftC, rightC;
@@ -229,7 +323,7 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 		BPNode<K,O> child;
 		do {
 			child = childHeight == 0 ? new BPLeafNode<K, O>(tree) : new BPInnerNode<K, O>(tree);
-			leftC = numberOfEntries == 0 ? leftOffsetCorrection : height;
+			leftC = leftKey == null ? leftOffsetCorrection : height;
 			rightC = size - maxSizes.get(childHeight) <= 0 ? rightOffsetCorrection : height;
 			K key = child.batchUpdate(iterator, Math.min(size,maxSizes.get(childHeight)), childHeight, maxSizes, leftC, rightC);
 			if (leftKey == null) {
@@ -248,14 +342,22 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 
 	boolean remove(O entry, boolean amIRoot, int myHeight)
 	{
-		int pos = Arrays.binarySearch(entries, 0, numberOfEntries, entry.getKey());
-		if (pos < 0) 
-			pos = -1 - pos;
-		else {
-			while ((pos > 0)&&(entry.getKey().compareTo(entries[pos - 1]) == 0)) 
-				pos--;
-			pos++; // because the object with given key is included in the right tree
+		K key = entry.getKey();
+		// the entries with a key equal to the separators can be in more children
+		for (int pos = getFirstChildPosition(key); ; pos++) {
+			if (remove(entry, pos, amIRoot, myHeight))
+				return true;
+			if (pos == numberOfEntries || entries[pos].compareTo(key) != 0)
+				return false;
 		}
+	}
+
+	/**
+	 * Removes the entry from the child at the given position and rebalances the
+	 * child, if it underflows.
+	 */
+	private boolean remove(O entry, int pos, boolean amIRoot, int myHeight)
+	{
 		long childOffset = offsets[pos];
 
 		boolean result;
@@ -263,7 +365,7 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 			BPLeafNode<K,O> child = (BPLeafNode<K,O>) tree.getBPNode(childOffset);
 			result = child.remove(entry, false, 0);
 			if (! result) return false;
-			if (child.numberOfEntries >= tree.minLeafQuantity) {
+			if (child.numberOfEntries >= tree.underflowLeafQuantity()) {
 				tree.putBPNode(child);
 				return result;
 			}
@@ -272,7 +374,7 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 			BPLeafNode<K,O> rightChild = null;
 			if (pos>0) {
 				leftChild = (BPLeafNode<K,O>) tree.getBPNode(offsets[pos-1]);
-				if (leftChild.numberOfEntries>tree.minLeafQuantity) {				// taking entry from left child
+				if (leftChild.numberOfEntries>tree.underflowLeafQuantity()) {				// taking entry from left child
 					for (int i = child.numberOfEntries; i > 0; i--) {
 						child.entries[i] = child.entries[i-1];
 					}
@@ -287,7 +389,7 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 			}
 			if (pos < numberOfEntries) {
 				rightChild = (BPLeafNode<K,O>) tree.getBPNode(offsets[pos+1]);
-				if (rightChild.numberOfEntries>tree.minLeafQuantity) {				// taking entry from right child
+				if (rightChild.numberOfEntries>tree.underflowLeafQuantity()) {				// taking entry from right child
 					child.entries[child.numberOfEntries++] = rightChild.entries[0];
 					for (int i = 1; i < rightChild.numberOfEntries; i++) {
 						rightChild.entries[i-1] = rightChild.entries[i];
@@ -361,7 +463,7 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 			BPInnerNode<K,O> child = (BPInnerNode<K,O>) tree.getBPNode(childOffset);
 			result = child.remove(entry, false, myHeight - 1);
 			if (! result) return false;
-			if (child.numberOfEntries >= tree.minInternalNodeQuantity) {
+			if (child.numberOfEntries >= tree.underflowInternalNodeQuantity()) {
 				tree.putBPNode(child);
 				return result;
 			}
@@ -370,7 +472,7 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 			BPInnerNode<K,O> rightChild = null;
 			if (pos>0) {
 				leftChild = (BPInnerNode<K,O>) tree.getBPNode(offsets[pos-1]);
-				if (leftChild.numberOfEntries>tree.minInternalNodeQuantity) {				// taking entry from left child
+				if (leftChild.numberOfEntries>tree.underflowInternalNodeQuantity()) {				// taking entry from left child
 					child.offsets[child.numberOfEntries+1] = child.offsets[child.numberOfEntries];
 					for (int i = child.numberOfEntries; i > 0; i--) {
 						child.entries[i] = child.entries[i-1];
@@ -380,6 +482,7 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 					child.entries[0] = entries[pos-1];
 					child.offsets[0] = leftChild.offsets[leftChild.numberOfEntries];
 					entries[pos-1] = leftChild.entries[--leftChild.numberOfEntries];
+					child.isChanged = true;
 					tree.putBPNode(child);
 					leftChild.isChanged = true;
 					tree.putBPNode(leftChild);
@@ -388,7 +491,7 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 			}
 			if (pos < numberOfEntries) {
 				rightChild = (BPInnerNode<K,O>) tree.getBPNode(offsets[pos+1]);
-				if (rightChild.numberOfEntries>tree.minInternalNodeQuantity) {				// taking entry from right child
+				if (rightChild.numberOfEntries>tree.underflowInternalNodeQuantity()) {				// taking entry from right child
 					child.entries[child.numberOfEntries++] = entries[pos];
 					child.offsets[child.numberOfEntries] = rightChild.offsets[0];
 					entries[pos] = rightChild.entries[0];
@@ -398,6 +501,7 @@ class BPInnerNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K
 					}
 					rightChild.offsets[rightChild.numberOfEntries-1] = rightChild.offsets[rightChild.numberOfEntries]; 
 					rightChild.numberOfEntries--;
+					child.isChanged = true;
 					tree.putBPNode(child);
 					rightChild.isChanged = true;
 					tree.putBPNode(rightChild);
@@ -29,6 +29,8 @@ import java.nio.ByteBuffer;
  * for all keys in a tree.
  * 
  * Two keys must be comparable to manage a sorted character of the B+tree structure.
+ * The keys of a tree with the adaptive hash index must have <code>hashCode</code> consistent with
+ * <code>compareTo</code>, see {@link BPTree#setAdaptiveHashIndex(int)}.
  *
  * @author Peter Gursky
  * @version 1.0, February 5th 2009
@@ -86,4 +86,9 @@ public abstract class BPKeyString implements BPKey<BPKeyString>, Serializable
 		return key.equals(((BPKeyString)obj).key);
 	}
 
+	@Override
+	public int hashCode() {
+		return key.hashCode();
+	}
+
 }
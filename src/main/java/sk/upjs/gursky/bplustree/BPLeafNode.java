@@ -24,6 +24,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Inner node class of the {@link BPTree}. This class is not public.  
@@ -50,11 +51,18 @@ class BPLeafNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K,
 	/**
 	 * Creates new empty leaf node
 	 */
-	@SuppressWarnings("unchecked")
 	BPLeafNode(BPTree<K,O> tree) {
+		this(tree, tree.getNewOffset());
+	}
+
+	/**
+	 * Creates new empty leaf node with a given offset
+	 */
+	@SuppressWarnings("unchecked")
+	BPLeafNode(BPTree<K,O> tree, long offset) {
 		isChanged = true;
 		this.tree = tree;
-		offset = tree.getNewOffset();
+		this.offset = offset;
 		offsetLeftNode = offsetRightNode = -1;
 		numberOfEntries = 0;
 		entries = (O[]) Array.newInstance(tree.classO, tree.leafCapacity);
@@ -104,12 +112,13 @@ class BPLeafNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K,
 			return null;
 		}
 		BPLeafNode<K,O> rightNode = new BPLeafNode<K,O>(tree);					              
+		tree.countSplits++;
 		if (offsetRightNode >= 0) {															  
 			BPLeafNode<K,O> rightNodeOld = (BPLeafNode<K,O>) tree.getBPNode(offsetRightNode); 
 			rightNodeOld.offsetLeftNode = rightNode.offset;
 			rightNodeOld.isChanged = true;	
 		}
-		K key = entries[numberOfEntries = tree.leafCapacity / 2].getKey();
+		K key = entries[numberOfEntries = tree.splitPosition(tree.leafCapacity)].getKey();
 		rightNode.offsetLeftNode = offset;
 		rightNode.offsetRightNode = offsetRightNode;
 		offsetRightNode = rightNode.offset;
@@ -129,27 +138,121 @@ class BPLeafNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K,
 			System.arraycopy(entries, pos, rightNode.entries, pos - numberOfEntries + 1, tree.leafCapacity - pos);
 		}
 		
+		isChanged = true; // this node could have been saved and evicted by reading the right one
 		tree.putBPNode(this);
 		tree.putBPNode(rightNode);
 		return new KeyOffsetPair<K>(key,offsetRightNode);
 	}
 	
 	@Override
-	K batchUpdate(Iterator<O> iterator, int size, int height, ArrayList<Integer> maxSizes, int leftOffsetCorrection, int rightOffsetCorrection) {
+	K batchUpdate(Iterator<O> iterator, long size, int height, ArrayList<Long> maxSizes, int leftOffsetCorrection, int rightOffsetCorrection) {
 		isChanged = true;
-		numberOfEntries = size;
+		numberOfEntries = (int) size; // at most the leafCapacity
 		for (int i = 0; i < numberOfEntries; i++) {
 			entries[i] = iterator.next();
 		}
-		offsetLeftNode = leftOffsetCorrection == -1 ? -1 : offset - leftOffsetCorrection * tree.nodeSize;
-		offsetRightNode = rightOffsetCorrection == -1 ? -1 : offset + rightOffsetCorrection * tree.nodeSize;
+		offsetLeftNode = leftOffsetCorrection == -1 ? -1 : offset - leftOffsetCorrection * (long) tree.nodeSize;
+		offsetRightNode = rightOffsetCorrection == -1 ? -1 : offset + rightOffsetCorrection * (long) tree.nodeSize;
 		tree.putBPNode(this);
 		return entries[0].getKey();
 	}
 
+	/**
+	 * Merges sorted entries, which belong to this leaf and fit to it. Entries equal
+	 * to the entries in the leaf are not added.
+	 * 
+	 * @param sorted sorted entries to add
+	 * @return number of added entries
+	 */
+	int merge(List<O> sorted) {
+		O[] old = Arrays.copyOf(entries, numberOfEntries);
+		int i = 0, j = 0, count = 0;
+		while (i < old.length || j < sorted.size()) {
+			O entry;
+			if (j == sorted.size() || (i < old.length && old[i].compareTo(sorted.get(j)) <= 0))
+				entry = old[i++];
+			else
+				entry = sorted.get(j++);
+			if (count == 0 || entries[count - 1].compareTo(entry) != 0)
+				entries[count++] = entry;
+		}
+		int added = count - numberOfEntries;
+		numberOfEntries = count;
+		if (added > 0) {
+			isChanged = true;
+			tree.putBPNode(this);
+		}
+		return added;
+	}
+
+	/**
+	 * Removes sorted entries from this leaf without any rebalancing.
+	 * 
+	 * @param sorted sorted entries to remove
+	 * @param from   index of the first entry to remove
+	 * @param to     index after the last entry to remove
+	 * @return number of removed entries
+	 */
+	int removeSorted(O[] sorted, int from, int to) {
+		boolean[] removing = new boolean[numberOfEntries];
+		for (int j = from; j < to; j++) {
+			int pos = indexOf(sorted[j]);
+			if (pos >= 0)
+				removing[pos] = true;
+		}
+		int count = 0;
+		for (int i = 0; i < numberOfEntries; i++) {
+			if (!removing[i])
+				entries[count++] = entries[i];
+		}
+		for (int i = count; i < numberOfEntries; i++)
+			entries[i] = null;
+		int removed = numberOfEntries - count;
+		numberOfEntries = count;
+		if (removed > 0) {
+			isChanged = true;
+			tree.putBPNode(this);
+		}
+		return removed;
+	}
+
+	/**
+	 * Returns the number of the given sorted entries, which are in this leaf.
+	 */
+	int countContained(O[] sorted, int from, int to) {
+		int count = 0;
+		for (int j = from; j < to; j++) {
+			if (indexOf(sorted[j]) >= 0)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the position of the entry in this leaf or -1. The entries with equal
+	 * keys need not be sorted, when they have been moved between the leafs by the
+	 * rebalancing, so they are searched one by one, if the binary search fails.
+	 */
+	int indexOf(O entry) {
+		int pos = Arrays.binarySearch(entries, 0, numberOfEntries, entry);
+		if (pos >= 0)
+			return pos;
+		// the insertion point is in the run of the entries with the equal key
+		K key = entry.getKey();
+		for (int i = -1 - pos; i < numberOfEntries && entries[i].getKey().compareTo(key) == 0; i++) {
+			if (entries[i].compareTo(entry) == 0)
+				return i;
+		}
+		for (int i = -2 - pos; i >= 0 && entries[i].getKey().compareTo(key) == 0; i--) {
+			if (entries[i].compareTo(entry) == 0)
+				return i;
+		}
+		return -1;
+	}
+
 	boolean remove(O entry, boolean amIRoot, int myHeight)
 	{
-		int pos = Arrays.binarySearch(entries, 0, numberOfEntries, entry);
+		int pos = indexOf(entry);
 		if (pos < 0) return false; // there is no such entry		
 		numberOfEntries--;
 		for (int i = pos; i < numberOfEntries; i++) {
@@ -190,7 +293,8 @@ class BPLeafNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K,
 	}
 	
 	/**
-	 * If we have key and want it find in the array of entries.
+	 * If we have key and want it find in the array of entries. The entries are searched by the
+	 * {@link SearchStrategy} of the tree, all but the binary search find the most left entry with the key.
 	 * @param key Key of the entry to find
 	 * @return position of the entry with the given tree if it is contained in the array of entries
      *	       otherwise, <tt>(-(<i>insertion point</i>) - 1)</tt>.  The
@@ -203,6 +307,17 @@ class BPLeafNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K,
      *	       and only if the entry with the given key is found.
 	 */
 	int binarySearch(K key) {
+		int position;
+		switch (tree.searchStrategy) {
+		case BINARY:
+			break;
+		case INTERPOLATION:
+			position = NodeSearch.interpolationEntries(entries, numberOfEntries, key);
+			return position < numberOfEntries && entries[position].getKey().compareTo(key) == 0 ? position : -(position + 1);
+		default:
+			position = NodeSearch.branchlessEntries(entries, numberOfEntries, key);
+			return position < numberOfEntries && entries[position].getKey().compareTo(key) == 0 ? position : -(position + 1);
+		}
 		int low = 0;
 		int high = numberOfEntries -1;
 		int mid, cmp;
@@ -249,7 +364,7 @@ class BPLeafNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K,
 	 * @return left leaf node if exists, otherwise returns <code>null</code>.
 	 */
 	public BPLeafNode<K,O> getRightNode() {	
-		return offsetRightNode < 0 ? null : (BPLeafNode<K,O>) tree.getBPNode(offsetRightNode);
+		return tree.getScanLeaf(this, true, null);
 	}
 	
 	/**
@@ -257,7 +372,7 @@ class BPLeafNode<K extends BPKey<K>, O extends BPObject<K, O>> extends BPNode<K,
 	 * @return right leaf node if exists, otherwise returns <code>null</code>.
 	 */
 	public BPLeafNode<K,O> getLeftNode() {
-		return offsetLeftNode < 0 ? null : (BPLeafNode<K,O>) tree.getBPNode(offsetLeftNode);
+		return tree.getScanLeaf(this, false, null);
 	}
 	
 	@Override
@@ -103,7 +103,7 @@ abstract class BPNode<K extends BPKey<K>, O extends BPObject<K, O>> implements S
 	 * @param rightOffsetCorrection used to compute correct offsets between leaf nodes
 	 * @return left key of the subtree
 	 */
-	abstract K batchUpdate(Iterator<O> iterator, int size, int height, ArrayList<Integer> maxSizes, int leftOffsetCorrection, int rightOffsetCorrection); // vrati svoj lavy kluc
+	abstract K batchUpdate(Iterator<O> iterator, long size, int height, ArrayList<Long> maxSizes, int leftOffsetCorrection, int rightOffsetCorrection); // vrati svoj lavy kluc
 	/**
 	 * Removes entry from the subtree.
 	 * 
@@ -0,0 +1,37 @@
+/*
+ * sk.upjs.gursky.bplustree.BPNumericKey.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+/**
+ * Key with a numeric value, which can be searched by the interpolation search.
+ * The numeric values must be ordered as the keys, i.e. the key with the smaller
+ * value is smaller. Different keys may have equal values (e.g. long keys
+ * rounded to double), the keys are still compared by <code>compareTo</code>.
+ * 
+ * @param <K> The implementing class itself
+ * @see SearchStrategy#INTERPOLATION
+ */
+public interface BPNumericKey<K> extends BPKey<K> {
+
+	/**
+	 * @return numeric value of the key
+	 */
+	public double getNumericValue();
+
+}
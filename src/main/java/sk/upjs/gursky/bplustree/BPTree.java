@@ -26,17 +26,36 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The main class of the B+tree index structure. BPTree can be used similarly to
@@ -71,6 +90,40 @@ import java.util.TreeMap;
  * faster than the previous example and moreover the tree is lower and almost
  * all leafs are full (i.e. faster when querying).
  * 
+ * The entries can be also processed by {@link Stream}s. The spliterator behind
+ * <code>stream()</code>, <code>parallelStream()</code> and
+ * <code>rangeStream()</code> splits the tree along the child boundaries of the
+ * inner nodes, so each worker of a parallel stream reads its own set of leafs.
+ * 
+ * <pre>
+ * double sum = tree.parallelStream().mapToDouble(BPObjectIntDouble::getValueDouble).sum();
+ * </pre>
+ * 
+ * Lookups can be also asynchronous. <code>getAsync</code>,
+ * <code>intervalQueryAsync</code> and <code>getListForKeyAsync</code> return
+ * {@link CompletableFuture}s and share the cache with the synchronous methods.
+ * 
+ * A tree fragmented by many adds and removes can be rebuilt by
+ * <code>optimize()</code>, when <code>getFragmentation()</code> shows that the
+ * leafs are half empty or the scans jump around the file.
+ * 
+ * <pre>
+ * if (tree.getFragmentation().getAverageLeafJump() > 4)
+ * 	tree.optimize();
+ * </pre>
+ * 
+ * The changes can be made durable without closing the tree by the write-ahead
+ * log. The log is forced by group commit and replayed by <code>open()</code>
+ * after a crash. The checkpoints write the changed nodes to the index file in
+ * the background, so <code>close()</code> and the recovery write only the nodes
+ * changed since the last checkpoint.
+ * 
+ * <pre>
+ * tree.setWriteAheadLog(true);
+ * tree.setGroupCommitWindow(5); // the changes are forced together every 5 ms
+ * tree.open();
+ * </pre>
+ * 
  * This class in not synchronized.
  * 
  * BPTree has no support for concurrent manipulation except concurrent reading.
@@ -88,6 +141,10 @@ import java.util.TreeMap;
  */
 public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Serializable, Iterable<O> {
 	private static final long serialVersionUID = 3547521107441747404L;
+	private static final int APPEND_RUN = 2; // number of appends one after another detected as a sequence
+	private static final int MAGIC = 0x42505431; // "BPT1" at the beginning of the superblock
+	private static final int SUPERBLOCK_VERSION = 3; // version 1 had an int number of entries, version 2 no LSN
+	private static final int SUPERBLOCK_HEADER = 60; // bytes of the superblock before the minimal and maximal key
 
 	int nodeSize; // number of bytes for one node
 	int leafCapacity; // maximal number of entries in leaf, must be at least 2, is computed from
@@ -101,21 +158,57 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 	Class<K> classK;
 	private int treeHeight;
 	private File indexFile;
-	private FileChannel channel;
-	private RandomAccessFile raf;
+	private PageStore store; // pages of the index file
+	private PageStore.Kind storeKind = PageStore.Kind.FILE;
 	private K min, max; // minimal and maximal key
 	private long rootOffset;
 	private BPNode<K, O> root;
-	private int countIOs;
-	private int numberOfEntries;
+	private long countIOs;
+	long countSplits;
+	private long numberOfEntries;
 	private long lastOffset;
 	private boolean opened;
 
 	private ByteBuffer buffer;
 	private int cacheCapacity = 10; // maximal number of nodes in cache (HashMap), must be at least 1
 	private HashMap<Long, BPNode<K, O>> cache;
+	private int offHeapCacheCapacity; // maximal number of nodes in the off-heap cache, 0 means no such cache
+	private OffHeapNodeCache offHeapCache; // images of the nodes removed from the cache
+	private int adaptiveHashCapacity; // maximal number of hot keys in the adaptive hash index, 0 means no such index
+	private AdaptiveHashIndex<K, O> adaptiveHash; // leafs and positions of the hot keys of get
 	private LinkedList<Long> cachedOffsets;
-	private LinkedList<Long> freeOffsets;
+	private BitSet freePages; // free nodes by their offset / nodeSize
+	private int numberOfFreePages;
+	private int freePageHint; // no free page is before this one
+	private boolean superblock = true; // the first page of the index file describes the tree, false for old files
+	private boolean readOnly;
+	private int readAhead = 0; // maximal number of leafs read ahead by scans, 0 means no read ahead
+	private ByteBuffer readAheadBuffer;
+	private CompletableFuture<Void> prefetch; // asynchronous read ahead in progress
+	private int asyncConcurrency = 64; // maximal number of asynchronous reads in progress
+	private double leafFillFactor = 1; // part of the leafCapacity filled by batch update
+	private double innerFillFactor = 1; // part of the internalNodeCapacity filled by batch update
+	private double appendSplitRatio = 0.9; // part of a node kept in the left node by a split during appends
+	private long rightmostLeaf = -1; // offset of the most right leaf, -1 if it is not known
+	private int appendRun; // number of the last adds after the maximal entry
+	boolean appending; // the entry being added is after the maximal entry in a sequence of appends
+	private boolean lazyRebalancing; // removing rebalances only the emptied nodes
+	SearchStrategy searchStrategy = SearchStrategy.BINARY; // search of a key inside a node
+	private long countWrites;
+	private AsyncNodeReader<K, O> asyncReader;
+	private boolean writeAheadLog; // changes are logged to the write-ahead log
+	private long groupCommitWindow; // milliseconds, within which the logged changes are forced together
+	private long checkpointInterval = 64 * 1024 * 1024; // size of the log starting a checkpoint
+	private WriteAheadLog<K, O> wal; // null if the changes are not logged
+	private volatile WriteAheadLog<K, O> checkpointedWal; // segment written to the index file in the background
+	private CompletableFuture<Integer> checkpointer; // background writing of the last checkpoint
+	private int checkpointRate; // nodes per second written by the background checkpoint, 0 means no limit
+	private long checkpointLsn; // LSN of the log following the last complete checkpoint
+	private long countLogSyncs; // forces of the finished segments of the log
+	private final ReentrantLock storeLock = new ReentrantLock(); // serialises the changes of the size of the store
+																	// by the background checkpoint and the foreground
+	private final ReentrantLock cacheLock = new ReentrantLock(); // guards the cache, a lock instead of synchronized
+																	// does not pin virtual threads during I/O
 
 	/**
 	 * Creates new B+tree index. The index is not allocating the indexFile until
@@ -148,20 +241,26 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		countIOs = 0;
 		numberOfEntries = 0;
 		treeHeight = -1;
-		freeOffsets = new LinkedList<Long>();
+		freePages = new BitSet();
 		opened = false;
 	}
 
 	/**
-	 * Creates new B+tree index. The index is not allocating the indexFile until
-	 * some of the <code>open*</code> methods are called.
+	 * Creates the B+tree index described by the file written by
+	 * <code>store</code>. Needed only for the index files created before the
+	 * superblock, if the index file has the superblock, its description is used.
 	 * 
 	 * @param classO    class for objects stored in B+tree
 	 * @param indexFile file in which the index will be stored
+	 * @param treeFile  file written by <code>store</code>
 	 * @throws IOException
 	 * @throws FileNotFoundException
 	 * @throws ClassNotFoundException
+	 * @deprecated the index file describes the tree in its first page, the tree
+	 *             is opened by <code>open()</code> after the two-argument
+	 *             constructor
 	 */
+	@Deprecated
 	@SuppressWarnings("unchecked")
 	public BPTree(Class<O> classO, File indexFile, File treeFile)
 			throws FileNotFoundException, IOException, ClassNotFoundException {
@@ -171,7 +270,11 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		nodeSize = ois.readInt();
 		rootOffset = ois.readLong();
 		numberOfEntries = ois.readInt();
-		freeOffsets = (LinkedList<Long>) ois.readObject();
+		freePages = new BitSet();
+		for (long offset : (LinkedList<Long>) ois.readObject()) {
+			freePages.set((int) (offset / nodeSize));
+		}
+		numberOfFreePages = freePages.cardinality();
 		ois.close();
 		O obj = null;
 		try {
@@ -199,12 +302,25 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 	 * 
 	 * @throws IOException
 	 * @throws FileNotFoundException
+	 * @throws RuntimeException      if the tree has more than
+	 *                               <code>Integer.MAX_VALUE</code> entries, which
+	 *                               the file cannot describe
+	 * @deprecated <code>close()</code> stores the description of the tree to the
+	 *             superblock of the index file
 	 */
+	@Deprecated
 	public void store(File file) throws FileNotFoundException, IOException {
+		if (numberOfEntries > Integer.MAX_VALUE) {
+			throw new RuntimeException("Cannot store more than " + Integer.MAX_VALUE + " entries, use close().");
+		}
+		LinkedList<Long> freeOffsets = new LinkedList<Long>();
+		for (int page = freePages.nextSetBit(0); page >= 0; page = freePages.nextSetBit(page + 1)) {
+			freeOffsets.add(page * (long) nodeSize);
+		}
 		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file));
 		oos.writeInt(nodeSize);
 		oos.writeLong(rootOffset);
-		oos.writeInt(numberOfEntries);
+		oos.writeInt((int) numberOfEntries);
 		oos.writeObject(freeOffsets);
 		oos.close();
 	}
@@ -254,6 +370,98 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		minInternalNodeQuantity = internalNodeCapacity / 2; // lower integer half of the internalNodeCapacity
 	}
 
+	public int getNodeSize() {
+		return nodeSize;
+	}
+
+	/**
+	 * Sets how full the nodes created by <code>openAndBatchUpdate</code> and
+	 * <code>openAndParallelBatchUpdate</code> are. Default is 1 i.e. full nodes. A
+	 * tree loaded with full nodes splits a leaf and often also its parents on the
+	 * first insert to almost any leaf, with e.g. 0.7 the following inserts fill the
+	 * free space first. Nodes are never filled under their minimal quantity.
+	 * 
+	 * @param leafFillFactor  part of the leafCapacity used in leafs, from (0, 1]
+	 * @param innerFillFactor part of the internalNodeCapacity used in inner nodes,
+	 *                        from (0, 1]
+	 */
+	public void setFillFactor(double leafFillFactor, double innerFillFactor) {
+		if (leafFillFactor <= 0 || leafFillFactor > 1 || innerFillFactor <= 0 || innerFillFactor > 1) {
+			throw new RuntimeException("Fill factor must be from the interval (0, 1].");
+		}
+		this.leafFillFactor = leafFillFactor;
+		this.innerFillFactor = innerFillFactor;
+	}
+
+	/**
+	 * Sets how many entries stay in the left node, when a node is split by
+	 * appending entries in ascending order (e.g. increasing ids). Default is 0.9,
+	 * then the leafs filled by appends stay 90% full instead of half empty after
+	 * the usual split in the middle. Other inserts always split in the middle.
+	 * 
+	 * @param appendSplitRatio part of the capacity kept in the left node, from
+	 *                         [0.5, 1)
+	 */
+	public void setAppendSplitRatio(double appendSplitRatio) {
+		if (appendSplitRatio < 0.5 || appendSplitRatio >= 1) {
+			throw new RuntimeException("Append split ratio must be from the interval [0.5, 1).");
+		}
+		this.appendSplitRatio = appendSplitRatio;
+	}
+
+	/**
+	 * Returns the number of entries staying in the left node after the split of a
+	 * full node with the given capacity.
+	 */
+	int splitPosition(int capacity) {
+		if (!appending)
+			return capacity / 2;
+		return Math.max(capacity / 2, Math.min(capacity - 1, (int) (capacity * appendSplitRatio)));
+	}
+
+	/**
+	 * Switches the lazy rebalancing of nodes by removing. In the lazy mode a node
+	 * is merged with or filled from its sibling only when it becomes empty (a leaf
+	 * without entries or an inner node without keys), so most removals change only
+	 * one leaf. The half filled nodes are restored by <code>rebalance()</code>.
+	 * Default is false.
+	 * 
+	 * @param lazyRebalancing true for the lazy rebalancing
+	 */
+	public void setLazyRebalancing(boolean lazyRebalancing) {
+		this.lazyRebalancing = lazyRebalancing;
+	}
+
+	/**
+	 * Returns the number of entries, under which a leaf is rebalanced by removing.
+	 */
+	int underflowLeafQuantity() {
+		return lazyRebalancing ? 1 : minLeafQuantity;
+	}
+
+	/**
+	 * Returns the number of keys, under which an inner node is rebalanced by
+	 * removing.
+	 */
+	int underflowInternalNodeQuantity() {
+		return lazyRebalancing ? 1 : minInternalNodeQuantity;
+	}
+
+	/**
+	 * Returns the number of entries in a leaf created by batch update.
+	 */
+	private int batchLeafSize() {
+		return Math.max(minLeafQuantity, Math.min(leafCapacity, (int) Math.ceil(leafCapacity * leafFillFactor)));
+	}
+
+	/**
+	 * Returns the number of children of an inner node created by batch update.
+	 */
+	private int batchInnerChildren() {
+		int children = (int) Math.ceil((internalNodeCapacity + 1) * innerFillFactor);
+		return Math.max(Math.max(2, minInternalNodeQuantity + 1), Math.min(internalNodeCapacity + 1, children));
+	}
+
 	/**
 	 * Changes cache capacity i.e. the number of nodes that can be stored in memory.
 	 * Default is 10.
@@ -267,6 +475,228 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		this.cacheCapacity = cacheCapacity;
 	}
 
+	/**
+	 * Sets the capacity of the second level of the cache in off-heap memory. The
+	 * nodes removed from the cache are kept there in the layout of the index file
+	 * and a node missing in the cache is created from its image without reading
+	 * the disk. Such images are not scanned by the garbage collector, so a huge
+	 * number of nodes can be kept in memory by a small cache of objects and a big
+	 * off-heap cache without long pauses of the garbage collector. Default is 0,
+	 * which means no off-heap cache.
+	 * 
+	 * @param offHeapCacheCapacity number of nodes
+	 */
+	public void setOffHeapCacheCapacity(int offHeapCacheCapacity) {
+		if (opened) {
+			throw new RuntimeException("Cannot change offHeapCacheCapacity over opened tree.");
+		}
+		if (offHeapCacheCapacity < 0) {
+			throw new IllegalArgumentException("offHeapCacheCapacity must not be negative");
+		}
+		this.offHeapCacheCapacity = offHeapCacheCapacity;
+	}
+
+	/**
+	 * Returns the number of nodes created from the off-heap cache instead of
+	 * reading them from the index file since the tree has been opened.
+	 */
+	public long getCountOffHeapHits() {
+		return offHeapCache == null ? 0 : offHeapCache.getCountHits();
+	}
+
+	/**
+	 * Sets the capacity of the adaptive hash index of the hot keys of
+	 * <code>get</code>. The key looked up repeatedly is remembered with its leaf
+	 * and position in the leaf, so its next lookup reads only the leaf, usually
+	 * from the cache. The remembered position is checked against the leaf, so the
+	 * index is always correct also when the tree is changed. The keys must
+	 * implement <code>hashCode</code> consistent with <code>compareTo</code>.
+	 * Value 0 switches the index off, which is the default.
+	 * 
+	 * @param adaptiveHashCapacity maximal number of the hot keys
+	 */
+	public void setAdaptiveHashIndex(int adaptiveHashCapacity) {
+		if (opened) {
+			throw new RuntimeException("Cannot change the adaptive hash index over opened tree.");
+		}
+		if (adaptiveHashCapacity < 0) {
+			throw new IllegalArgumentException("adaptiveHashCapacity must not be negative");
+		}
+		this.adaptiveHashCapacity = adaptiveHashCapacity;
+	}
+
+	/**
+	 * Returns the number of lookups answered by the adaptive hash index since the
+	 * tree has been opened.
+	 */
+	public long getCountAdaptiveHashHits() {
+		return adaptiveHash == null ? 0 : adaptiveHash.getCountHits();
+	}
+
+	/**
+	 * Sets the maximal number of leaf pages read ahead during sequential scans
+	 * (iterators, cursors and interval queries). Value 0 or 1 switches the read
+	 * ahead off, which is the default. The value should be smaller than the cache
+	 * capacity, because the leafs read ahead are stored in the cache.
+	 * 
+	 * @param readAhead maximal number of pages read ahead
+	 */
+	public void setReadAhead(int readAhead) {
+		if (opened) {
+			throw new RuntimeException("Cannot change readAhead over opened tree.");
+		}
+		this.readAhead = readAhead;
+	}
+
+	/**
+	 * Sets the maximal number of asynchronous reads issued at the same time by
+	 * <code>getAsync</code>, <code>intervalQueryAsync</code> and
+	 * <code>getListForKeyAsync</code>. Other reads wait in a queue. Default is 64.
+	 * 
+	 * @param asyncConcurrency maximal number of concurrent asynchronous reads
+	 */
+	public void setAsyncConcurrency(int asyncConcurrency) {
+		if (opened) {
+			throw new RuntimeException("Cannot change asyncConcurrency over opened tree.");
+		}
+		if (asyncConcurrency < 1) {
+			throw new IllegalArgumentException("asyncConcurrency must be at least 1");
+		}
+		this.asyncConcurrency = asyncConcurrency;
+	}
+
+	/**
+	 * Switches the write-ahead log of the changes. The added and removed entries
+	 * are appended to the log and the log is forced to the disk before the change
+	 * is durable. Between two checkpoints the index file is not changed, the
+	 * changed nodes removed from the cache are stored to the log, so the index
+	 * file keeps the tree of the last checkpoint. After a crash
+	 * <code>open()</code> replays the log over it.
+	 * 
+	 * The log is stored in segments <code>indexFile.wal.LSN</code>, every
+	 * checkpoint ends the current segment and its nodes are written to the index
+	 * file in the background, so neither the checkpoint, nor
+	 * <code>close()</code>, nor the recovery have to write more than the nodes
+	 * changed since the last checkpoint. The log is used by the trees opened by
+	 * <code>open()</code> and <code>openNewFile()</code>, the batch updates are
+	 * not logged. The log is deleted by <code>close()</code>. Default is false.
+	 * 
+	 * @param writeAheadLog true to log the changes
+	 * @see #setGroupCommitWindow(long)
+	 * @see #checkpoint()
+	 */
+	public void setWriteAheadLog(boolean writeAheadLog) {
+		if (opened) {
+			throw new RuntimeException("Cannot change writeAheadLog over opened tree.");
+		}
+		this.writeAheadLog = writeAheadLog;
+	}
+
+	/**
+	 * Sets the window of the group commit of the write-ahead log. With value 0,
+	 * which is the default, every change forces the log before it returns. With a
+	 * window the change returns without waiting and the log is forced at most once
+	 * per window. A change is durable when <code>commit()</code> returns, the
+	 * committer waits for the force at the end of the window, which covers the
+	 * commits of all the threads within the window. Without a commit the change is
+	 * forced at most the window after it is made.
+	 * 
+	 * @param groupCommitWindow window in milliseconds
+	 */
+	public void setGroupCommitWindow(long groupCommitWindow) {
+		if (opened) {
+			throw new RuntimeException("Cannot change groupCommitWindow over opened tree.");
+		}
+		if (groupCommitWindow < 0) {
+			throw new IllegalArgumentException("groupCommitWindow must not be negative");
+		}
+		this.groupCommitWindow = groupCommitWindow;
+	}
+
+	/**
+	 * Sets the size of the write-ahead log, which starts a checkpoint. Default is
+	 * 64MB.
+	 * 
+	 * @param checkpointInterval size of the log in bytes
+	 */
+	public void setCheckpointInterval(long checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Sets the maximal number of nodes per second written to the index file by
+	 * the background checkpoint, so the checkpoint does not slow down other I/O.
+	 * The limit is not kept when the next checkpoint or <code>close()</code> has
+	 * to wait for the background one. Default is 0, which means no limit.
+	 * 
+	 * @param checkpointRate nodes per second
+	 */
+	public void setCheckpointRate(int checkpointRate) {
+		if (checkpointRate < 0) {
+			throw new IllegalArgumentException("checkpointRate must not be negative");
+		}
+		this.checkpointRate = checkpointRate;
+	}
+
+	/**
+	 * Sets the search of a key inside one node. All the strategies find the same
+	 * entries, the branchless, Eytzinger and interpolation searches are faster
+	 * with large nodes. The interpolation search needs the keys implementing
+	 * {@link BPNumericKey}, otherwise the binary search is used. Default is
+	 * {@link SearchStrategy#BINARY}.
+	 * 
+	 * @param searchStrategy search inside a node
+	 */
+	public void setSearchStrategy(SearchStrategy searchStrategy) {
+		if (opened) {
+			throw new RuntimeException("Cannot change searchStrategy over opened tree.");
+		}
+		if (searchStrategy == SearchStrategy.INTERPOLATION && !BPNumericKey.class.isAssignableFrom(classK))
+			searchStrategy = SearchStrategy.BINARY;
+		this.searchStrategy = searchStrategy;
+	}
+
+	/**
+	 * @return the search used inside the nodes, the binary search instead of the
+	 *         interpolation search of the keys without numeric values
+	 */
+	public SearchStrategy getSearchStrategy() {
+		return searchStrategy;
+	}
+
+	boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Sets the store of the pages of the tree. The index file can be read and
+	 * written by a file channel or mapped to the memory, both kinds of the store
+	 * create the same index file. The memory store keeps the index in off-heap
+	 * memory only, such an index is created by <code>openNewFile()</code> or a
+	 * batch update and lost by <code>close()</code>. Default is
+	 * {@link PageStore.Kind#FILE}.
+	 * 
+	 * @param storeKind kind of the store
+	 */
+	public void setPageStore(PageStore.Kind storeKind) {
+		if (opened) {
+			throw new RuntimeException("Cannot change the page store over opened tree.");
+		}
+		this.storeKind = storeKind;
+	}
+
+	public PageStore.Kind getPageStore() {
+		return storeKind;
+	}
+
+	/**
+	 * Checks that the store of the tree keeps the index after it is closed.
+	 */
+	private void checkStoredIndex() throws IOException {
+		if (storeKind == PageStore.Kind.MEMORY)
+			throw new IOException("The index in memory is lost by close(), it can only be created again.");
+	}
+
 	/**
 	 * Opens a new index file for read and write, if the file exists, it is reduced
 	 * to zero size.
@@ -274,60 +704,122 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 	 * @throws IOException
 	 */
 	public void openNewFile() throws IOException {
-		if (!indexFile.exists())
-			indexFile.createNewFile();
-		raf = new RandomAccessFile(indexFile, "rw");
-		raf.setLength(0);
-		channel = raf.getChannel();
+		if (writeAheadLog && storeKind == PageStore.Kind.MEMORY) {
+			throw new RuntimeException("The write-ahead log cannot be used with the index in memory.");
+		}
+		store = PageStore.open(storeKind, indexFile, false);
+		store.setSize(0);
+		deleteLog(); // the log of the old file
 		buffer = ByteBuffer.allocateDirect(nodeSize);
+		startNewFile();
 		root = new BPLeafNode<K, O>(this);
 		rootOffset = root.offset;
+		treeHeight = 0;
 		cachedOffsets = new LinkedList<Long>();
 		cache = new HashMap<Long, BPNode<K, O>>(1 + ((cacheCapacity * 4) / 3));
+		offHeapCache = offHeapCacheCapacity > 0 ? new OffHeapNodeCache(nodeSize, offHeapCacheCapacity) : null;
+		adaptiveHash = adaptiveHashCapacity > 0 ? new AdaptiveHashIndex<K, O>(this, adaptiveHashCapacity) : null;
+		readOnly = false;
 		opened = true;
+		if (writeAheadLog) {
+			wal = new WriteAheadLog<K, O>(this, logFile(checkpointLsn), checkpointLsn, groupCommitWindow);
+			countLogSyncs = 0;
+			checkpointLog(); // the superblock of the empty tree
+		}
 	}
 
 	/**
 	 * Opens a (not empty) B+tree index file for read and write (not concurrent).
+	 * The tree is described by the superblock in the first page of the file, so a
+	 * new instance of the tree can open the file created by another one. If the
+	 * write-ahead log of the file exists, the tree has not been closed and it is
+	 * recovered from the log.
 	 * 
 	 * @throws IOException
 	 */
 	public void open() throws IOException {
-		raf = new RandomAccessFile(indexFile, "rw");
-		channel = raf.getChannel();
+		checkStoredIndex();
+		store = PageStore.open(storeKind, indexFile, false);
+		superblock = readSuperblock();
 		buffer = ByteBuffer.allocateDirect(nodeSize);
 		cachedOffsets = new LinkedList<Long>();
 		cache = new HashMap<Long, BPNode<K, O>>(1 + ((cacheCapacity * 4) / 3));
-		if (root == null)
+		offHeapCache = offHeapCacheCapacity > 0 ? new OffHeapNodeCache(nodeSize, offHeapCacheCapacity) : null;
+		adaptiveHash = adaptiveHashCapacity > 0 ? new AdaptiveHashIndex<K, O>(this, adaptiveHashCapacity) : null;
+		if (root == null || superblock)
 			root = loadBPNode(rootOffset);
-		lastOffset = raf.length();
+		if (!superblock)
+			lastOffset = store.size();
+		readOnly = false;
 		opened = true;
+		if (logSegments().length > 0)
+			recover();
+		if (writeAheadLog && wal == null) {
+			if (!superblock)
+				throw new RuntimeException("The write-ahead log needs the index file with the superblock, use optimize().");
+			wal = new WriteAheadLog<K, O>(this, logFile(checkpointLsn), checkpointLsn, groupCommitWindow);
+			countLogSyncs = 0;
+		} else if (!writeAheadLog && wal != null) {
+			wal.delete();
+			wal = null;
+		}
 	}
 
 	/**
 	 * Opens a (not empty) B+tree index file for read only. If more instances of the
 	 * BPTree access to the file concurrently then all the instances must be opened
-	 * for read only.
+	 * for read only. The tree is described by the superblock of the file.
 	 * 
 	 * @throws IOException
 	 */
 	public void openForRead() throws IOException {
-		raf = new RandomAccessFile(indexFile, "r");
-		channel = raf.getChannel();
+		for (File segment : logSegments())
+			if (segment.length() > 0)
+				throw new IOException("The index file " + indexFile + " must be recovered from its log by open().");
+		checkStoredIndex();
+		store = PageStore.open(storeKind, indexFile, true);
+		superblock = readSuperblock();
 		buffer = ByteBuffer.allocateDirect(nodeSize);
 		cachedOffsets = new LinkedList<Long>();
 		cache = new HashMap<Long, BPNode<K, O>>(1 + ((cacheCapacity * 4) / 3));
-		if (root == null)
+		offHeapCache = offHeapCacheCapacity > 0 ? new OffHeapNodeCache(nodeSize, offHeapCacheCapacity) : null;
+		adaptiveHash = adaptiveHashCapacity > 0 ? new AdaptiveHashIndex<K, O>(this, adaptiveHashCapacity) : null;
+		if (root == null || superblock)
 			root = loadBPNode(rootOffset);
+		else if (root instanceof BPInnerNode)
+			((BPInnerNode<K, O>) root).dropSearchLayout(); // the kept root could be changed since
+		readOnly = true;
 		opened = true;
 	}
 
 	/**
-	 * Stores root the file if it was changed and closes the index file.
+	 * Stores root the file if it was changed and closes the index file. The
+	 * superblock with the description of the tree and the bitmap of free nodes are
+	 * stored too.
 	 * 
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
+		opened = false;
+		rightmostLeaf = -1;
+		appendRun = 0;
+		if (prefetch != null) {
+			try {
+				prefetch.join();
+			} catch (CompletionException e) {
+				e.printStackTrace();
+			}
+			prefetch = null;
+		}
+		if (asyncReader != null) {
+			asyncReader.close();
+			asyncReader = null;
+		}
+		if (wal != null) {
+			checkpointLog();
+			wal.delete(); // the nodes changed since the checkpoint are in the cache
+			wal = null;
+		}
 		for (BPNode<K, O> node : cache.values()) {
 			if (node.isChanged) {
 				saveBPNode(node);
@@ -335,174 +827,942 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		}
 		if (root.isChanged)
 			saveBPNode(root);
-		raf.close();
-		raf = null;
-		channel = null;
+		if (superblock && !readOnly)
+			writeSuperblock();
+		store.close();
+		store = null;
 		buffer = null;
+		readAheadBuffer = null;
 		cachedOffsets = null;
 		cache = null;
-		opened = false;
+		offHeapCache = null;
+		adaptiveHash = null;
 	}
 
 	/**
-	 * Stores a node to the index file.
+	 * Waits until the write-ahead log is forced to the disk, so all the changes
+	 * made so far survive a crash. The commit can be called by more threads
+	 * concurrently, they are forced together by the group commit. Without the log
+	 * the changes are durable only after <code>checkpoint()</code> or
+	 * <code>close()</code>.
 	 * 
-	 * @param node Node to store
+	 * @throws IOException
+	 * @see #setGroupCommitWindow(long)
 	 */
-	private void saveBPNode(BPNode<K, O> node) {
-		buffer.clear();
-		node.save(buffer);
-		buffer.rewind();
-		try {
-			if (raf.length() < (node.offset + nodeSize)) // offset should be smaller than file size
-				raf.setLength(node.offset + nodeSize);
-			channel.write(buffer, node.offset);
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Unsuccessful reading from the index file to buffer!!!");
+	public void commit() throws IOException {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
 		}
+		WriteAheadLog<K, O> log = wal;
+		if (log != null)
+			log.commit();
 	}
 
 	/**
-	 * Returns a node having a given offset from the index file.
+	 * Stores all the changed nodes and the superblock to the index file and
+	 * forces it to the disk. With the write-ahead log the images of the changed
+	 * nodes and the superblock are forced to the log first, then they are written
+	 * to the index file and the segment of the log is deleted. The checkpoint is
+	 * started automatically, when the log reaches the checkpoint interval, such a
+	 * checkpoint writes the index file in the background.
 	 * 
-	 * @param offset Offset of a node to return.
-	 * @return node with given offset.
+	 * @throws IOException
+	 * @see #setCheckpointInterval(long)
+	 * @see #setCheckpointRate(int)
 	 */
-	private BPNode<K, O> loadBPNode(long offset) {
-		countIOs++;
-		buffer.clear();
-		try {
-			channel.read(buffer, offset);
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Unsuccessful reading from the index file to buffer!!!");
+	public void checkpoint() throws IOException {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
 		}
-		buffer.rewind();
-		if (buffer.get() == (byte) 1)
-			return new BPInnerNode<K, O>(offset, buffer, this);
-		else
-			return new BPLeafNode<K, O>(offset, buffer, this);
-
+		if (!readOnly)
+			checkpointLog();
 	}
 
-	/**
-	 * Returns a node having a given offset from the cache or from the index file.
-	 * If cache is full, some node from a cache is stored to a file according to a
-	 * remove policy.
-	 * 
-	 * @param offset Offset of a node to return.
-	 * @return node with given offset.
-	 */
-	BPNode<K, O> getBPNode(long offset) {
-		if (offset == root.offset) {
-			return root;
-		}
-		BPNode<K, O> node;
-		if ((node = cache.get(offset)) != null) {
-			return node;
-		} else {
-			node = loadBPNode(offset);
-			if (cache.size() == cacheCapacity) {
-				BPNode<K, O> removedNode = cache.remove(cachedOffsets.removeLast());
-				if (removedNode.isChanged) {
-					saveBPNode(removedNode);
+	private void checkpointLog() throws IOException {
+		cacheLock.lock();
+		try {
+			if (wal == null) {
+				for (BPNode<K, O> node : cache.values()) {
+					if (node.isChanged)
+						saveBPNode(node);
 				}
+				if (root.isChanged)
+					saveBPNode(root);
+				if (superblock)
+					writeSuperblock();
+				store.sync();
+				return;
 			}
-			cachedOffsets.addFirst(offset);
-			cache.put(offset, node);
-			return node;
+			beginCheckpoint();
+			finishCheckpoint();
+		} finally {
+			cacheLock.unlock();
 		}
 	}
 
 	/**
-	 * Inserts a node to the cache. If cache is full, some node from a cache is
-	 * stored to a file according to a remove policy.
-	 * 
-	 * @param node Node to insert.
+	 * Starts a fuzzy checkpoint. The images of the changed nodes and the
+	 * superblock are appended to the log and forced, then the log continues by a
+	 * new segment and the images of the old segment are written to the index file
+	 * in the order of their offsets in the background. The nodes are read from the
+	 * old segment until it is written. The previous checkpoint is finished first.
+	 * The cache lock must be held.
 	 */
-	void putBPNode(BPNode<K, O> node) {
-		if (node == root)
-			return; // root doesn't go to cache
-		BPNode<K, O> pomNode;
-		if ((pomNode = cache.get(node.offset)) != null) {
-			if (node == pomNode)
-				return;
-			else {
-				throw new RuntimeException("Two different nodes with the same offset in memory"); // there shouldn't be
-																									// such a situation
-			}
-		} else {
-			if (cache.size() == cacheCapacity) {
-				BPNode<K, O> removedNode = cache.remove(cachedOffsets.removeLast());
-				if (removedNode.isChanged) {
-					saveBPNode(removedNode);
-				}
+	private void beginCheckpoint() throws IOException {
+		finishCheckpoint();
+		for (BPNode<K, O> node : cache.values()) {
+			if (node.isChanged) {
+				wal.logPage(node);
+				node.isChanged = false;
 			}
-			cachedOffsets.addFirst(node.offset);
-			cache.put(node.offset, node);
 		}
+		if (root.isChanged) {
+			wal.logPage(root);
+			root.isChanged = false;
+		}
+		final byte[] freeMap = freePages.toByteArray();
+		final long lsn = wal.getCheckpointEndLsn(freeMap.length);
+		final ByteBuffer image = superblockImage(freeMap.length, lsn);
+		final long last = lastOffset;
+		wal.logCheckpoint(last, freeMap, image);
+		// the checkpoint is durable in the log, so the index file can be changed
+		final WriteAheadLog<K, O> segment = wal;
+		countLogSyncs += segment.getCountSyncs();
+		wal = new WriteAheadLog<K, O>(this, logFile(lsn), lsn, groupCommitWindow);
+		checkpointedWal = segment;
+		final PageStore target = store;
+		final int rate = checkpointRate;
+		checkpointer = CompletableFuture.supplyAsync(() -> {
+			try {
+				int written = segment.writePages(target, rate);
+				target.sync(); // the pages are durable before the superblock claims the checkpoint
+				writeSuperblock(last, freeMap, image);
+				target.sync();
+				return written + 1;
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
 	}
 
 	/**
-	 * Returns an offset for a new node
-	 * 
-	 * @return unused offset
+	 * Waits for the background checkpoint, its remaining nodes are written without
+	 * the rate limit, and deletes its segment of the log.
 	 */
-	long getNewOffset() {
-		if (freeOffsets.size() > 0)
-			return freeOffsets.removeFirst();
-		long pom = lastOffset;
-		lastOffset += nodeSize;
-		return pom;
+	private void finishCheckpoint() throws IOException {
+		if (checkpointer == null)
+			return;
+		checkpointedWal.hurry = true;
+		try {
+			countWrites += checkpointer.join();
+			checkpointedWal.delete();
+			checkpointLsn = wal.getStartLsn();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		} finally {
+			checkpointer = null;
+			checkpointedWal = null;
+		}
 	}
 
 	/**
-	 * This method is called before the node is removed. It sometimes happened after
-	 * when an entry.
-	 * 
-	 * @param freeOffset offset of the removed node
+	 * Appends the record of an entry to the write-ahead log.
 	 */
-	void addNewFreeOffset(long freeOffset) {
-		freeOffsets.add(freeOffset);
-		if (cache.remove(freeOffset) != null) {
-			cachedOffsets.remove(freeOffset);
+	private void logEntry(byte type, O entry) {
+		try {
+			wal.logEntry(type, entry);
+		} catch (IOException e) {
+			throw new RuntimeException("Unsuccessful writing to the write-ahead log.", e);
 		}
 	}
 
 	/**
-	 * This method is called when the last two nodes of the second level of the tree
-	 * collapse to one root node It sometimes happened after when an entry.
-	 * 
-	 * @param newRoot
+	 * Commits the logged change according to the group commit window and starts
+	 * a checkpoint, if the log has reached the checkpoint interval.
 	 */
-	void setNewRootAfterRemoving(BPNode<K, O> newRoot) {
-		root = newRoot;
-		rootOffset = root.offset;
-		treeHeight--;
-		if (cache.remove(root.offset) != null) {
-			cachedOffsets.remove(root.offset);
+	private void logged() {
+		if (wal == null || wal.replaying)
+			return;
+		try {
+			if (groupCommitWindow == 0)
+				wal.commit();
+			else
+				wal.scheduleSync();
+			if (wal.size() >= checkpointInterval) {
+				cacheLock.lock();
+				try {
+					beginCheckpoint();
+				} finally {
+					cacheLock.unlock();
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unsuccessful commit of the write-ahead log.", e);
 		}
 	}
 
 	/**
-	 * Adds a new entry to the B+tree
-	 * 
-	 * @param entry Entry to store
+	 * Recovers the tree, which has not been closed, from the write-ahead log. The
+	 * segments older than the checkpoint in the superblock are deleted. If the
+	 * last checkpoint has not been written to the index file completely, the
+	 * images of the nodes and the superblock of its segment are written again.
+	 * Then the changes logged after the checkpoint are replayed and a new
+	 * checkpoint ends the recovery, so only the nodes changed since the last
+	 * checkpoint are written. A damaged record ends the log.
 	 */
-	public void add(O entry) {
-		if (!opened) {
-			throw new ManipulationWithClosedTreeException();
+	private void recover() throws IOException {
+		final ArrayList<WriteAheadLog<K, O>> segments = new ArrayList<WriteAheadLog<K, O>>();
+		for (File file : logSegments()) {
+			long lsn = segmentLsn(file);
+			if (lsn < checkpointLsn)
+				file.delete(); // the checkpoint ending the segment is complete
+			else
+				segments.add(new WriteAheadLog<K, O>(this, file, lsn, groupCommitWindow));
 		}
-		KeyOffsetPair<K> pairForNewRoot = root.add(entry);
-		if (pairForNewRoot != null) {
-			if (treeHeight >= 0)
-				treeHeight++;
-			BPNode<K, O> oldRoot = root;
-			root = new BPInnerNode<K, O>(this);
-			rootOffset = root.offset;
-			((BPInnerNode<K, O>) root).addFromChild(oldRoot.offset, pairForNewRoot.key, pairForNewRoot.offset);
-			putBPNode(oldRoot);
+		int checkpointed = -1; // the last segment ended by a checkpoint
+		final long[] checkpoint = { -1 };
+		for (int i = 0; i < segments.size(); i++) {
+			final byte[] lastType = { 0 };
+			final long[] lastPosition = { -1 };
+			segments.get(i).read((type, position, payload) -> {
+				lastType[0] = type;
+				lastPosition[0] = position;
+			});
+			if (segments.get(i).size() == 0) {
+				segments.remove(i--).delete(); // nothing has been logged
+			} else if (lastType[0] == WriteAheadLog.CHECKPOINT) {
+				checkpointed = i;
+				checkpoint[0] = lastPosition[0];
+			}
+		}
+		if (checkpointed >= 0) {
+			final WriteAheadLog<K, O> log = segments.get(checkpointed);
+			log.read((type, position, payload) -> {
+				if (type == WriteAheadLog.PAGE) {
+					log.putPage(payload.getLong(), position);
+				} else if (type == WriteAheadLog.CHECKPOINT && position == checkpoint[0]) {
+					long last = payload.getLong();
+					byte[] freeMap = new byte[payload.getInt()];
+					payload.get(freeMap);
+					countWrites += log.writePages(store, 0) + 1;
+					writeSuperblock(last, freeMap, payload.slice());
+				}
+			});
+			store.sync();
+			cache.clear();
+			cachedOffsets.clear();
+			offHeapCache = offHeapCacheCapacity > 0 ? new OffHeapNodeCache(nodeSize, offHeapCacheCapacity) : null;
+			adaptiveHash = adaptiveHashCapacity > 0 ? new AdaptiveHashIndex<K, O>(this, adaptiveHashCapacity) : null;
+			opened = false; // the node size could have been unknown without the checkpoint
+			superblock = readSuperblock();
+			opened = true;
+			buffer = ByteBuffer.allocateDirect(nodeSize);
+			root = loadBPNode(rootOffset);
+			rightmostLeaf = -1;
+		}
+		long lsn = segments.isEmpty() ? checkpointLsn : segments.get(segments.size() - 1).getEndLsn();
+		wal = new WriteAheadLog<K, O>(this, logFile(lsn), lsn, groupCommitWindow);
+		countLogSyncs = 0;
+		wal.replaying = true;
+		try {
+			for (int i = checkpointed + 1; i < segments.size(); i++) {
+				segments.get(i).read((type, position, payload) -> {
+					switch (type) {
+					case WriteAheadLog.ADD:
+						add(newEntry(payload));
+						break;
+					case WriteAheadLog.MERGE:
+						addAllSorted(Collections.singleton(newEntry(payload)).iterator());
+						break;
+					case WriteAheadLog.REMOVE:
+						remove(newEntry(payload));
+						break;
+					case WriteAheadLog.REMOVE_RANGE:
+						K low = newKey();
+						low.load(payload);
+						payload.position(low.getSize());
+						K high = newKey();
+						high.load(payload);
+						removeRange(low, high);
+						break;
+					}
+				});
+			}
+		} finally {
+			wal.replaying = false;
+		}
+		checkpointLog();
+		for (WriteAheadLog<K, O> segment : segments)
+			segment.delete();
+	}
+
+	/**
+	 * Reads the last image of the node from the write-ahead log, from its current
+	 * segment or from the segment written by the background checkpoint.
+	 * 
+	 * @return false if the node is not in the log
+	 */
+	private boolean readLoggedPage(long offset, ByteBuffer bb) throws IOException {
+		if (wal == null)
+			return false;
+		if (wal.readPage(offset, bb))
+			return true;
+		WriteAheadLog<K, O> checkpointed = checkpointedWal;
+		return checkpointed != null && checkpointed.readPage(offset, bb);
+	}
+
+	private boolean isLoggedPage(long offset) {
+		if (wal == null)
+			return false;
+		WriteAheadLog<K, O> checkpointed = checkpointedWal;
+		return wal.hasPage(offset) || (checkpointed != null && checkpointed.hasPage(offset));
+	}
+
+	/**
+	 * Returns the segment of the write-ahead log starting at the given LSN.
+	 */
+	private File logFile(long lsn) {
+		return new File(indexFile.getPath() + ".wal." + lsn);
+	}
+
+	/**
+	 * Returns the segments of the write-ahead log of the index file ordered by
+	 * their LSN.
+	 */
+	private File[] logSegments() {
+		final String prefix = indexFile.getName() + ".wal.";
+		File[] segments = indexFile.getAbsoluteFile().getParentFile()
+				.listFiles((dir, name) -> name.startsWith(prefix) && name.substring(prefix.length()).matches("[0-9]+"));
+		if (segments == null)
+			return new File[0];
+		Arrays.sort(segments, Comparator.comparingLong(BPTree::segmentLsn));
+		return segments;
+	}
+
+	private static long segmentLsn(File segment) {
+		String name = segment.getName();
+		return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+	}
+
+	/**
+	 * Deletes all the segments of the write-ahead log of the index file.
+	 */
+	private void deleteLog() {
+		for (File segment : logSegments())
+			segment.delete();
+	}
+
+	/**
+	 * Stores a node to the index file.
+	 * 
+	 * @param node Node to store
+	 */
+	private void saveBPNode(BPNode<K, O> node) {
+		buffer.clear();
+		node.save(buffer);
+		buffer.rewind();
+		storeLock.lock();
+		try {
+			if (store.size() < (node.offset + nodeSize)) // offset should be smaller than file size
+				store.setSize(node.offset + nodeSize);
+			store.writePage(buffer, node.offset);
+			countWrites++;
+			node.isChanged = false;
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Unsuccessful reading from the index file to buffer!!!");
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a node having a given offset from the index file.
+	 * 
+	 * @param offset Offset of a node to return.
+	 * @return node with given offset.
+	 */
+	private BPNode<K, O> loadBPNode(long offset) {
+		buffer.clear();
+		if (offHeapCache != null && offHeapCache.get(offset, buffer))
+			return readBPNode(offset, buffer);
+		countIOs++;
+		try {
+			if (!readLoggedPage(offset, buffer)) // changed nodes are in the log until the checkpoint
+				store.readPage(buffer, offset);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Unsuccessful reading from the index file to buffer!!!");
+		}
+		buffer.rewind();
+		return readBPNode(offset, buffer);
+	}
+
+	/**
+	 * Creates a node from the {@link ByteBuffer} positioned at the beginning of
+	 * the node.
+	 */
+	private BPNode<K, O> readBPNode(long offset, ByteBuffer bb) {
+		if (bb.get() == (byte) 1)
+			return new BPInnerNode<K, O>(offset, bb, this);
+		else
+			return new BPLeafNode<K, O>(offset, bb, this);
+	}
+
+	/**
+	 * Returns a node having a given offset if it is the root or it is in the cache.
+	 * 
+	 * @param offset Offset of a node to return.
+	 * @return node with given offset or <code>null</code> if it is not in memory.
+	 */
+	BPNode<K, O> getCachedBPNode(long offset) {
+		cacheLock.lock();
+		try {
+			if (offset == root.offset) {
+				return root;
+			}
+			return cache.get(offset);
+		} finally {
+			cacheLock.unlock();
+		}
+	}
+
+	/**
+	 * Inserts a node read asynchronously to the cache. If the node has been read
+	 * to the memory in the meantime, the node from memory is returned.
+	 * 
+	 * @param offset Offset of the node
+	 * @param bb     buffer with the content of the node
+	 * @return node with given offset
+	 */
+	BPNode<K, O> cacheLoadedBPNode(long offset, ByteBuffer bb) {
+		cacheLock.lock();
+		try {
+			countIOs++;
+			BPNode<K, O> node = getCachedBPNode(offset);
+			if (node == null) {
+				if (isLoggedPage(offset)) {
+					try {
+						// the background checkpoint could have written the node after bb was read
+						if (!readLoggedPage(offset, bb)) {
+							bb.clear();
+							store.readPage(bb, offset);
+							bb.rewind();
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+						System.err.println("Unsuccessful reading from the write-ahead log to buffer!!!");
+					}
+				}
+				node = readBPNode(offset, bb);
+				cacheBPNode(node);
+			}
+			return node;
+		} finally {
+			cacheLock.unlock();
+		}
+	}
+
+	File getIndexFile() {
+		return indexFile;
+	}
+
+	PageStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Returns a node having a given offset from the cache or from the index file.
+	 * If cache is full, some node from a cache is stored to a file according to a
+	 * remove policy.
+	 * 
+	 * For trees opened for read the node is read without holding the cache lock,
+	 * so concurrent readers wait for the disk in parallel.
+	 * 
+	 * @param offset Offset of a node to return.
+	 * @return node with given offset.
+	 */
+	BPNode<K, O> getBPNode(long offset) {
+		BPNode<K, O> node;
+		cacheLock.lock();
+		try {
+			if (offset == root.offset) {
+				return root;
+			}
+			if ((node = cache.get(offset)) != null) {
+				return node;
+			}
+			if (!readOnly) {
+				node = loadBPNode(offset);
+				cacheBPNode(node);
+				return node;
+			}
+		} finally {
+			cacheLock.unlock();
+		}
+		ByteBuffer bb = ByteBuffer.allocate(nodeSize);
+		OffHeapNodeCache offHeap = offHeapCache;
+		if (offHeap != null && offHeap.get(offset, bb))
+			return cacheLoadedBPNode(offset, bb);
+		try {
+			store.readPage(bb, offset);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Unsuccessful reading from the index file to buffer!!!");
+		}
+		bb.rewind();
+		return cacheLoadedBPNode(offset, bb);
+	}
+
+	/**
+	 * Inserts a node to the cache. If cache is full, some node from a cache is
+	 * stored to a file according to a remove policy. A node, which is not in the
+	 * cache, is marked as changed, because it could have been stored and removed
+	 * from the cache while it was being changed.
+	 * 
+	 * @param node Node to insert.
+	 */
+	void putBPNode(BPNode<K, O> node) {
+		if (node == root)
+			return; // root doesn't go to cache
+		cacheLock.lock();
+		try {
+			BPNode<K, O> pomNode;
+			if ((pomNode = cache.get(node.offset)) != null) {
+				if (node == pomNode)
+					return;
+				else {
+					throw new RuntimeException("Two different nodes with the same offset in memory"); // there shouldn't
+																										// be such a
+																										// situation
+				}
+			} else {
+				node.isChanged = true;
+				cacheBPNode(node);
+			}
+		} finally {
+			cacheLock.unlock();
+		}
+	}
+
+	/**
+	 * Inserts a node, which is not in the cache, to the cache. If cache is full,
+	 * the oldest node is removed and stored to the file (or to the write-ahead
+	 * log) if it was changed.
+	 * 
+	 * @param node Node to insert.
+	 */
+	private void cacheBPNode(BPNode<K, O> node) {
+		if (cache.size() == cacheCapacity) {
+			BPNode<K, O> removedNode = cache.get(cachedOffsets.getLast());
+			if (removedNode.isChanged) {
+				if (wal != null) {
+					try {
+						wal.logPage(removedNode); // the node stays in the cache, if it fails
+					} catch (IOException e) {
+						throw new RuntimeException("Unsuccessful writing to the write-ahead log.", e);
+					}
+					countWrites++;
+					removedNode.isChanged = false;
+				} else {
+					saveBPNode(removedNode);
+				}
+			}
+			cache.remove(cachedOffsets.removeLast());
+			// the image from the last time can be older than the node, the node could be
+			// changed and then saved by a checkpoint, only the nodes of a tree opened for
+			// read never change
+			if (offHeapCache != null && (!readOnly || !offHeapCache.contains(removedNode.offset)))
+				offHeapCache.put(removedNode);
+		}
+		cachedOffsets.addFirst(node.offset);
+		cache.put(node.offset, node);
+	}
+
+	/**
+	 * Returns the neighbouring leaf during a scan. If the scan moves over leafs
+	 * stored one after another in the file, the following leafs are read to the
+	 * cache by one multi-page read. The number of pages read ahead doubles with
+	 * every sequential step up to <code>readAhead</code>. If the leafs are not
+	 * contiguous and the tree is opened for read only, the following leafs are
+	 * read to the cache asynchronously. The steps are counted by every scan
+	 * separately, so concurrent scans do not disturb each other.
+	 * 
+	 * @param leaf    leaf, where the scan is now
+	 * @param forward true for the right neighbour, false for the left one
+	 * @param scan    state of the scan, <code>null</code> for a single step without
+	 *                read ahead
+	 * @return neighbouring leaf or <code>null</code> if there is no such leaf
+	 */
+	BPLeafNode<K, O> getScanLeaf(BPLeafNode<K, O> leaf, boolean forward, ScanState scan) {
+		long offset = forward ? leaf.offsetRightNode : leaf.offsetLeftNode;
+		if (offset < 0)
+			return null;
+		if (readAhead > 1 && scan != null) {
+			readAhead(scan, leaf.offset, offset, forward);
+		}
+		BPLeafNode<K, O> next = (BPLeafNode<K, O>) getBPNode(offset);
+		if (readAhead > 1 && readOnly && scan != null && scan.sequentialLeafs == 0) {
+			prefetchLeafs(forward ? next.offsetRightNode : next.offsetLeftNode, forward);
+		}
+		return next;
+	}
+
+	/**
+	 * State of one scan over the leafs.
+	 */
+	static class ScanState {
+		int sequentialLeafs; // number of last sequential steps between contiguous leafs
+	}
+
+	/**
+	 * Detects sequential steps of a scan and reads the contiguous leafs starting at
+	 * the given offset by one read. The pages are read without holding the lock of
+	 * the cache, the lock is taken again only to insert the leafs to the cache.
+	 */
+	private void readAhead(ScanState scan, long fromOffset, long offset, boolean forward) {
+		if (offset == fromOffset + (forward ? nodeSize : -nodeSize)) {
+			if (scan.sequentialLeafs < 16)
+				scan.sequentialLeafs++;
+		} else {
+			scan.sequentialLeafs = 0;
+		}
+		if (scan.sequentialLeafs < 2)
+			return;
+		int pages;
+		long start;
+		ByteBuffer buffer;
+		cacheLock.lock();
+		try {
+			if (offset == root.offset || cache.containsKey(offset))
+				return;
+			pages = Math.min(Math.min(readAhead, 1 << scan.sequentialLeafs), Math.max(1, cacheCapacity / 2));
+			start = forward ? offset : offset - (pages - 1) * (long) nodeSize;
+			if (start < 0) {
+				pages -= (int) (-start / nodeSize);
+				start = 0;
+			}
+			buffer = readAheadBuffer; // the buffer is taken, a concurrent scan allocates its own
+			readAheadBuffer = null;
+			countIOs++;
+		} finally {
+			cacheLock.unlock();
+		}
+		if (buffer == null || buffer.capacity() < pages * nodeSize)
+			buffer = ByteBuffer.allocateDirect(readAhead * nodeSize);
+		buffer.clear();
+		buffer.limit(pages * nodeSize);
+		try {
+			store.readPage(buffer, start);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Unsuccessful reading from the index file to buffer!!!");
+			return;
+		}
+		long end = start + (buffer.position() / nodeSize) * (long) nodeSize;
+		cacheLock.lock();
+		try {
+			// only the pages linked from the previous leaf are taken, other pages can be
+			// inner nodes or free pages
+			while (offset >= start && offset < end && offset != root.offset && !cache.containsKey(offset)
+					&& !isLoggedPage(offset)) {
+				ByteBuffer page = buffer.duplicate();
+				page.limit((int) (offset - start) + nodeSize);
+				page.position((int) (offset - start));
+				if (page.get() != (byte) 2)
+					break;
+				BPLeafNode<K, O> leaf = new BPLeafNode<K, O>(offset, page, this);
+				cacheBPNode(leaf);
+				offset = forward ? leaf.offsetRightNode : leaf.offsetLeftNode;
+			}
+			readAheadBuffer = buffer;
+		} finally {
+			cacheLock.unlock();
+		}
+	}
+
+	/**
+	 * Asynchronously reads up to <code>readAhead</code> leafs following the given
+	 * offset to the cache. Used only for trees opened for read.
+	 */
+	private void prefetchLeafs(final long offset, final boolean forward) {
+		cacheLock.lock();
+		try {
+			if (offset < 0 || cache.containsKey(offset) || (prefetch != null && !prefetch.isDone()))
+				return;
+			final int count = readAhead;
+			prefetch = CompletableFuture.runAsync(new Runnable() {
+				public void run() {
+					long next = offset;
+					for (int i = 0; i < count && next >= 0 && opened; i++) {
+						BPLeafNode<K, O> leaf = (BPLeafNode<K, O>) getBPNode(next);
+						next = forward ? leaf.offsetRightNode : leaf.offsetLeftNode;
+					}
+				}
+			});
+		} finally {
+			cacheLock.unlock();
+		}
+	}
+
+	/**
+	 * Prepares the description of the tree for a new (empty) index file. The first
+	 * page is reserved for the superblock.
+	 */
+	private void startNewFile() {
+		superblock = true;
+		freePages = new BitSet();
+		numberOfFreePages = 0;
+		freePageHint = 0;
+		lastOffset = nodeSize;
+		numberOfEntries = 0;
+		checkpointLsn = 0;
+		min = max = null;
+	}
+
+	/**
+	 * Reads the superblock from the first page of the index file and takes the
+	 * node size, root, height, number of entries, minimal and maximal key and free
+	 * nodes from it. The index files created before the superblock have a node in
+	 * the first page, then the tree keeps its description.
+	 * 
+	 * @return false if the index file has no superblock
+	 * @throws IOException
+	 */
+	private boolean readSuperblock() throws IOException {
+		int keySize = newKey().getSize();
+		ByteBuffer bb = ByteBuffer.allocate(SUPERBLOCK_HEADER + 2 * (1 + keySize));
+		store.readPage(bb, 0);
+		if (bb.position() < 8 || bb.getInt(0) != MAGIC)
+			return false;
+		bb.flip();
+		bb.getInt();
+		int version = bb.getInt();
+		if (version < 1 || version > SUPERBLOCK_VERSION)
+			throw new IOException("Unknown version " + version + " of the index file " + indexFile);
+		int size = bb.getInt();
+		if (size != nodeSize) {
+			numberOfEntries = 0;
+			setNodeSize(size);
+		}
+		rootOffset = bb.getLong();
+		treeHeight = bb.getInt();
+		numberOfEntries = version == 1 ? bb.getInt() : bb.getLong();
+		lastOffset = bb.getLong();
+		long freeMapOffset = bb.getLong();
+		int freeMapLength = bb.getInt();
+		checkpointLsn = version < 3 ? 0 : bb.getLong();
+		min = readKey(bb);
+		max = readKey(bb);
+		ByteBuffer freeMap = ByteBuffer.allocate(freeMapLength);
+		store.readPage(freeMap, freeMapOffset);
+		freeMap.flip();
+		freePages = BitSet.valueOf(freeMap);
+		numberOfFreePages = freePages.cardinality();
+		freePageHint = 0;
+		countIOs += freeMapLength > 0 ? 2 : 1;
+		return true;
+	}
+
+	/**
+	 * Stores the bitmap of free nodes after the last node and then the superblock
+	 * to the first page of the index file.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeSuperblock() throws IOException {
+		byte[] freeMap = freePages.toByteArray();
+		writeSuperblock(lastOffset, freeMap, superblockImage(freeMap.length, checkpointLsn));
+		countWrites++;
+	}
+
+	/**
+	 * Stores the bitmap of free nodes at the given offset and then the image of
+	 * the superblock to the first page of the index file.
+	 */
+	private void writeSuperblock(long lastOffset, byte[] freeMap, ByteBuffer superblock) throws IOException {
+		storeLock.lock();
+		try {
+			store.writePage(ByteBuffer.wrap(freeMap), lastOffset);
+			store.setSize(lastOffset + freeMap.length); // an older longer bitmap is cut
+			store.writePage(superblock.duplicate(), 0);
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the page of the superblock describing the tree with the bitmap of
+	 * free nodes of the given length stored after the last node and the LSN of
+	 * the log following the checkpoint.
+	 */
+	private ByteBuffer superblockImage(int freeMapLength, long checkpointLsn) {
+		ByteBuffer bb = ByteBuffer.allocate(nodeSize);
+		bb.putInt(MAGIC);
+		bb.putInt(SUPERBLOCK_VERSION);
+		bb.putInt(nodeSize);
+		bb.putLong(rootOffset);
+		bb.putInt(treeHeight < 0 ? root.getTreeHeight() : treeHeight);
+		bb.putLong(numberOfEntries);
+		bb.putLong(lastOffset);
+		bb.putLong(lastOffset);
+		bb.putInt(freeMapLength);
+		bb.putLong(checkpointLsn);
+		boolean keys = bb.remaining() >= 2 * (1 + newKey().getSize());
+		writeKey(bb, keys ? min : null);
+		writeKey(bb, keys ? max : null);
+		bb.clear();
+		return bb;
+	}
+
+	private K readKey(ByteBuffer bb) {
+		if (!bb.hasRemaining() || bb.get() == 0)
+			return null;
+		K key = newKey();
+		key.load(bb);
+		return key;
+	}
+
+	private void writeKey(ByteBuffer bb, K key) {
+		if (key == null) {
+			bb.put((byte) 0);
+		} else {
+			bb.put((byte) 1);
+			key.save(bb);
+		}
+	}
+
+	private O newEntry(ByteBuffer bb) {
+		O entry;
+		try {
+			entry = classO.newInstance();
+		} catch (Exception e) {
+			throw new Error("Class " + classO + "should have empty constructor!");
+		}
+		entry.load(bb);
+		return entry;
+	}
+
+	private K newKey() {
+		try {
+			return classK.newInstance();
+		} catch (Exception e) {
+			throw new Error("Class " + classK + "should have empty constructor!");
+		}
+	}
+
+	/**
+	 * Returns an offset for a new node
+	 * 
+	 * @return unused offset
+	 */
+	long getNewOffset() {
+		if (numberOfFreePages > 0) {
+			int page = freePages.nextSetBit(freePageHint);
+			freePages.clear(page);
+			numberOfFreePages--;
+			freePageHint = page + 1;
+			return page * (long) nodeSize;
+		}
+		long pom = lastOffset;
+		lastOffset += nodeSize;
+		return pom;
+	}
+
+	/**
+	 * @return true if the offset is a node of the tree, i.e. it is in the index
+	 *         file and it is not free
+	 */
+	boolean isUsedOffset(long offset) {
+		return offset >= (superblock ? nodeSize : 0) && offset < lastOffset
+				&& !freePages.get((int) (offset / nodeSize));
+	}
+
+	/**
+	 * This method is called before the node is removed. It sometimes happened after
+	 * when an entry.
+	 * 
+	 * @param freeOffset offset of the removed node
+	 */
+	void addNewFreeOffset(long freeOffset) {
+		int page = (int) (freeOffset / nodeSize);
+		if (!freePages.get(page)) {
+			freePages.set(page);
+			numberOfFreePages++;
+		}
+		if (page < freePageHint)
+			freePageHint = page;
+		if (offHeapCache != null)
+			offHeapCache.remove(freeOffset);
+		if (cache.remove(freeOffset) != null) {
+			cachedOffsets.remove(freeOffset);
+		}
+	}
+
+	/**
+	 * This method is called when the last two nodes of the second level of the tree
+	 * collapse to one root node It sometimes happened after when an entry.
+	 * 
+	 * @param newRoot
+	 */
+	void setNewRootAfterRemoving(BPNode<K, O> newRoot) {
+		root = newRoot;
+		rootOffset = root.offset;
+		treeHeight--;
+		if (cache.remove(root.offset) != null) {
+			cachedOffsets.remove(root.offset);
+		}
+	}
+
+	/**
+	 * Adds a new entry to the B+tree. An entry bigger than all the entries is
+	 * added directly to the most right leaf without the descent from the root, if
+	 * the leaf is not full. If more entries are appended one after another, the
+	 * nodes at the right edge split according to the append split ratio.
+	 * 
+	 * @param entry Entry to store
+	 */
+	public void add(O entry) {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		if (wal != null)
+			logEntry(WriteAheadLog.ADD, entry);
+		addEntry(entry);
+		logged();
+	}
+
+	/**
+	 * Adds a new entry without logging it.
+	 */
+	private void addEntry(O entry) {
+		BPLeafNode<K, O> last = null;
+		if (getMax() == null || getMax().compareTo(entry.getKey()) <= 0) {
+			last = getRightmostLeaf();
+			if (last.numberOfEntries > 0 && last.entries[last.numberOfEntries - 1].compareTo(entry) >= 0)
+				last = null;
+		}
+		appendRun = last == null ? 0 : appendRun + 1;
+		if (last != null && last.numberOfEntries < leafCapacity) {
+			last.add(entry);
+		} else {
+			appending = appendRun >= APPEND_RUN;
+			long splits = countSplits;
+			KeyOffsetPair<K> pairForNewRoot = root.add(entry);
+			if (pairForNewRoot != null) {
+				if (treeHeight >= 0)
+					treeHeight++;
+				BPNode<K, O> oldRoot = root;
+				root = new BPInnerNode<K, O>(this);
+				rootOffset = root.offset;
+				((BPInnerNode<K, O>) root).addFromChild(oldRoot.offset, pairForNewRoot.key, pairForNewRoot.offset);
+				putBPNode(oldRoot);
+			}
+			appending = false;
+			if (countSplits != splits)
+				rightmostLeaf = -1; // the most right leaf could have been split
 		}
 		getMin();
 		getMax();
@@ -517,9 +1777,347 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		numberOfEntries++;
 	}
 
+	/**
+	 * Returns the most right leaf, its offset is remembered until the leaf is
+	 * split or the entries are removed.
+	 */
+	@SuppressWarnings("unchecked")
+	private BPLeafNode<K, O> getRightmostLeaf() {
+		if (rightmostLeaf >= 0)
+			return (BPLeafNode<K, O>) getBPNode(rightmostLeaf);
+		BPNode<K, O> node = root;
+		while (node instanceof BPInnerNode) {
+			BPInnerNode<K, O> inner = (BPInnerNode<K, O>) node;
+			node = getBPNode(inner.offsets[inner.numberOfEntries]);
+		}
+		rightmostLeaf = node.offset;
+		return (BPLeafNode<K, O>) node;
+	}
+
+	/**
+	 * Merges sorted entries to the (not empty) tree leaf by leaf. The entries
+	 * belonging to the same leaf are found by one descent from the root and if
+	 * they fit to the free space of the leaf, they are merged to it at once.
+	 * Leafs are split only if they are full, then the entries are added one by
+	 * one. As a leaf does not keep equal entries, entries equal to the entries
+	 * already in the tree or to the previous entry of the iterator are not added
+	 * and not counted. It is much faster than adding the entries one by one, when
+	 * the tree is not packed, e.g. after <code>setFillFactor</code>.
+	 * 
+	 * @param iterator Iterator that provides sorted entries
+	 * @return number of added entries
+	 */
+	public long addAllSorted(Iterator<O> iterator) {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		long added = 0;
+		ArrayList<O> group = new ArrayList<O>();
+		O next = iterator.hasNext() ? iterator.next() : null;
+		O last = null;
+		while (next != null) {
+			K upper = null; // smallest key of the entries in the leafs on the right
+			BPNode<K, O> node = root;
+			while (node instanceof BPInnerNode) {
+				BPInnerNode<K, O> inner = (BPInnerNode<K, O>) node;
+				int pos = inner.getChildPosition(next);
+				if (pos < inner.numberOfEntries)
+					upper = inner.entries[pos];
+				node = getBPNode(inner.offsets[pos]);
+			}
+			BPLeafNode<K, O> leaf = (BPLeafNode<K, O>) node;
+			int free = Math.max(1, leafCapacity - leaf.numberOfEntries);
+			group.clear();
+			do {
+				if (last != null && last.compareTo(next) > 0) {
+					throw new RuntimeException("Entries are not sorted.");
+				}
+				group.add(next);
+				if (wal != null)
+					logEntry(WriteAheadLog.MERGE, next);
+				last = next;
+				next = iterator.hasNext() ? iterator.next() : null;
+			} while (next != null && group.size() < free && (upper == null || next.getKey().compareTo(upper) < 0));
+			if (leaf.numberOfEntries + group.size() <= leafCapacity) {
+				int count = leaf.merge(group);
+				added += count;
+				numberOfEntries += count;
+			} else {
+				// the entries to add are chosen before the leaf is split
+				int count = 0;
+				for (int i = 0; i < group.size(); i++) {
+					O entry = group.get(i);
+					if ((i == 0 || group.get(i - 1).compareTo(entry) != 0) && leaf.indexOf(entry) < 0)
+						group.set(count++, entry);
+				}
+				for (int i = 0; i < count; i++)
+					addEntry(group.get(i));
+				added += count;
+			}
+		}
+		if (added > 0) {
+			min = null; // computed again when needed
+			max = null;
+		}
+		logged();
+		return added;
+	}
+
+	/**
+	 * Adds a batch of entries. The entries are sorted and the entries belonging to
+	 * the same leaf are added together by <code>addAllSorted</code>, so every
+	 * leaf is read and written once per batch instead of once per entry.
+	 * 
+	 * @param entries entries to add
+	 * @return number of added entries
+	 */
+	public long addAll(Collection<O> entries) {
+		ArrayList<O> sorted = new ArrayList<O>(entries);
+		Collections.sort(sorted);
+		return addAllSorted(sorted.iterator());
+	}
+
+	/**
+	 * Removes a batch of entries. The entries are sorted and the entries belonging
+	 * to the same leaf are found by one descent from the root. If the leaf stays
+	 * at least half full, they are removed from the leaf at once, otherwise they
+	 * are removed one by one with the rebalancing of the tree.
+	 * 
+	 * @param entries entries to remove
+	 * @return number of removed entries
+	 */
+	@SuppressWarnings("unchecked")
+	public long removeAll(Collection<O> entries) {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		O[] sorted = entries.toArray((O[]) Array.newInstance(classO, entries.size()));
+		Arrays.sort(sorted);
+		int size = 0;
+		for (int i = 0; i < sorted.length; i++) { // equal entries are removed once
+			if (size == 0 || sorted[size - 1].compareTo(sorted[i]) != 0)
+				sorted[size++] = sorted[i];
+		}
+		if (wal != null) {
+			for (int i = 0; i < size; i++)
+				logEntry(WriteAheadLog.REMOVE, sorted[i]);
+		}
+		long removed = 0;
+		int from = 0;
+		while (from < size) {
+			K upper = null; // smallest key of the entries in the leafs on the right
+			BPNode<K, O> node = root;
+			while (node instanceof BPInnerNode) {
+				BPInnerNode<K, O> inner = (BPInnerNode<K, O>) node;
+				int pos = inner.getFirstChildPosition(sorted[from].getKey());
+				if (pos < inner.numberOfEntries)
+					upper = inner.entries[pos];
+				node = getBPNode(inner.offsets[pos]);
+			}
+			BPLeafNode<K, O> leaf = (BPLeafNode<K, O>) node;
+			int to = from;
+			while (to < size && (upper == null || sorted[to].getKey().compareTo(upper) < 0))
+				to++;
+			if (to == from) {
+				// the key of the separator, the equal keys can span more leafs
+				K key = sorted[from].getKey();
+				while (to < size && sorted[to].getKey().compareTo(key) == 0) {
+					if (removeEntry(sorted[to++]))
+						removed++;
+				}
+				from = to;
+				continue;
+			}
+			int contained = leaf.countContained(sorted, from, to);
+			if (contained > 0) {
+				if (leaf == root || leaf.numberOfEntries - contained >= underflowLeafQuantity()) {
+					leaf.removeSorted(sorted, from, to);
+					numberOfEntries -= contained;
+					removed += contained;
+				} else {
+					for (int i = from; i < to; i++) {
+						if (removeEntry(sorted[i]))
+							removed++;
+					}
+				}
+			}
+			from = to;
+		}
+		if (removed > 0) {
+			min = null; // computed again when needed
+			max = null;
+			rightmostLeaf = -1;
+		}
+		logged();
+		return removed;
+	}
+
+	/**
+	 * Merges the entries of this tree with sorted entries to a new index file by
+	 * one sequential pass over the leafs. The new tree is created by
+	 * <code>openAndBatchUpdate</code>, so it is packed according to the fill
+	 * factor, equal entries are stored once. This tree and its index file are not
+	 * changed. The entries are read twice, first to count them.
+	 * 
+	 * @param sorted       sorted entries
+	 * @param newIndexFile new index file
+	 * @return the new tree opened by <code>open()</code> with the node size, cache
+	 *         capacity, page store and fill factor of this tree
+	 * @throws IOException
+	 */
+	public BPTree<K, O> mergeSortedToNewFile(Iterable<O> sorted, File newIndexFile) throws IOException {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		checkStoredIndex();
+		long size = 0;
+		for (Iterator<O> it = new MergeItr(iterator(), sorted.iterator()); it.hasNext(); it.next())
+			size++;
+		BPTree<K, O> target = newTargetTree(newIndexFile);
+		target.openAndBatchUpdate(new MergeItr(iterator(), sorted.iterator()), size);
+		target.close();
+		target.open();
+		return target;
+	}
+
+	/**
+	 * Rebuilds the tree to a new file by a batch update, so the leafs are stored
+	 * one after another in the key order, filled according to the fill factor, and
+	 * the free nodes disappear. The entries are read by the sequential pass over
+	 * the leafs, so the tree serves the reads until the new file is complete. Then
+	 * the tree is closed, the new file atomically replaces the index file and the
+	 * tree is opened again in the same mode. If the tree was stored by
+	 * <code>store</code>, it should be stored again.
+	 * 
+	 * @throws IOException
+	 * @see #getFragmentation()
+	 */
+	public void optimize() throws IOException {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		checkStoredIndex();
+		File file = indexFile;
+		File newIndexFile = new File(file.getPath() + ".tmp");
+		BPTree<K, O> target = newTargetTree(newIndexFile);
+		target.openAndBatchUpdate(iterator(), numberOfEntries);
+		target.close();
+		boolean wasReadOnly = readOnly;
+		close();
+		Files.move(newIndexFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		adopt(target);
+		indexFile = file;
+		if (wasReadOnly)
+			openForRead();
+		else
+			open();
+	}
+
+	/**
+	 * Returns a new tree with the node size, cache capacity and fill factors of
+	 * this tree for the rebuilding to the given file.
+	 */
+	private BPTree<K, O> newTargetTree(File newIndexFile) {
+		BPTree<K, O> target = new BPTree<K, O>(classO, newIndexFile);
+		target.setNodeSize(nodeSize);
+		target.setCacheCapacity(cacheCapacity);
+		target.setPageStore(storeKind);
+		target.setFillFactor(leafFillFactor, innerFillFactor);
+		return target;
+	}
+
+	/**
+	 * Measures the fragmentation of the index file by one pass over the leafs.
+	 * 
+	 * @return average distance of neighbouring leafs, fill factor of the leafs and
+	 *         number of free nodes
+	 * @see #optimize()
+	 */
+	@SuppressWarnings("unchecked")
+	public BPFragmentation getFragmentation() {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		BPNode<K, O> node = root;
+		while (node instanceof BPInnerNode) {
+			node = getBPNode(((BPInnerNode<K, O>) node).offsets[0]);
+		}
+		BPLeafNode<K, O> leaf = (BPLeafNode<K, O>) node;
+		int leafs = 1;
+		long entries = leaf.numberOfEntries;
+		long jumps = 0;
+		while (leaf.offsetRightNode >= 0) {
+			jumps += Math.abs(leaf.offsetRightNode - leaf.offset) / nodeSize;
+			leaf = (BPLeafNode<K, O>) getBPNode(leaf.offsetRightNode);
+			leafs++;
+			entries += leaf.numberOfEntries;
+		}
+		return new BPFragmentation(leafs, numberOfFreePages, leafs == 1 ? 1 : (double) jumps / (leafs - 1),
+				(double) entries / ((long) leafs * leafCapacity));
+	}
+
+	/**
+	 * Takes the index file and the structure of the closed tree, this tree must be
+	 * closed too.
+	 */
+	private void adopt(BPTree<K, O> other) {
+		indexFile = other.indexFile;
+		rootOffset = other.rootOffset;
+		root = null; // the root of the other tree belongs to the other tree
+		treeHeight = other.treeHeight;
+		numberOfEntries = other.numberOfEntries;
+		freePages = other.freePages;
+		numberOfFreePages = other.numberOfFreePages;
+		freePageHint = 0;
+		superblock = other.superblock;
+		lastOffset = other.lastOffset;
+		checkpointLsn = other.checkpointLsn;
+		min = other.min;
+		max = other.max;
+	}
+
+	/**
+	 * Merges two sorted iterators, equal entries are returned once.
+	 */
+	private class MergeItr implements Iterator<O> {
+		private final Iterator<O> first, second;
+		private O nextFirst, nextSecond;
+
+		MergeItr(Iterator<O> first, Iterator<O> second) {
+			this.first = first;
+			this.second = second;
+			nextFirst = first.hasNext() ? first.next() : null;
+			nextSecond = second.hasNext() ? second.next() : null;
+		}
+
+		public boolean hasNext() {
+			return nextFirst != null || nextSecond != null;
+		}
+
+		public O next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			O entry;
+			int cmp = nextFirst == null ? 1 : nextSecond == null ? -1 : nextFirst.compareTo(nextSecond);
+			if (cmp <= 0) {
+				entry = nextFirst;
+				nextFirst = first.hasNext() ? first.next() : null;
+				if (cmp == 0)
+					nextSecond = second.hasNext() ? second.next() : null;
+			} else {
+				entry = nextSecond;
+				nextSecond = second.hasNext() ? second.next() : null;
+			}
+			return entry;
+		}
+	}
+
 	/**
 	 * Opens a new indexFile and updates data to the empty tree. At the end all
-	 * leafs are full except the most right one. Iterator must provide an ordered
+	 * leafs are full except the most right one, or filled according to the fill
+	 * factor set by <code>setFillFactor</code>. Iterator must provide an ordered
 	 * data from the smallest to the biggest according to the
 	 * <code>compareTo()</code> function in a {@link BPObject} and {@link BPKey}
 	 * implementations.
@@ -550,72 +2148,553 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 	 * @param size     number of objects to store by this function
 	 * @throws IOException
 	 */
-	public void openAndBatchUpdate(Iterator<O> iterator, int size) throws IOException {
-		numberOfEntries = size;
-		if (!indexFile.exists())
-			indexFile.createNewFile();
-		raf = new RandomAccessFile(indexFile, "rw");
-		raf.setLength(0);
-		channel = raf.getChannel();
+	public void openAndBatchUpdate(Iterator<O> iterator, long size) throws IOException {
+		store = PageStore.open(storeKind, indexFile, false);
+		store.setSize(0);
+		deleteLog(); // the log of the old file
 		buffer = ByteBuffer.allocateDirect(nodeSize);
 		cachedOffsets = new LinkedList<Long>();
 		cache = new HashMap<Long, BPNode<K, O>>(1 + ((cacheCapacity * 4) / 3));
+		offHeapCache = offHeapCacheCapacity > 0 ? new OffHeapNodeCache(nodeSize, offHeapCacheCapacity) : null;
+		adaptiveHash = adaptiveHashCapacity > 0 ? new AdaptiveHashIndex<K, O>(this, adaptiveHashCapacity) : null;
+		readOnly = false;
 		opened = true;
-		ArrayList<Integer> maxSizes = new ArrayList<Integer>();
-		maxSizes.add(leafCapacity);
-		if (size > leafCapacity) {
+		startNewFile();
+		numberOfEntries = size;
+		int leafSize = batchLeafSize();
+		int innerChildren = batchInnerChildren();
+		ArrayList<Long> maxSizes = new ArrayList<Long>();
+		maxSizes.add((long) leafSize);
+		if (size > leafSize) {
 			root = new BPInnerNode<K, O>(this);
 			treeHeight = 1;
-			int maxSize = leafCapacity * (internalNodeCapacity + 1);
+			long maxSize = (long) leafSize * innerChildren;
 			maxSizes.add(maxSize);
 			while (maxSize < size) {
-				maxSize *= (internalNodeCapacity + 1);
+				maxSize *= innerChildren;
 				maxSizes.add(maxSize);
 				treeHeight++;
 			}
 		} else {
-			root = new BPLeafNode<K, O>(this);
-			treeHeight = 0;
+			root = new BPLeafNode<K, O>(this);
+			treeHeight = 0;
+		}
+		rootOffset = root.offset;
+		min = root.batchUpdate(iterator, size, treeHeight, maxSizes, -1, -1);
+	}
+
+	/**
+	 * Opens a new indexFile and creates the tree from the sorted array of entries
+	 * using all the cores of the common {@link ForkJoinPool} (or the pool in which
+	 * it is called). The tree is built bottom up, level by level. All leafs are
+	 * stored one after another from the beginning of the file, the inner nodes of
+	 * each level follow the level below them, so the offsets of all nodes and the
+	 * links between neighbouring leafs are computed in advance and every node is
+	 * written independently by a positional write. The entries are spread evenly
+	 * between the leafs and the children evenly between the inner nodes.
+	 * 
+	 * This method can add data as a new index only. The array can be sorted by
+	 * {@link Arrays#parallelSort(Object[])}.
+	 * 
+	 * @param entries sorted entries
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public void openAndParallelBatchUpdate(final O[] entries) throws IOException {
+		final int size = entries.length;
+		store = PageStore.open(storeKind, indexFile, false);
+		store.setSize(0);
+		deleteLog(); // the log of the old file
+		buffer = ByteBuffer.allocateDirect(nodeSize);
+		cachedOffsets = new LinkedList<Long>();
+		cache = new HashMap<Long, BPNode<K, O>>(1 + ((cacheCapacity * 4) / 3));
+		offHeapCache = offHeapCacheCapacity > 0 ? new OffHeapNodeCache(nodeSize, offHeapCacheCapacity) : null;
+		adaptiveHash = adaptiveHashCapacity > 0 ? new AdaptiveHashIndex<K, O>(this, adaptiveHashCapacity) : null;
+		readOnly = false;
+		opened = true;
+		startNewFile();
+		numberOfEntries = size;
+		treeHeight = 0;
+		final long firstLeaf = lastOffset;
+		int leafSize = batchLeafSize();
+		int innerChildren = batchInnerChildren();
+		if (size <= leafSize) {
+			BPLeafNode<K, O> leaf = new BPLeafNode<K, O>(this, firstLeaf);
+			System.arraycopy(entries, 0, leaf.entries, 0, size);
+			leaf.numberOfEntries = size;
+			root = leaf;
+			rootOffset = firstLeaf;
+			lastOffset = firstLeaf + nodeSize;
+			min = size == 0 ? null : entries[0].getKey();
+			return;
+		}
+		final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(nodeSize));
+		final int leafs = (size + leafSize - 1) / leafSize;
+		final K[] leafKeys = (K[]) Array.newInstance(classK, leafs);
+		IntStream.range(0, leafs).parallel().forEach(i -> {
+			int from = (int) ((long) size * i / leafs);
+			int to = (int) ((long) size * (i + 1) / leafs);
+			BPLeafNode<K, O> leaf = new BPLeafNode<K, O>(this, firstLeaf + i * (long) nodeSize);
+			System.arraycopy(entries, from, leaf.entries, 0, to - from);
+			leaf.numberOfEntries = to - from;
+			leaf.offsetLeftNode = i == 0 ? -1 : leaf.offset - nodeSize;
+			leaf.offsetRightNode = i == leafs - 1 ? -1 : leaf.offset + nodeSize;
+			leafKeys[i] = entries[from].getKey();
+			writeBPNode(leaf, buffers.get());
+		});
+		long childrenOffset = firstLeaf;
+		long levelOffset = firstLeaf + leafs * (long) nodeSize;
+		int children = leafs;
+		K[] childKeys = leafKeys;
+		final AtomicReference<BPInnerNode<K, O>> top = new AtomicReference<BPInnerNode<K, O>>();
+		while (children > 1) {
+			treeHeight++;
+			final int nodes = (children + innerChildren - 1) / innerChildren;
+			final int count = children;
+			final long firstChild = childrenOffset;
+			final long firstNode = levelOffset;
+			final K[] keys = childKeys;
+			final K[] nodeKeys = (K[]) Array.newInstance(classK, nodes);
+			IntStream.range(0, nodes).parallel().forEach(j -> {
+				int from = (int) ((long) count * j / nodes);
+				int to = (int) ((long) count * (j + 1) / nodes);
+				BPInnerNode<K, O> node = new BPInnerNode<K, O>(this, firstNode + j * (long) nodeSize);
+				for (int k = from; k < to; k++) {
+					node.offsets[k - from] = firstChild + k * (long) nodeSize;
+					if (k > from)
+						node.entries[k - from - 1] = keys[k];
+				}
+				node.numberOfEntries = to - from - 1;
+				nodeKeys[j] = keys[from];
+				writeBPNode(node, buffers.get());
+				if (nodes == 1)
+					top.set(node);
+			});
+			childrenOffset = levelOffset;
+			levelOffset += nodes * (long) nodeSize;
+			children = nodes;
+			childKeys = nodeKeys;
+		}
+		root = top.get();
+		rootOffset = root.offset;
+		lastOffset = levelOffset;
+		min = leafKeys[0];
+	}
+
+	/**
+	 * Stores a node to the index file by a positional write using the given
+	 * buffer, so more nodes can be stored concurrently.
+	 */
+	private void writeBPNode(BPNode<K, O> node, ByteBuffer bb) {
+		bb.clear();
+		node.save(bb);
+		bb.rewind();
+		try {
+			store.writePage(bb, node.offset);
+			node.isChanged = false;
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Unsuccessful writing from buffer to the index file!!!");
+		}
+	}
+
+	/**
+	 * Removes entry from the index.
+	 * 
+	 * @param entry Entry to remove
+	 * @return true if the entry has been found and erased, false if there has been
+	 *         no such entry in a tree
+	 */
+	public boolean remove(O entry) {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		if (wal != null)
+			logEntry(WriteAheadLog.REMOVE, entry);
+		boolean result = removeEntry(entry);
+		logged();
+		return result;
+	}
+
+	/**
+	 * Removes entry from the index without logging it.
+	 */
+	private boolean removeEntry(O entry) {
+		boolean result = root.remove(entry, true, getTreeHeight());
+		if (result) {
+			numberOfEntries--;
+			rightmostLeaf = -1; // the leafs could have been merged
+		}
+		return result;
+	}
+
+	/**
+	 * Removes all entries with the given tree having the given key
+	 * 
+	 * @param key Key of the entries to remove
+	 * @return true if the entry (entries) has been found and erased, false is there
+	 *         has been no such entry with a given key in a tree
+	 */
+	public boolean remove(K key) {
+		return removeRange(key, key) > 0;
+	}
+
+	/**
+	 * Removes all entries with keys from the given interval. Subtrees and leafs
+	 * lying completely in the interval are freed at once without any rebalancing,
+	 * entries are removed only from the two boundary leafs. The links between the
+	 * remaining leafs are fixed once and then only the nodes on the paths to the
+	 * boundary leafs are merged with or filled from their siblings.
+	 * 
+	 * @param low  the smallest key of the interval
+	 * @param high the biggest key of the interval
+	 * @return number of removed entries
+	 */
+	public long removeRange(K low, K high) {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		if (numberOfEntries == 0 || low.compareTo(high) > 0) {
+			return 0;
+		}
+		if (wal != null) {
+			try {
+				wal.logRange(low, high);
+			} catch (IOException e) {
+				throw new RuntimeException("Unsuccessful writing to the write-ahead log.", e);
+			}
+		}
+		int height = getTreeHeight();
+		long firstLeaf = findBoundaryLeaf(low, false);
+		long lastLeaf = findBoundaryLeaf(high, true);
+		long leftOuter = ((BPLeafNode<K, O>) getBPNode(firstLeaf)).offsetLeftNode;
+		long rightOuter = ((BPLeafNode<K, O>) getBPNode(lastLeaf)).offsetRightNode;
+		long[] removed = new long[1];
+		HashSet<Long> freed = new HashSet<Long>();
+		HashSet<Long> changed = new HashSet<Long>();
+		if (removeRange(root.offset, height, low, high, removed, freed, changed)) {
+			// all the entries have been removed, the empty leaf root stays
+			if (height > 0) {
+				addNewFreeOffset(root.offset);
+				root = new BPLeafNode<K, O>(this);
+				rootOffset = root.offset;
+				treeHeight = 0;
+			}
+		} else {
+			// links between the leafs around the removed ones, -1 for no leaf
+			ArrayList<BPLeafNode<K, O>> leafs = new ArrayList<BPLeafNode<K, O>>(4);
+			long previous = -2;
+			for (long offset : new long[] { leftOuter, firstLeaf, lastLeaf, rightOuter }) {
+				if (freed.contains(offset) || offset == previous)
+					continue;
+				leafs.add(offset < 0 ? null : (BPLeafNode<K, O>) getBPNode(offset));
+				previous = offset;
+			}
+			for (int i = 1; i < leafs.size(); i++) {
+				BPLeafNode<K, O> left = leafs.get(i - 1);
+				BPLeafNode<K, O> right = leafs.get(i);
+				if (left != null && left.offsetRightNode != (right == null ? -1 : right.offset)) {
+					left.offsetRightNode = right == null ? -1 : right.offset;
+					left.isChanged = true;
+				}
+				if (right != null && right.offsetLeftNode != (left == null ? -1 : left.offset)) {
+					right.offsetLeftNode = left == null ? -1 : left.offset;
+					right.isChanged = true;
+				}
+			}
+			for (BPLeafNode<K, O> leaf : leafs) {
+				if (leaf != null)
+					putBPNode(leaf);
+			}
+			if (height > 0) {
+				rebalance(root.offset, height, changed);
+			}
+			collapseRoot();
 		}
-		rootOffset = root.offset;
-		min = root.batchUpdate(iterator, size, treeHeight, maxSizes, -1, -1);
+		numberOfEntries -= removed[0];
+		if (removed[0] > 0) {
+			min = null; // computed again when needed
+			max = null;
+			rightmostLeaf = -1;
+		}
+		logged();
+		return removed[0];
 	}
 
 	/**
-	 * Removes entry from the index.
-	 * 
-	 * @param entry Entry to remove
-	 * @return true if the entry has been found and erased, false if there has been
-	 *         no such entry in a tree
+	 * Replaces the inner root without keys by its only child.
 	 */
-	public boolean remove(O entry) {
+	private void collapseRoot() {
+		while (root instanceof BPInnerNode && root.numberOfEntries == 0) {
+			BPNode<K, O> oldRoot = root;
+			setNewRootAfterRemoving(getBPNode(((BPInnerNode<K, O>) root).offsets[0]));
+			addNewFreeOffset(oldRoot.offset);
+		}
+	}
+
+	/**
+	 * Merges or refills all the nodes having less entries than the minimal
+	 * quantity, e.g. the nodes left by the lazy rebalancing. The whole tree is
+	 * read from the bottom to the root and the root without keys is removed.
+	 */
+	public void rebalance() {
 		if (!opened) {
 			throw new ManipulationWithClosedTreeException();
 		}
-		boolean result = root.remove(entry, true, getTreeHeight());
-		if (result)
-			numberOfEntries--;
-		return result;
+		int height = getTreeHeight();
+		if (height > 0) {
+			rebalanceSubtree(root.offset, height);
+			collapseRoot();
+			rightmostLeaf = -1;
+		}
 	}
 
 	/**
-	 * Removes all entries with the given tree having the given key
+	 * Rebalances the subtrees of the children of the given node and then its
+	 * children from the left to the right.
+	 */
+	@SuppressWarnings("unchecked")
+	private void rebalanceSubtree(long offset, int height) {
+		if (height > 1) {
+			BPInnerNode<K, O> node = (BPInnerNode<K, O>) getBPNode(offset);
+			long[] children = Arrays.copyOf(node.offsets, node.numberOfEntries + 1);
+			for (long child : children) {
+				rebalanceSubtree(child, height - 1);
+			}
+		}
+		int pos = 0;
+		int keys;
+		while (pos <= (keys = getBPNode(offset).numberOfEntries)) {
+			rebalanceChild(offset, pos, height - 1, true);
+			if (getBPNode(offset).numberOfEntries == keys)
+				pos++; // otherwise the child was merged with its right sibling, the same position is checked
+		}
+	}
+
+	/**
+	 * Returns the offset of the most left leaf, which can contain the given key,
+	 * or the most right one if <code>last</code> is true.
+	 */
+	private long findBoundaryLeaf(K key, boolean last) {
+		BPNode<K, O> node = root;
+		while (node instanceof BPInnerNode) {
+			BPInnerNode<K, O> inner = (BPInnerNode<K, O>) node;
+			node = getBPNode(inner.offsets[inner.countKeysBefore(key, last)]);
+		}
+		return node.offset;
+	}
+
+	/**
+	 * Removes the entries from the interval in the subtree of the given node
+	 * without rebalancing. The offsets of the changed nodes are collected for the
+	 * later rebalancing.
 	 * 
-	 * @param key Key of the entries to remove
-	 * @return true if the entry (entries) has been found and erased, false is there
-	 *         has been no such entry with a given key in a tree
+	 * @return true if the node has no entry and has been freed
 	 */
-	public boolean remove(K key) {
-		if (!opened) {
-			throw new ManipulationWithClosedTreeException();
+	@SuppressWarnings("unchecked")
+	private boolean removeRange(long offset, int height, K low, K high, long[] removed, Set<Long> freed,
+			Set<Long> changed) {
+		BPNode<K, O> node = getBPNode(offset);
+		if (height == 0) {
+			BPLeafNode<K, O> leaf = (BPLeafNode<K, O>) node;
+			int count = 0;
+			for (int i = 0; i < leaf.numberOfEntries; i++) {
+				K key = leaf.entries[i].getKey();
+				if (key.compareTo(low) < 0 || key.compareTo(high) > 0)
+					leaf.entries[count++] = leaf.entries[i];
+			}
+			if (count == leaf.numberOfEntries)
+				return false;
+			for (int i = count; i < leaf.numberOfEntries; i++)
+				leaf.entries[i] = null;
+			removed[0] += leaf.numberOfEntries - count;
+			leaf.numberOfEntries = count;
+			if (count == 0 && leaf != root) {
+				addNewFreeOffset(leaf.offset);
+				freed.add(leaf.offset);
+				return true;
+			}
+			leaf.isChanged = true;
+			changed.add(leaf.offset);
+			putBPNode(leaf);
+			return count == 0;
+		}
+		BPInnerNode<K, O> inner = (BPInnerNode<K, O>) node;
+		int first = inner.countKeysBefore(low, false);
+		int last = inner.countKeysBefore(high, true);
+		int children = inner.numberOfEntries + 1;
+		K[] keys = Arrays.copyOf(inner.entries, inner.numberOfEntries);
+		long[] offsets = Arrays.copyOf(inner.offsets, children);
+		boolean[] empty = new boolean[children];
+		for (int i = first + 1; i < last; i++) {
+			dropSubtree(offsets[i], height - 1, removed, freed);
+			empty[i] = true;
+		}
+		empty[first] = removeRange(offsets[first], height - 1, low, high, removed, freed, changed);
+		if (last > first)
+			empty[last] = removeRange(offsets[last], height - 1, low, high, removed, freed, changed);
+		inner = (BPInnerNode<K, O>) getBPNode(offset); // the node could have been reloaded to the cache
+		int count = 0;
+		for (int i = 0; i < children; i++) {
+			if (empty[i])
+				continue;
+			if (count > 0)
+				inner.entries[count - 1] = keys[i - 1];
+			inner.offsets[count++] = offsets[i];
 		}
-		List<O> list = getListForKey(key);
-		if (list == null)
+		if (count == children) {
+			changed.add(inner.offset); // some of the children could have been changed
 			return false;
-		for (O entry : list) {
-			remove(entry);
 		}
-		return true;
+		for (int i = Math.max(0, count - 1); i < keys.length; i++)
+			inner.entries[i] = null;
+		if (count == 0 && inner != root) {
+			addNewFreeOffset(inner.offset);
+			freed.add(inner.offset);
+			return true;
+		}
+		inner.numberOfEntries = Math.max(0, count - 1);
+		inner.isChanged = true;
+		changed.add(inner.offset);
+		putBPNode(inner);
+		return count == 0;
+	}
+
+	/**
+	 * Frees all the nodes of the subtree and counts its entries.
+	 */
+	@SuppressWarnings("unchecked")
+	private void dropSubtree(long offset, int height, long[] removed, Set<Long> freed) {
+		BPNode<K, O> node = getBPNode(offset);
+		if (height == 0) {
+			removed[0] += node.numberOfEntries;
+		} else {
+			long[] offsets = Arrays.copyOf(((BPInnerNode<K, O>) node).offsets, node.numberOfEntries + 1);
+			for (long child : offsets) {
+				dropSubtree(child, height - 1, removed, freed);
+			}
+		}
+		addNewFreeOffset(offset);
+		freed.add(offset);
+	}
+
+	/**
+	 * Merges or refills the underflowed nodes changed by the range removal from
+	 * the bottom to the given node.
+	 */
+	@SuppressWarnings("unchecked")
+	private void rebalance(long offset, int height, Set<Long> changed) {
+		BPInnerNode<K, O> node = (BPInnerNode<K, O>) getBPNode(offset);
+		ArrayList<Long> children = new ArrayList<Long>(2);
+		for (int i = 0; i <= node.numberOfEntries; i++) {
+			if (changed.contains(node.offsets[i]))
+				children.add(node.offsets[i]);
+		}
+		if (height > 1) {
+			for (long child : children) {
+				rebalance(child, height - 1, changed);
+			}
+		}
+		for (long child : children) {
+			node = (BPInnerNode<K, O>) getBPNode(offset);
+			for (int i = 0; i <= node.numberOfEntries; i++) {
+				if (node.offsets[i] == child) {
+					rebalanceChild(offset, i, height - 1, false);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * If the child at the given position has less entries than the minimal
+	 * quantity, it is merged with its sibling, or the entries are distributed
+	 * evenly between them. Unless <code>strict</code> is true, the lazy
+	 * rebalancing tolerates the half empty nodes.
+	 */
+	@SuppressWarnings("unchecked")
+	private void rebalanceChild(long parentOffset, int pos, int childHeight, boolean strict) {
+		BPInnerNode<K, O> parent = (BPInnerNode<K, O>) getBPNode(parentOffset);
+		if (parent.numberOfEntries == 0 || pos > parent.numberOfEntries)
+			return;
+		int leftPos = pos > 0 ? pos - 1 : 0;
+		long leftOffset = parent.offsets[leftPos];
+		long rightOffset = parent.offsets[leftPos + 1];
+		BPNode<K, O> child = getBPNode(parent.offsets[pos]);
+		int minQuantity;
+		if (childHeight == 0)
+			minQuantity = strict ? minLeafQuantity : underflowLeafQuantity();
+		else
+			minQuantity = strict ? minInternalNodeQuantity : underflowInternalNodeQuantity();
+		if (child.numberOfEntries >= minQuantity)
+			return;
+		BPNode<K, O> leftNode = child.offset == leftOffset ? child : getBPNode(leftOffset);
+		BPNode<K, O> rightNode = child.offset == rightOffset ? child : getBPNode(rightOffset);
+		boolean merged;
+		if (childHeight == 0) {
+			BPLeafNode<K, O> left = (BPLeafNode<K, O>) leftNode;
+			BPLeafNode<K, O> right = (BPLeafNode<K, O>) rightNode;
+			int total = left.numberOfEntries + right.numberOfEntries;
+			merged = total <= leafCapacity;
+			O[] all = Arrays.copyOf(left.entries, total);
+			System.arraycopy(right.entries, 0, all, left.numberOfEntries, right.numberOfEntries);
+			int leftCount = merged ? total : total / 2;
+			Arrays.fill(left.entries, null);
+			Arrays.fill(right.entries, null);
+			System.arraycopy(all, 0, left.entries, 0, leftCount);
+			System.arraycopy(all, leftCount, right.entries, 0, total - leftCount);
+			left.numberOfEntries = leftCount;
+			right.numberOfEntries = total - leftCount;
+			if (merged) {
+				left.offsetRightNode = right.offsetRightNode;
+				if (right.offsetRightNode >= 0) {
+					BPLeafNode<K, O> next = (BPLeafNode<K, O>) getBPNode(right.offsetRightNode);
+					next.offsetLeftNode = left.offset;
+					next.isChanged = true;
+					putBPNode(next);
+				}
+			} else {
+				parent.entries[leftPos] = right.entries[0].getKey();
+			}
+		} else {
+			BPInnerNode<K, O> left = (BPInnerNode<K, O>) leftNode;
+			BPInnerNode<K, O> right = (BPInnerNode<K, O>) rightNode;
+			int totalKeys = left.numberOfEntries + 1 + right.numberOfEntries;
+			K[] keys = Arrays.copyOf(left.entries, totalKeys);
+			keys[left.numberOfEntries] = parent.entries[leftPos];
+			System.arraycopy(right.entries, 0, keys, left.numberOfEntries + 1, right.numberOfEntries);
+			long[] offsets = Arrays.copyOf(left.offsets, totalKeys + 1);
+			System.arraycopy(right.offsets, 0, offsets, left.numberOfEntries + 1, right.numberOfEntries + 1);
+			merged = totalKeys <= internalNodeCapacity;
+			int leftKeys = merged ? totalKeys : totalKeys / 2;
+			Arrays.fill(left.entries, null);
+			Arrays.fill(right.entries, null);
+			System.arraycopy(keys, 0, left.entries, 0, leftKeys);
+			System.arraycopy(offsets, 0, left.offsets, 0, leftKeys + 1);
+			left.numberOfEntries = leftKeys;
+			if (!merged) {
+				parent.entries[leftPos] = keys[leftKeys];
+				right.numberOfEntries = totalKeys - leftKeys - 1;
+				System.arraycopy(keys, leftKeys + 1, right.entries, 0, right.numberOfEntries);
+				System.arraycopy(offsets, leftKeys + 1, right.offsets, 0, right.numberOfEntries + 1);
+			}
+		}
+		leftNode.isChanged = true;
+		putBPNode(leftNode);
+		if (merged) {
+			addNewFreeOffset(rightNode.offset);
+			for (int i = leftPos + 1; i < parent.numberOfEntries; i++) {
+				parent.entries[i - 1] = parent.entries[i];
+				parent.offsets[i] = parent.offsets[i + 1];
+			}
+			parent.numberOfEntries--;
+			parent.entries[parent.numberOfEntries] = null;
+		} else {
+			rightNode.isChanged = true;
+			putBPNode(rightNode);
+		}
+		parent.isChanged = true;
+		putBPNode(parent);
 	}
 
 	/**
@@ -656,9 +2735,79 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		if (!opened) {
 			throw new ManipulationWithClosedTreeException();
 		}
+		AdaptiveHashIndex<K, O> hash = adaptiveHash;
+		if (hash != null) {
+			O entry = hash.get(key);
+			if (entry != null)
+				return entry;
+		}
 		BPLeafNode<K, O> leaf = root.findLeafLeft(key);
 		int position = leaf.binarySearch(key);
-		return position >= 0 ? leaf.entries[position] : null;
+		if (position < 0)
+			return null;
+		if (hash != null)
+			hash.found(leaf, position);
+		return leaf.entries[position];
+	}
+
+	/**
+	 * Asynchronous variant of <code>get</code>. The nodes, which are not in the
+	 * cache, are read by an {@link java.nio.channels.AsynchronousFileChannel}
+	 * (other page stores than the file are read directly), so many lookups can
+	 * wait for the disk at the same time without blocking their threads. The tree
+	 * must not be changed while the lookup is in progress.
+	 * 
+	 * @param key Key of the entry to return.
+	 * @return future completed by one entry with a given key or <code>null</code>
+	 *         if there is no such entry.
+	 */
+	public CompletableFuture<O> getAsync(final K key) {
+		return asyncReader().findLeafLeft(root.offset, key).thenApply(leaf -> {
+			int position = leaf.binarySearch(key);
+			return position >= 0 ? leaf.entries[position] : null;
+		});
+	}
+
+	/**
+	 * Asynchronous variant of <code>getListForKey</code>.
+	 * 
+	 * @param key Key value of the entries to return.
+	 * @return future completed by the {@link List} of entries with a given key or
+	 *         <code>null</code> if there is no such entry.
+	 */
+	public CompletableFuture<List<O>> getListForKeyAsync(K key) {
+		return intervalQueryAsync(key, key).thenApply(list -> list.isEmpty() ? null : list);
+	}
+
+	/**
+	 * Asynchronous variant of <code>intervalQuery</code>.
+	 * 
+	 * @param low  the smallest key of the interval
+	 * @param high the biggest key of the interval
+	 * @return future completed by the list of entries with the keys from the given
+	 *         interval
+	 */
+	public CompletableFuture<List<O>> intervalQueryAsync(K low, K high) {
+		return asyncReader().intervalQuery(root.offset, low, high);
+	}
+
+	private AsyncNodeReader<K, O> asyncReader() {
+		cacheLock.lock();
+		try {
+			if (!opened) {
+				throw new ManipulationWithClosedTreeException();
+			}
+			if (asyncReader == null) {
+				try {
+					asyncReader = new AsyncNodeReader<K, O>(this, asyncConcurrency);
+				} catch (IOException e) {
+					throw new RuntimeException("Cannot open the index file for asynchronous reading.", e);
+				}
+			}
+			return asyncReader;
+		} finally {
+			cacheLock.unlock();
+		}
 	}
 
 	/**
@@ -699,6 +2848,7 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 	}
 
 	private class ItrForKey implements Iterator<O> {
+		final ScanState scan = new ScanState();
 		BPLeafNode<K, O> leaf;
 		int cursor; // index of next element to return
 		K key;
@@ -712,13 +2862,13 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		}
 
 		public boolean hasNext() {
-			return (leaf != null) && (leaf.entries[cursor].getKey().equals(key));
+			return (leaf != null) && (leaf.entries[cursor].getKey().compareTo(key) == 0);
 		}
 
 		public O next() {
 			O result = leaf.entries[cursor++];
 			if (cursor == leaf.numberOfEntries) {
-				leaf = leaf.getRightNode();
+				leaf = getScanLeaf(leaf, true, scan);
 				cursor = 0;
 			}
 			return result;
@@ -769,16 +2919,72 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 	 * 
 	 * @return the number of Input/output operations to the disk
 	 */
-	public int getCountIOs() {
+	public long getCountIOs() {
 		return countIOs;
 	}
 
+	/**
+	 * Resets the number of nodes stored to the index file.
+	 */
+	public void resetCountWrites() {
+		countWrites = 0;
+	}
+
+	/**
+	 * Returns the number of nodes stored to the index file from the cache (changed
+	 * nodes removed from the cache or stored by closing the tree) since the
+	 * creation of the instance of the BPTree or since the call of the
+	 * <code>resetCountWrites</code> function.
+	 * 
+	 * @return the number of stored nodes
+	 */
+	public long getCountWrites() {
+		return countWrites;
+	}
+
+	/**
+	 * Returns the number of forces of the write-ahead log to the disk since the
+	 * tree has been opened. With the group commit it is smaller than the number of
+	 * the changes.
+	 * 
+	 * @return the number of forces of the log, 0 if the tree has no log
+	 */
+	public long getCountLogSyncs() {
+		return wal == null ? 0 : countLogSyncs + wal.getCountSyncs();
+	}
+
+	/**
+	 * Resets the number of node splits.
+	 */
+	public void resetCountSplits() {
+		countSplits = 0;
+	}
+
+	/**
+	 * Returns the number of node splits caused by inserts since the creation of the
+	 * instance of the BPTree or since the call of the <code>resetCountSplits</code>
+	 * function.
+	 * 
+	 * @return the number of node splits
+	 */
+	public long getCountSplits() {
+		return countSplits;
+	}
+
+	/**
+	 * @return true if the tree has been opened by some of the <code>open*</code>
+	 *         methods and not closed since
+	 */
+	public boolean isOpened() {
+		return opened;
+	}
+
 	/**
 	 * Returns the number of entries in the index.
 	 * 
 	 * @return the number of entries in teh index.
 	 */
-	public int getNumberOfEntries() {
+	public long getNumberOfEntries() {
 		return numberOfEntries;
 	}
 
@@ -802,6 +3008,7 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 	}
 
 	private class Itr implements Iterator<O> {
+		final ScanState scan = new ScanState();
 		BPLeafNode<K, O> leaf = root.findLeafLeft();
 		int cursor = 0; // index of next element to return
 
@@ -812,7 +3019,7 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		public O next() {
 			O result = leaf.entries[cursor++];
 			if (cursor == leaf.numberOfEntries) {
-				leaf = leaf.getRightNode();
+				leaf = getScanLeaf(leaf, true, scan);
 				cursor = 0;
 			}
 			return result;
@@ -833,6 +3040,7 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 	}
 
 	private class InverseItr implements Iterator<O> {
+		final ScanState scan = new ScanState();
 		BPLeafNode<K, O> leaf = root.findLeafRight();
 		int cursor = leaf.numberOfEntries - 1; // index of next element to return
 
@@ -843,8 +3051,9 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		public O next() {
 			O result = leaf.entries[cursor--];
 			if (cursor == -1) {
-				leaf = leaf.getLeftNode();
-				cursor = leaf.numberOfEntries - 1;
+				leaf = getScanLeaf(leaf, false, scan);
+				if (leaf != null)
+					cursor = leaf.numberOfEntries - 1;
 			}
 			return result;
 		}
@@ -854,31 +3063,310 @@ public class BPTree<K extends BPKey<K>, O extends BPObject<K, O>> implements Ser
 		}
 	}
 
+	/**
+	 * Creates a {@link Spliterator} over the elements in this BPTree in proper
+	 * sequence. The spliterator splits along the child boundaries of the inner
+	 * nodes, so every part reads a disjoint set of leafs.
+	 *
+	 * @return a spliterator over the elements in this BPTree
+	 */
+	@Override
+	public Spliterator<O> spliterator() {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		return new RangeSpliterator(null, null);
+	}
+
+	/**
+	 * Returns a sequential {@link Stream} over the elements in this BPTree in
+	 * proper sequence.
+	 *
+	 * @return a sequential stream over the elements in this BPTree
+	 */
+	public Stream<O> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * Returns a parallel {@link Stream} over the elements in this BPTree. The tree
+	 * must not be changed while the stream is processed.
+	 *
+	 * @return a parallel stream over the elements in this BPTree
+	 */
+	public Stream<O> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/**
+	 * Returns a sequential {@link Stream} over the entries with keys from the
+	 * interval &lt;low, high&gt; in ascending order. Only the subtrees that
+	 * intersect the interval are read. The stream can be turned to a parallel one
+	 * by <code>parallel()</code>.
+	 *
+	 * @param low  the smallest key of the interval
+	 * @param high the biggest key of the interval
+	 * @return a stream over the entries with the keys from the given interval
+	 */
+	public Stream<O> rangeStream(K low, K high) {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		return StreamSupport.stream(new RangeSpliterator(low, high), false);
+	}
+
+	/**
+	 * Spliterator over the entries of the subtrees given by their offsets. The
+	 * subtrees are kept in ascending order. Splitting takes the first half of the
+	 * subtrees, if there is only one subtree left, it is replaced by its children.
+	 */
+	private class RangeSpliterator implements Spliterator<O> {
+		K low, high; // bounds of the interval, null means unbounded
+		ArrayDeque<Long> subtrees; // offsets of the subtrees not visited yet
+		long estimate; // estimated number of entries in the subtrees
+		BPLeafNode<K, O> leaf; // leaf in progress, null if traversal has not started
+		int cursor; // index of next element to return in leaf
+		boolean finished;
+
+		RangeSpliterator(K low, K high) {
+			this.low = low;
+			this.high = high;
+			subtrees = new ArrayDeque<Long>();
+			subtrees.add(root.offset);
+			estimate = numberOfEntries;
+		}
+
+		private RangeSpliterator(K low, K high, ArrayDeque<Long> subtrees, long estimate) {
+			this.low = low;
+			this.high = high;
+			this.subtrees = subtrees;
+			this.estimate = estimate;
+		}
+
+		/**
+		 * Replaces the inner node by offsets of its children, which can contain keys
+		 * from the interval.
+		 */
+		private void expand(BPInnerNode<K, O> node) {
+			for (int i = node.numberOfEntries; i >= 0; i--) {
+				if (low != null && i < node.numberOfEntries && node.entries[i].compareTo(low) < 0)
+					continue;
+				if (high != null && i > 0 && node.entries[i - 1].compareTo(high) > 0)
+					continue;
+				subtrees.addFirst(node.offsets[i]);
+			}
+		}
+
+		/**
+		 * Descends to the next leaf and positions the cursor to the first entry with
+		 * key not smaller than <code>low</code>.
+		 */
+		private BPLeafNode<K, O> nextLeaf() {
+			while (!subtrees.isEmpty()) {
+				BPNode<K, O> node = getBPNode(subtrees.pollFirst());
+				if (node instanceof BPInnerNode) {
+					expand((BPInnerNode<K, O>) node);
+				} else {
+					BPLeafNode<K, O> result = (BPLeafNode<K, O>) node;
+					cursor = 0;
+					if (low != null) {
+						cursor = result.getLeftObjectPosition(low);
+						if (cursor < 0)
+							cursor = -1 - cursor;
+					}
+					return result;
+				}
+			}
+			return null;
+		}
+
+		public boolean tryAdvance(Consumer<? super O> action) {
+			while (!finished) {
+				if (leaf != null && cursor < leaf.numberOfEntries) {
+					O entry = leaf.entries[cursor++];
+					if (high != null && entry.getKey().compareTo(high) > 0) {
+						finished = true;
+						return false;
+					}
+					action.accept(entry);
+					return true;
+				}
+				leaf = nextLeaf();
+				if (leaf == null)
+					finished = true;
+			}
+			return false;
+		}
+
+		public Spliterator<O> trySplit() {
+			if (leaf != null || finished)
+				return null;
+			while (subtrees.size() == 1) {
+				BPNode<K, O> node = getBPNode(subtrees.peekFirst());
+				if (!(node instanceof BPInnerNode))
+					return null;
+				subtrees.pollFirst();
+				expand((BPInnerNode<K, O>) node);
+			}
+			int size = subtrees.size();
+			if (size < 2)
+				return null;
+			ArrayDeque<Long> prefix = new ArrayDeque<Long>(size / 2);
+			for (int i = 0; i < size / 2; i++) {
+				prefix.add(subtrees.pollFirst());
+			}
+			long prefixEstimate = estimate * (size / 2) / size;
+			estimate -= prefixEstimate;
+			return new RangeSpliterator(low, high, prefix, prefixEstimate);
+		}
+
+		public long estimateSize() {
+			return finished ? 0 : estimate;
+		}
+
+		public int characteristics() {
+			// the batch updates store the equal entries they get, so they are not distinct
+			return ORDERED | SORTED | NONNULL;
+		}
+
+		@Override
+		public Comparator<? super O> getComparator() {
+			// the entries with equal keys are not sorted by their natural order
+			return (o1, o2) -> o1.getKey().compareTo(o2.getKey());
+		}
+	}
+
+	/**
+	 * Returns a {@link List} of entries with keys from the interval &lt;low,
+	 * high&gt; in ascending order. For big results use
+	 * <code>intervalCursor</code> or the variant with {@link BPVisitor}, which
+	 * do not store the whole result in memory.
+	 * 
+	 * @param low  the smallest key of the interval
+	 * @param high the biggest key of the interval
+	 * @return list of entries with the keys from the given interval
+	 */
 	public List<O> intervalQuery(K low, K high) {
+		final List<O> result = new ArrayList<O>();
+		intervalQuery(low, high, new BPVisitor<O>() {
+			public boolean visit(O entry) {
+				return result.add(entry);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Passes the entries with keys from the interval &lt;low, high&gt; to the
+	 * visitor in ascending order. The query stops if the visitor returns false.
+	 * 
+	 * @param low     the smallest key of the interval
+	 * @param high    the biggest key of the interval
+	 * @param visitor callback for the entries
+	 * @return number of entries passed to the visitor
+	 */
+	public long intervalQuery(K low, K high, BPVisitor<? super O> visitor) {
+		BPCursor<O> cursor = intervalCursor(low, high);
+		long count = 0;
+		while (cursor.hasNext()) {
+			count++;
+			if (!visitor.visit(cursor.next())) {
+				cursor.close();
+				break;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a cursor over the entries with keys from the interval &lt;low,
+	 * high&gt; in ascending order. Leafs are read one by one while the cursor
+	 * moves.
+	 * 
+	 * @param low  the smallest key of the interval
+	 * @param high the biggest key of the interval
+	 * @return cursor over the entries with the keys from the given interval
+	 */
+	public BPCursor<O> intervalCursor(K low, K high) {
+		return intervalCursor(low, high, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns a cursor over at most <code>limit</code> first entries with keys
+	 * from the interval &lt;low, high&gt; in ascending order.
+	 * 
+	 * @param low   the smallest key of the interval
+	 * @param high  the biggest key of the interval
+	 * @param limit maximal number of entries returned by the cursor
+	 * @return cursor over the entries with the keys from the given interval
+	 */
+	public BPCursor<O> intervalCursor(K low, K high, long limit) {
 		if (!opened) {
 			throw new ManipulationWithClosedTreeException();
 		}
-		BPLeafNode<K, O> leaf = root.findLeafLeft(low);
-		int position = leaf.binarySearch(low);
-		if (position < 0) {
-			position = -1 - position;
+		return new IntervalCursor(low, high, limit);
+	}
+
+	private class IntervalCursor implements BPCursor<O> {
+		final ScanState scan = new ScanState();
+		BPLeafNode<K, O> leaf;
+		int cursor; // index of the entry after the next one in leaf
+		K high;
+		long remaining; // number of entries, which can be returned
+		O next; // next entry to return, null at the end
+
+		IntervalCursor(K low, K high, long limit) {
+			this.high = high;
+			remaining = limit;
+			leaf = root.findLeafLeft(low);
+			cursor = leaf.getLeftObjectPosition(low);
+			if (cursor < 0) {
+				cursor = -1 - cursor;
+			}
+			advance();
 		}
-		List<O> result = new LinkedList<>();
-		while (true) {
-			if (position == leaf.numberOfEntries) {
-				leaf = leaf.getRightNode();
-				position = 0;
+
+		private void advance() {
+			next = null;
+			if (remaining <= 0) {
+				leaf = null;
+			}
+			while (leaf != null && cursor == leaf.numberOfEntries) {
+				leaf = getScanLeaf(leaf, true, scan);
+				cursor = 0;
 			}
 			if (leaf == null) {
-				break;
+				return;
 			}
-			O obj = leaf.entries[position++];
-			if(0 >= obj.getKey().compareTo(high) ) {
-				result.add(obj);
-			} else {
-				break;
+			O obj = leaf.entries[cursor++];
+			if (obj.getKey().compareTo(high) > 0) {
+				leaf = null;
+				return;
 			}
+			remaining--;
+			next = obj;
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public O next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			O result = next;
+			advance();
+			return result;
+		}
+
+		public void close() {
+			leaf = null;
+			next = null;
+		}
+
+		public void remove() {
+			throw new RuntimeException("Cannot remove from B+tree during iteration.");
 		}
-		return result;
 	}
 }
@@ -0,0 +1,38 @@
+/*
+ * sk.upjs.gursky.bplustree.BPVisitor.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *     
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *     
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+/**
+ * Callback used by queries, that pass the entries one by one instead of
+ * returning the whole result.
+ * 
+ * @see BPTree#intervalQuery(BPKey, BPKey, BPVisitor)
+ *
+ * @param <O> Entry class passed to the visitor
+ */
+public interface BPVisitor<O> {
+
+	/**
+	 * Is called for every entry of the result in ascending order.
+	 * 
+	 * @param entry entry of the result
+	 * @return true if the query should continue, false to stop the query
+	 */
+	public boolean visit(O entry);
+}
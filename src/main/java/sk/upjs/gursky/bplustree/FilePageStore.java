@@ -0,0 +1,65 @@
+/*
+ * sk.upjs.gursky.bplustree.FilePageStore.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The index file read and written by a {@link FileChannel}. This class is not
+ * public.
+ * 
+ * @see PageStore.Kind#FILE
+ */
+class FilePageStore implements PageStore {
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	FilePageStore(File file, boolean readOnly) throws IOException {
+		raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+		channel = raf.getChannel();
+	}
+
+	public int read(ByteBuffer dst, long position) throws IOException {
+		return channel.read(dst, position);
+	}
+
+	public int write(ByteBuffer src, long position) throws IOException {
+		return channel.write(src, position);
+	}
+
+	public long size() throws IOException {
+		return channel.size();
+	}
+
+	public void setSize(long size) throws IOException {
+		raf.setLength(size);
+	}
+
+	public void sync() throws IOException {
+		channel.force(true);
+	}
+
+	public void close() throws IOException {
+		raf.close();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * sk.upjs.gursky.bplustree.LongBPTree.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.File;
+
+/**
+ * B+tree mapping long keys to long values (e.g. offsets of records) without
+ * boxing. The keys are stored in the pages in 8 bytes and compared as
+ * primitives, the lookups and range scans create no objects. One key can have
+ * more values, the entries are ordered by the key and the value.
+ * 
+ * <pre>
+ * LongBPTree tree = new LongBPTree(new File("index.long"));
+ * tree.openNewFile();
+ * tree.add(42, 4096);
+ * long offset = tree.get(42, -1);
+ * tree.rangeScan(10, 50, (key, value) -&gt; System.out.println(key + " " + value));
+ * tree.close();
+ * </pre>
+ * 
+ * @see PrimitiveBPTree
+ */
+public class LongBPTree extends PrimitiveBPTree {
+
+	/**
+	 * Receives the entries found by a range scan.
+	 */
+	public interface EntryConsumer {
+		void accept(long key, long value);
+	}
+
+	public LongBPTree(File indexFile) {
+		super(indexFile, 8);
+	}
+
+	/**
+	 * Adds the entry, if it is not in the tree.
+	 * 
+	 * @return false if the tree already contains the entry
+	 * @throws RuntimeException if the index file cannot be read or written
+	 */
+	public boolean add(long key, long value) {
+		return insert(key, value);
+	}
+
+	/**
+	 * Removes the entry.
+	 * 
+	 * @return false if the tree does not contain the entry
+	 * @throws RuntimeException if the index file cannot be read or written
+	 */
+	public boolean remove(long key, long value) {
+		return delete(key, value);
+	}
+
+	/**
+	 * Returns the smallest value of the given key.
+	 * 
+	 * @param defaultValue value returned if the tree has no entry with the key
+	 * @throws RuntimeException if the index file cannot be read
+	 */
+	public long get(long key, long defaultValue) {
+		return find(key, defaultValue);
+	}
+
+	/**
+	 * Passes the entries with keys from the interval (including its bounds) to the
+	 * consumer in the order of the keys and values.
+	 * 
+	 * @return number of the entries
+	 * @throws RuntimeException if the index file cannot be read
+	 */
+	public long rangeScan(long low, long high, EntryConsumer consumer) {
+		return scan(low, high, (key, value) -> consumer.accept(key, value));
+	}
+}
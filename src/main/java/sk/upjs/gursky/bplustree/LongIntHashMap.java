@@ -0,0 +1,98 @@
+/*
+ * sk.upjs.gursky.bplustree.LongIntHashMap.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.util.Arrays;
+
+/**
+ * Map of non-negative long keys (offsets of nodes) to int values without boxing,
+ * stored in two arrays by open addressing with linear probing. The table has at
+ * least twice as many places as the maximal number of keys. This class is not
+ * public.
+ */
+class LongIntHashMap {
+	private static final long EMPTY = -1;
+
+	private final long[] keys;
+	private final int[] values;
+	private final int mask;
+
+	/**
+	 * @param capacity maximal number of keys
+	 */
+	LongIntHashMap(int capacity) {
+		int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+		keys = new long[tableSize];
+		Arrays.fill(keys, EMPTY);
+		values = new int[tableSize];
+		mask = tableSize - 1;
+	}
+
+	private int index(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * @return the value of the key, -1 if the key is not in the map
+	 */
+	int get(long key) {
+		for (int i = index(key);; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return values[i];
+			if (keys[i] == EMPTY)
+				return -1;
+		}
+	}
+
+	/**
+	 * Inserts the key, which is not in the map.
+	 */
+	void put(long key, int value) {
+		int i = index(key);
+		while (keys[i] != EMPTY)
+			i = (i + 1) & mask;
+		keys[i] = key;
+		values[i] = value;
+	}
+
+	/**
+	 * Removes the key, which is in the map. The following keys of its cluster are
+	 * shifted back, so no key is separated from its index by an empty place.
+	 */
+	void remove(long key) {
+		int i = index(key);
+		while (keys[i] != key)
+			i = (i + 1) & mask;
+		for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+			int home = index(keys[j]);
+			// the key at j can move to i, if i is between its home and j
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		keys[i] = EMPTY;
+	}
+
+	void clear() {
+		Arrays.fill(keys, EMPTY);
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * sk.upjs.gursky.bplustree.MappedPageStore.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.NonWritableChannelException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The index file mapped to the memory by regions of 64MB, the regions are
+ * mapped when they are accessed for the first time. The pages are copied from
+ * and to the mapped regions without system calls. A region mapped for write
+ * extends the file to its end, the file is cut to the size of the store by
+ * <code>close()</code>. The reads take no lock, the mapped regions are
+ * published by a copied array and every read copies from its own duplicate of
+ * the region, so the concurrent readers do not wait for each other. The writes,
+ * mapping of new regions and changes of the size are serialised by a lock. This
+ * class is not public.
+ * 
+ * @see PageStore.Kind#MAPPED
+ */
+class MappedPageStore implements PageStore {
+	private static final int REGION_BITS = 26;
+	private static final int REGION_SIZE = 1 << REGION_BITS;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final boolean readOnly;
+	private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0]; // replaced, never changed
+	private final ReentrantLock lock = new ReentrantLock();
+	private volatile long size; // the file can be longer by the mapped regions
+
+	MappedPageStore(File file, boolean readOnly) throws IOException {
+		raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+		channel = raf.getChannel();
+		this.readOnly = readOnly;
+		size = raf.length();
+	}
+
+	public int read(ByteBuffer dst, long position) throws IOException {
+		long size = this.size;
+		if (position >= size)
+			return -1;
+		int count = (int) Math.min(dst.remaining(), size - position);
+		copy(dst, position, count, false);
+		return count;
+	}
+
+	public int write(ByteBuffer src, long position) throws IOException {
+		if (readOnly)
+			throw new NonWritableChannelException();
+		lock.lock();
+		try {
+			int count = src.remaining();
+			copy(src, position, count, true);
+			size = Math.max(size, position + count);
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the bytes between the buffer and the mapped regions.
+	 */
+	private void copy(ByteBuffer bb, long position, int count, boolean write) throws IOException {
+		while (count > 0) {
+			ByteBuffer region = region((int) (position >>> REGION_BITS)).duplicate();
+			int start = (int) (position & (REGION_SIZE - 1));
+			int length = Math.min(count, REGION_SIZE - start);
+			region.limit(start + length);
+			region.position(start);
+			if (write) {
+				ByteBuffer part = bb.duplicate();
+				part.limit(part.position() + length);
+				region.put(part);
+				bb.position(bb.position() + length);
+			} else {
+				bb.put(region);
+			}
+			position += length;
+			count -= length;
+		}
+	}
+
+	/**
+	 * Returns the region with the given index, maps it if it is not mapped yet.
+	 */
+	private MappedByteBuffer region(int index) throws IOException {
+		MappedByteBuffer[] mapped = regions;
+		if (index < mapped.length && mapped[index] != null)
+			return mapped[index];
+		lock.lock();
+		try {
+			mapped = regions;
+			if (index < mapped.length && mapped[index] != null)
+				return mapped[index];
+			long start = (long) index << REGION_BITS;
+			MappedByteBuffer region;
+			if (readOnly)
+				region = channel.map(MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+			else
+				region = channel.map(MapMode.READ_WRITE, start, REGION_SIZE);
+			mapped = Arrays.copyOf(mapped, Math.max(mapped.length, index + 1));
+			mapped[index] = region;
+			regions = mapped;
+			return region;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public void setSize(long newSize) throws IOException {
+		if (readOnly)
+			throw new NonWritableChannelException();
+		lock.lock();
+		try {
+			if (newSize < size) {
+				int keep = (int) ((newSize + REGION_SIZE - 1) >>> REGION_BITS);
+				if (regions.length > keep) // the regions after the end are not accessed any more
+					regions = Arrays.copyOf(regions, keep);
+				long end = Math.min(size, (long) keep << REGION_BITS);
+				if (newSize < end) { // the cut part of the last region is zeroed as a grown file
+					ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(end - newSize, 65536));
+					for (long position = newSize; position < end; position += zeros.limit()) {
+						zeros.clear();
+						zeros.limit((int) Math.min(zeros.capacity(), end - position));
+						copy(zeros, position, zeros.remaining(), true);
+					}
+				}
+				if (raf.length() > (long) keep << REGION_BITS)
+					raf.setLength((long) keep << REGION_BITS);
+			}
+			size = newSize;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void sync() throws IOException {
+		lock.lock();
+		try {
+			for (MappedByteBuffer region : regions) {
+				if (region != null)
+					region.force();
+			}
+			channel.force(true);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (!readOnly) {
+				sync();
+				raf.setLength(size);
+			}
+			regions = new MappedByteBuffer[0];
+			raf.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
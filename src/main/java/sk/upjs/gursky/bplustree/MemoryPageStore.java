@@ -0,0 +1,142 @@
+/*
+ * sk.upjs.gursky.bplustree.MemoryPageStore.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pages stored in off-heap memory, in direct buffers of 1MB, so the pages are
+ * not copied when the store grows and the garbage collector does not scan
+ * them. The memory is released by <code>close()</code>. This class is not
+ * public.
+ * 
+ * @see PageStore.Kind#MEMORY
+ */
+class MemoryPageStore implements PageStore {
+	private static final int CHUNK_BITS = 20;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private final ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private long size;
+
+	public int read(ByteBuffer dst, long position) {
+		lock.lock();
+		try {
+			if (position >= size)
+				return -1;
+			int count = (int) Math.min(dst.remaining(), size - position);
+			copy(dst, position, count, false);
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int write(ByteBuffer src, long position) {
+		lock.lock();
+		try {
+			int count = src.remaining();
+			allocate(position + count);
+			copy(src, position, count, true);
+			size = Math.max(size, position + count);
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the bytes between the buffer and the chunks.
+	 */
+	private void copy(ByteBuffer bb, long position, int count, boolean write) {
+		while (count > 0) {
+			ByteBuffer chunk = chunks.get((int) (position >>> CHUNK_BITS)).duplicate();
+			int start = (int) (position & (CHUNK_SIZE - 1));
+			int length = Math.min(count, CHUNK_SIZE - start);
+			chunk.limit(start + length);
+			chunk.position(start);
+			if (write) {
+				ByteBuffer part = bb.duplicate();
+				part.limit(part.position() + length);
+				chunk.put(part);
+				bb.position(bb.position() + length);
+			} else {
+				bb.put(chunk);
+			}
+			position += length;
+			count -= length;
+		}
+	}
+
+	/**
+	 * Allocates the chunks up to the given size, new chunks are zeroed.
+	 */
+	private void allocate(long capacity) {
+		while ((long) chunks.size() << CHUNK_BITS < capacity)
+			chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+	}
+
+	public long size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void setSize(long newSize) {
+		lock.lock();
+		try {
+			if (newSize < size) {
+				int keep = (int) ((newSize + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+				while (chunks.size() > keep)
+					chunks.remove(chunks.size() - 1);
+				int start = (int) (newSize & (CHUNK_SIZE - 1));
+				if (start > 0) { // the cut part of the last chunk is zeroed as a grown file
+					ByteBuffer chunk = chunks.get(keep - 1).duplicate();
+					chunk.position(start);
+					while (chunk.hasRemaining())
+						chunk.put((byte) 0);
+				}
+			} else {
+				allocate(newSize);
+			}
+			size = newSize;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void sync() {
+	}
+
+	public void close() {
+		lock.lock();
+		try {
+			chunks.clear();
+			size = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
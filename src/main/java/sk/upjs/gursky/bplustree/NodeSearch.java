@@ -0,0 +1,158 @@
+/*
+ * sk.upjs.gursky.bplustree.NodeSearch.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.util.Arrays;
+
+/**
+ * Searches of the first key not less than the searched key in the sorted keys
+ * of an inner node or in the sorted entries of a leaf. All the methods return
+ * the number of keys less than the searched key. This class is not public.
+ * 
+ * @see SearchStrategy
+ */
+final class NodeSearch {
+
+	private NodeSearch() {
+	}
+
+	/**
+	 * Branchless binary search, the range is halved by a conditional move and the
+	 * number of steps depends only on <code>size</code>.
+	 */
+	static <K extends BPKey<K>> int branchless(K[] keys, int size, K key) {
+		if (size == 0)
+			return 0;
+		int base = 0;
+		for (int length = size; length > 1; length -= length >>> 1) {
+			int half = length >>> 1;
+			base = keys[base + half].compareTo(key) < 0 ? base + half : base;
+		}
+		return keys[base].compareTo(key) < 0 ? base + 1 : base;
+	}
+
+	/**
+	 * Branchless binary search over the keys of the entries.
+	 */
+	static <K extends BPKey<K>, O extends BPObject<K, O>> int branchlessEntries(O[] entries, int size, K key) {
+		if (size == 0)
+			return 0;
+		int base = 0;
+		for (int length = size; length > 1; length -= length >>> 1) {
+			int half = length >>> 1;
+			base = entries[base + half].getKey().compareTo(key) < 0 ? base + half : base;
+		}
+		return entries[base].getKey().compareTo(key) < 0 ? base + 1 : base;
+	}
+
+	/**
+	 * Interpolation search, the probe is estimated from the numeric values of the
+	 * first and the last key of the range. When the probe does not halve the
+	 * range, the next probe is the middle of the range, so the search takes at
+	 * most twice as many steps as the binary search.
+	 * 
+	 * @param key key implementing {@link BPNumericKey}, as all the keys
+	 */
+	static <K extends BPKey<K>> int interpolation(K[] keys, int size, K key) {
+		double value = ((BPNumericKey<?>) key).getNumericValue();
+		int low = 0, high = size;
+		boolean bisect = false;
+		while (low < high) {
+			int probe = bisect ? (low + high) >>> 1
+					: probe(low, high, value, ((BPNumericKey<?>) keys[low]).getNumericValue(),
+							((BPNumericKey<?>) keys[high - 1]).getNumericValue());
+			int length = high - low;
+			if (keys[probe].compareTo(key) < 0)
+				low = probe + 1;
+			else
+				high = probe;
+			bisect = !bisect && (high - low) * 2 > length;
+		}
+		return low;
+	}
+
+	/**
+	 * Interpolation search over the keys of the entries.
+	 */
+	static <K extends BPKey<K>, O extends BPObject<K, O>> int interpolationEntries(O[] entries, int size, K key) {
+		double value = ((BPNumericKey<?>) key).getNumericValue();
+		int low = 0, high = size;
+		boolean bisect = false;
+		while (low < high) {
+			int probe = bisect ? (low + high) >>> 1
+					: probe(low, high, value, ((BPNumericKey<?>) entries[low].getKey()).getNumericValue(),
+							((BPNumericKey<?>) entries[high - 1].getKey()).getNumericValue());
+			int length = high - low;
+			if (entries[probe].getKey().compareTo(key) < 0)
+				low = probe + 1;
+			else
+				high = probe;
+			bisect = !bisect && (high - low) * 2 > length;
+		}
+		return low;
+	}
+
+	private static int probe(int low, int high, double value, double first, double last) {
+		if (value <= first)
+			return low;
+		if (value > last)
+			return high - 1;
+		int probe = low + (int) ((value - first) / (last - first) * (high - 1 - low));
+		return Math.max(low, Math.min(high - 1, probe));
+	}
+
+	/**
+	 * Keys of an inner node in the Eytzinger (breadth-first) order of the implicit
+	 * binary search tree. The layout is immutable, it is built for the nodes of a
+	 * tree opened for read, which never change.
+	 */
+	static final class Eytzinger<K extends BPKey<K>> {
+		private final K[] keys; // keys[1..size], the children of keys[i] are keys[2i] and keys[2i+1]
+		private final int[] positions; // position of keys[i] in the node
+
+		Eytzinger(K[] sorted, int size) {
+			keys = Arrays.copyOf(sorted, size + 1);
+			positions = new int[size + 1];
+			fill(sorted, 0, 1);
+		}
+
+		private int fill(K[] sorted, int position, int i) {
+			if (i < keys.length) {
+				position = fill(sorted, position, 2 * i);
+				keys[i] = sorted[position];
+				positions[i] = position++;
+				position = fill(sorted, position, 2 * i + 1);
+			}
+			return position;
+		}
+
+		/**
+		 * @return the number of keys less than the given key
+		 */
+		int search(K key) {
+			int size = keys.length - 1;
+			int i = 1;
+			while (i <= size) {
+				i = 2 * i + (keys[i].compareTo(key) < 0 ? 1 : 0);
+			}
+			i >>>= Integer.numberOfTrailingZeros(~i) + 1; // the last step to the left
+			return i == 0 ? size : positions[i];
+		}
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ * sk.upjs.gursky.bplustree.NodeSizeAdvisor.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Recommends the node size of a {@link BPTree} for the given entries and
+ * workload. Every candidate node size is measured on a tree built in memory
+ * from a sample of the entries, which gives the CPU time of a point lookup and
+ * of one scanned entry (the fastest of three runs). The lookup time is scaled
+ * by the levels of the full tree. The reads of the index file are predicted
+ * from the height of the full tree, the levels kept in the cache and the cost
+ * of reading one node. The recommended node size has the least expected time
+ * of one query of the workload.
+ * 
+ * <pre>
+ * NodeSizeAdvisor&lt;BPKeyInt, BPObjectIntDouble&gt; advisor = new NodeSizeAdvisor&lt;BPKeyInt, BPObjectIntDouble&gt;(
+ * 		BPObjectIntDouble.class);
+ * advisor.setWorkload(0.9, 1000); // 90% point lookups, ranges of 1000 entries
+ * for (NodeSizeAdvisor.Option option : advisor.advise(sample, 100000000))
+ * 	System.out.println(option);
+ * tree.setNodeSize(advisor.recommend(sample, 100000000));
+ * </pre>
+ * 
+ * @param <K> Key class used in inner nodes
+ * @param <O> Entry class used in leaf nodes
+ */
+public class NodeSizeAdvisor<K extends BPKey<K>, O extends BPObject<K, O>> {
+	public static final int[] DEFAULT_NODE_SIZES = { 1024, 2048, 4096, 8192, 16384, 32768, 65536 };
+	private static final int LOOKUPS = 10000; // maximal number of measured lookups
+	private static final int RUNS = 3; // the fastest of the runs is taken, the first ones warm up the code
+
+	private final Class<O> classO;
+	private int[] nodeSizes = DEFAULT_NODE_SIZES;
+	private double pointFraction = 1; // part of the queries which are point lookups
+	private long rangeLength = 100; // average number of entries returned by a range query
+	private double readLatency = 100; // microseconds per one read of a node
+	private double bandwidth = 500; // MB per second read from the index file
+	private long cacheMemory; // bytes of the nodes kept in the cache
+
+	public NodeSizeAdvisor(Class<O> classO) {
+		this.classO = classO;
+	}
+
+	/**
+	 * Sets the candidate node sizes. Default are the powers of two from 1 KB to 64
+	 * KB. The sizes too small for two entries are skipped.
+	 */
+	public void setNodeSizes(int... nodeSizes) {
+		if (nodeSizes.length == 0) {
+			throw new IllegalArgumentException("At least one node size is needed.");
+		}
+		this.nodeSizes = nodeSizes.clone();
+	}
+
+	/**
+	 * Sets the mix of the queries. Default are point lookups only.
+	 * 
+	 * @param pointFraction part of the queries which are point lookups, the rest
+	 *                      are range queries, from [0, 1]
+	 * @param rangeLength   average number of entries returned by a range query
+	 */
+	public void setWorkload(double pointFraction, long rangeLength) {
+		if (pointFraction < 0 || pointFraction > 1 || rangeLength < 0) {
+			throw new IllegalArgumentException("pointFraction must be from [0, 1] and rangeLength not negative");
+		}
+		this.pointFraction = pointFraction;
+		this.rangeLength = rangeLength;
+	}
+
+	/**
+	 * Sets the cost of reading one node from the index file. Default is 100 us and
+	 * 500 MB/s, i.e. a random read of an SSD.
+	 * 
+	 * @param readLatency microseconds of one read
+	 * @param bandwidth   MB per second
+	 */
+	public void setIoCost(double readLatency, double bandwidth) {
+		if (readLatency < 0 || bandwidth <= 0) {
+			throw new IllegalArgumentException("readLatency must not be negative and bandwidth must be positive");
+		}
+		this.readLatency = readLatency;
+		this.bandwidth = bandwidth;
+	}
+
+	/**
+	 * Sets the memory of the cache of the tree. The levels from the root down,
+	 * which fit in the cache, are not read from the index file. The root is always
+	 * in memory. Default is 0.
+	 * 
+	 * @param cacheMemory bytes of the cached nodes, i.e. the cache capacity times
+	 *                    the node size
+	 */
+	public void setCacheMemory(long cacheMemory) {
+		this.cacheMemory = cacheMemory;
+	}
+
+	/**
+	 * Measures all the candidate node sizes.
+	 * 
+	 * @param sample          entries of the index, at most 10 000 of them are
+	 *                        looked up
+	 * @param numberOfEntries number of entries of the full index
+	 * @return the options ordered by their expected time of one query, the best
+	 *         first
+	 * @throws IOException
+	 */
+	public List<Option> advise(Collection<O> sample, long numberOfEntries) throws IOException {
+		if (sample.isEmpty()) {
+			throw new IllegalArgumentException("The sample must not be empty.");
+		}
+		List<O> sorted = new ArrayList<O>(sample);
+		Collections.sort(sorted);
+		List<O> entries = new ArrayList<O>(sorted.size());
+		for (O entry : sorted) {
+			if (entries.isEmpty() || entries.get(entries.size() - 1).compareTo(entry) != 0)
+				entries.add(entry);
+		}
+		List<K> keys = new ArrayList<K>();
+		for (O entry : entries) {
+			keys.add(entry.getKey());
+		}
+		Collections.shuffle(keys, new Random(1));
+		if (keys.size() > LOOKUPS)
+			keys = keys.subList(0, LOOKUPS);
+
+		List<Option> options = new ArrayList<Option>();
+		for (int nodeSize : nodeSizes) {
+			BPTree<K, O> tree = new BPTree<K, O>(classO, new File(System.getProperty("java.io.tmpdir"), "advisor.idx"));
+			tree.setNodeSize(nodeSize);
+			if (tree.leafCapacity < 2 || tree.internalNodeCapacity < 2)
+				continue;
+			tree.setPageStore(PageStore.Kind.MEMORY);
+			tree.setCacheCapacity(2 * entries.size() / tree.leafCapacity + 16); // all the nodes are in the cache
+			tree.openAndBatchUpdate(entries.iterator(), entries.size());
+			double[] cpu = measure(tree, keys);
+			for (int run = 1; run < RUNS; run++) {
+				double[] again = measure(tree, keys);
+				cpu[0] = Math.min(cpu[0], again[0]);
+				cpu[1] = Math.min(cpu[1], again[1]);
+			}
+			options.add(predict(tree, numberOfEntries, cpu[0], cpu[1]));
+			tree.close();
+		}
+		if (options.isEmpty()) {
+			throw new IllegalArgumentException("No node size can hold two entries of " + classO);
+		}
+		options.sort(Comparator.comparingDouble(Option::getCost));
+		return options;
+	}
+
+	/**
+	 * @return the node size of the best option of <code>advise</code>
+	 * @throws IOException
+	 */
+	public int recommend(Collection<O> sample, long numberOfEntries) throws IOException {
+		return advise(sample, numberOfEntries).get(0).getNodeSize();
+	}
+
+	/**
+	 * @return nanoseconds of one lookup and of one scanned entry
+	 */
+	private double[] measure(BPTree<K, O> tree, List<K> keys) {
+		long time = System.nanoTime();
+		for (K key : keys) {
+			tree.get(key);
+		}
+		double lookup = (double) (System.nanoTime() - time) / keys.size();
+		time = System.nanoTime();
+		int count = 0;
+		for (Iterator<O> it = tree.iterator(); it.hasNext(); it.next()) {
+			count++;
+		}
+		double scan = (double) (System.nanoTime() - time) / Math.max(1, count);
+		return new double[] { lookup, scan };
+	}
+
+	/**
+	 * Predicts the shape of the full tree with the node size of the given tree.
+	 * The lookup time measured on the given tree is scaled by the number of the
+	 * levels of the full tree.
+	 */
+	private Option predict(BPTree<K, O> tree, long numberOfEntries, double pointTime, double scanTime) {
+		int nodeSize = tree.nodeSize;
+		int leafCapacity = tree.leafCapacity;
+		int fanout = tree.internalNodeCapacity + 1;
+		List<Long> levels = new ArrayList<Long>(); // number of nodes in the levels from the leafs up
+		long nodes = Math.max(1, (numberOfEntries + leafCapacity - 1) / leafCapacity);
+		levels.add(nodes);
+		while (nodes > 1) {
+			nodes = (nodes + fanout - 1) / fanout;
+			levels.add(nodes);
+		}
+		pointTime = pointTime * levels.size() / (tree.getTreeHeight() + 1);
+		int cachedLevels = 1; // the root
+		long memory = 0;
+		while (cachedLevels < levels.size()) {
+			memory += levels.get(levels.size() - 1 - cachedLevels) * nodeSize;
+			if (memory > cacheMemory)
+				break;
+			cachedLevels++;
+		}
+		double pointReads = levels.size() - cachedLevels;
+		double rangeReads = pointReads + (cachedLevels < levels.size() ? (double) rangeLength / leafCapacity : 0);
+		double readTime = readLatency + nodeSize / bandwidth; // microseconds, 1 MB/s is 1 byte per microsecond
+		double cost = pointFraction * (pointReads * readTime + pointTime / 1000)
+				+ (1 - pointFraction) * (rangeReads * readTime + (pointTime + rangeLength * scanTime) / 1000);
+		return new Option(nodeSize, leafCapacity, fanout, levels.size() - 1, pointReads, rangeReads, pointTime,
+				scanTime, cost);
+	}
+
+	/**
+	 * Predicted shape and measured costs of the tree with one node size.
+	 */
+	public static class Option {
+		private final int nodeSize;
+		private final int leafCapacity;
+		private final int fanout;
+		private final int treeHeight;
+		private final double pointReads;
+		private final double rangeReads;
+		private final double pointTime;
+		private final double scanTime;
+		private final double cost;
+
+		private Option(int nodeSize, int leafCapacity, int fanout, int treeHeight, double pointReads,
+				double rangeReads, double pointTime, double scanTime, double cost) {
+			this.nodeSize = nodeSize;
+			this.leafCapacity = leafCapacity;
+			this.fanout = fanout;
+			this.treeHeight = treeHeight;
+			this.pointReads = pointReads;
+			this.rangeReads = rangeReads;
+			this.pointTime = pointTime;
+			this.scanTime = scanTime;
+			this.cost = cost;
+		}
+
+		public int getNodeSize() {
+			return nodeSize;
+		}
+
+		/**
+		 * @return maximal number of entries in a leaf
+		 */
+		public int getLeafCapacity() {
+			return leafCapacity;
+		}
+
+		/**
+		 * @return maximal number of children of an inner node
+		 */
+		public int getFanout() {
+			return fanout;
+		}
+
+		/**
+		 * @return predicted height of the full tree, 0 for the root leaf as by
+		 *         {@link BPTree#getTreeHeight()}
+		 */
+		public int getTreeHeight() {
+			return treeHeight;
+		}
+
+		/**
+		 * @return predicted number of nodes read from the index file by a point
+		 *         lookup
+		 */
+		public double getPointReads() {
+			return pointReads;
+		}
+
+		/**
+		 * @return predicted number of nodes read from the index file by a range query
+		 */
+		public double getRangeReads() {
+			return rangeReads;
+		}
+
+		/**
+		 * @return nanoseconds of CPU of one lookup in the full tree, measured on the
+		 *         sample and scaled by the levels
+		 */
+		public double getPointTime() {
+			return pointTime;
+		}
+
+		/**
+		 * @return measured nanoseconds of CPU of one scanned entry
+		 */
+		public double getScanTime() {
+			return scanTime;
+		}
+
+		/**
+		 * @return expected microseconds of one query of the workload
+		 */
+		public double getCost() {
+			return cost;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"node %5d B: fanout %5d, leaf %5d, height %d, reads %.1f point / %.1f range, cpu %.0f ns lookup / %.1f ns entry, %.1f us/query",
+					nodeSize, fanout, leafCapacity, treeHeight, pointReads, rangeReads, pointTime, scanTime, cost);
+		}
+	}
+}
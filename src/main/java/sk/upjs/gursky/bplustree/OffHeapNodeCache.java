@@ -0,0 +1,169 @@
+/*
+ * sk.upjs.gursky.bplustree.OffHeapNodeCache.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The second level of the cache of the {@link BPTree}. The nodes removed from
+ * the cache of objects are kept in off-heap memory in the layout of the index
+ * file, so a node missing in the cache of objects is created from the memory
+ * instead of reading it from the disk. The images are stored in slots of direct
+ * buffers allocated by slabs of 64MB and the heap holds only arrays indexing the
+ * slots by the offsets of the nodes, so the garbage collector does not scan the
+ * entries of the cached nodes. When the cache is full, the slot is replaced by
+ * the clock algorithm. This class is not public.
+ * 
+ * @see BPTree#setOffHeapCacheCapacity(int)
+ */
+class OffHeapNodeCache {
+	private static final int SLAB_SIZE = 1 << 26;
+	private static final long EMPTY = -1;
+
+	private final int nodeSize;
+	private final int capacity; // number of slots
+	private final int slotsPerSlab;
+	private final ByteBuffer[] slabs; // allocated when the first slot is used
+	private final long[] slotOffsets; // offset of the node in the slot, EMPTY for a free slot
+	private final BitSet referenced = new BitSet(); // slots read since the clock hand passed them
+	private final LongIntHashMap slots; // slots by the offsets
+	private final ReentrantLock lock = new ReentrantLock();
+	private int used; // number of used slots
+	private int hand; // clock hand, the next slot to replace
+	private long countHits;
+
+	OffHeapNodeCache(int nodeSize, int capacity) {
+		this.nodeSize = nodeSize;
+		this.capacity = capacity;
+		slotsPerSlab = Math.max(1, SLAB_SIZE / nodeSize);
+		slabs = new ByteBuffer[(capacity + slotsPerSlab - 1) / slotsPerSlab];
+		slotOffsets = new long[capacity];
+		Arrays.fill(slotOffsets, EMPTY);
+		slots = new LongIntHashMap(capacity);
+	}
+
+	/**
+	 * Copies the image of the node with given offset to the buffer.
+	 * 
+	 * @return false if the node is not in the cache
+	 */
+	boolean get(long offset, ByteBuffer bb) {
+		lock.lock();
+		try {
+			int slot = slots.get(offset);
+			if (slot < 0)
+				return false;
+			referenced.set(slot);
+			bb.put(slot(slot));
+			bb.rewind();
+			countHits++;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	boolean contains(long offset) {
+		lock.lock();
+		try {
+			return slots.get(offset) >= 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stores the image of the node, the image of the same node is replaced.
+	 */
+	<K extends BPKey<K>, O extends BPObject<K, O>> void put(BPNode<K, O> node) {
+		lock.lock();
+		try {
+			int slot = slots.get(node.offset);
+			if (slot < 0) {
+				slot = freeSlot();
+				slotOffsets[slot] = node.offset;
+				slots.put(node.offset, slot);
+			}
+			node.save(slot(slot));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forgets the node, used when the node is freed.
+	 */
+	void remove(long offset) {
+		lock.lock();
+		try {
+			int slot = slots.get(offset);
+			if (slot >= 0) {
+				slots.remove(offset);
+				slotOffsets[slot] = EMPTY;
+				referenced.clear(slot);
+				used--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getCountHits() {
+		return countHits;
+	}
+
+	/**
+	 * Returns the buffer of the slot positioned at its beginning.
+	 */
+	private ByteBuffer slot(int slot) {
+		int slab = slot / slotsPerSlab;
+		if (slabs[slab] == null)
+			slabs[slab] = ByteBuffer.allocateDirect(Math.min(slotsPerSlab, capacity - slab * slotsPerSlab) * nodeSize);
+		ByteBuffer bb = slabs[slab].duplicate();
+		int start = (slot % slotsPerSlab) * nodeSize;
+		bb.limit(start + nodeSize);
+		bb.position(start);
+		return bb;
+	}
+
+	/**
+	 * Returns a free slot, if all the slots are used, the first slot not read
+	 * since the last pass of the clock hand is freed.
+	 */
+	private int freeSlot() {
+		if (used < capacity) {
+			while (slotOffsets[hand] != EMPTY)
+				hand = (hand + 1) % capacity;
+		} else {
+			while (referenced.get(hand)) {
+				referenced.clear(hand);
+				hand = (hand + 1) % capacity;
+			}
+			slots.remove(slotOffsets[hand]);
+			used--;
+		}
+		int slot = hand;
+		hand = (hand + 1) % capacity;
+		used++;
+		return slot;
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * sk.upjs.gursky.bplustree.PageCache.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Cache of the pages of the {@link PrimitiveBPTree}. The pages are kept in
+ * slots of direct buffers allocated by slabs of 64MB and the nodes are read and
+ * changed directly in them, the slots are indexed by the offsets of the pages
+ * without boxing. When the cache is full, the slot is replaced by the clock
+ * algorithm and a changed page is written to the store. The pages returned
+ * since the last <code>release()</code> are pinned, they are not replaced, so
+ * the cache has to grow with the number of the pages pinned by one change. This
+ * class is not public and it is not thread-safe.
+ */
+class PageCache {
+	private static final int SLAB_SIZE = 1 << 26;
+	private static final long EMPTY = -1;
+
+	private final PageStore store;
+	private final int nodeSize;
+	private int capacity; // number of slots
+	private final int slotsPerSlab;
+	private ByteBuffer[] pages; // views of the slots, created with their slab
+	private long[] slotOffsets; // offset of the page in the slot, EMPTY for a free slot
+	private final BitSet referenced = new BitSet(); // slots used since the clock hand passed them
+	private final BitSet changed = new BitSet();
+	private final BitSet pinned = new BitSet();
+	private LongIntHashMap slots; // slots by the offsets
+	private int used; // number of used slots
+	private int hand; // clock hand, the next slot to replace
+	private long countIOs;
+	private long countWrites;
+
+	PageCache(PageStore store, int nodeSize, int capacity) {
+		this.store = store;
+		this.nodeSize = nodeSize;
+		this.capacity = capacity;
+		slotsPerSlab = Math.max(1, SLAB_SIZE / nodeSize);
+		pages = new ByteBuffer[capacity];
+		slotOffsets = new long[capacity];
+		Arrays.fill(slotOffsets, EMPTY);
+		slots = new LongIntHashMap(capacity);
+	}
+
+	/**
+	 * Returns the page with given offset, reads it from the store if it is not in
+	 * the cache. The page is pinned until <code>release()</code>.
+	 */
+	ByteBuffer page(long offset) throws IOException {
+		int slot = slots.get(offset);
+		if (slot < 0) {
+			slot = freeSlot();
+			ByteBuffer bb = view(slot).duplicate();
+			bb.clear();
+			store.readPage(bb, offset);
+			while (bb.hasRemaining()) // after the end of the store
+				bb.put((byte) 0);
+			countIOs++;
+			slotOffsets[slot] = offset;
+			slots.put(offset, slot);
+		}
+		referenced.set(slot);
+		pinned.set(slot);
+		return pages[slot];
+	}
+
+	/**
+	 * Returns a new zeroed page with given offset, which is not read from the
+	 * store. The page is changed and pinned until <code>release()</code>.
+	 */
+	ByteBuffer create(long offset) throws IOException {
+		int slot = freeSlot();
+		ByteBuffer bb = view(slot);
+		int i = 0;
+		for (; i + 8 <= nodeSize; i += 8)
+			bb.putLong(i, 0);
+		for (; i < nodeSize; i++)
+			bb.put(i, (byte) 0);
+		slotOffsets[slot] = offset;
+		slots.put(offset, slot);
+		referenced.set(slot);
+		pinned.set(slot);
+		changed.set(slot);
+		return bb;
+	}
+
+	/**
+	 * Adds the slots, if the cache has less than the given number of slots.
+	 */
+	void ensureCapacity(int minCapacity) {
+		if (minCapacity <= capacity)
+			return;
+		pages = Arrays.copyOf(pages, minCapacity);
+		slotOffsets = Arrays.copyOf(slotOffsets, minCapacity);
+		Arrays.fill(slotOffsets, capacity, minCapacity, EMPTY);
+		slots = new LongIntHashMap(minCapacity);
+		for (int slot = 0; slot < capacity; slot++) {
+			if (slotOffsets[slot] != EMPTY)
+				slots.put(slotOffsets[slot], slot);
+		}
+		capacity = minCapacity;
+	}
+
+	/**
+	 * Marks the page, which is in the cache, as changed.
+	 */
+	void changed(long offset) {
+		changed.set(slots.get(offset));
+	}
+
+	/**
+	 * Unpins all the pages, they can be replaced.
+	 */
+	void release() {
+		pinned.clear();
+	}
+
+	/**
+	 * Writes the changed pages to the store in the order of their offsets.
+	 */
+	void flush() throws IOException {
+		long[] offsets = new long[changed.cardinality()];
+		int count = 0;
+		for (int slot = changed.nextSetBit(0); slot >= 0; slot = changed.nextSetBit(slot + 1))
+			offsets[count++] = slotOffsets[slot];
+		Arrays.sort(offsets);
+		for (long offset : offsets)
+			write(slots.get(offset));
+	}
+
+	long getCountIOs() {
+		return countIOs;
+	}
+
+	long getCountWrites() {
+		return countWrites;
+	}
+
+	private ByteBuffer view(int slot) {
+		if (pages[slot] == null) {
+			// the slab of a grown cache can have the views of its first slots already
+			int slabStart = slot - slot % slotsPerSlab;
+			int first = slot;
+			while (first > slabStart && pages[first - 1] == null)
+				first--;
+			int size = Math.min(slabStart + slotsPerSlab, capacity) - first;
+			ByteBuffer slab = ByteBuffer.allocateDirect(size * nodeSize);
+			for (int i = 0; i < size; i++) {
+				ByteBuffer bb = slab.duplicate();
+				bb.limit((i + 1) * nodeSize);
+				bb.position(i * nodeSize);
+				pages[first + i] = bb.slice();
+			}
+		}
+		return pages[slot];
+	}
+
+	private void write(int slot) throws IOException {
+		ByteBuffer bb = pages[slot].duplicate();
+		bb.clear();
+		store.writePage(bb, slotOffsets[slot]);
+		changed.clear(slot);
+		countWrites++;
+	}
+
+	/**
+	 * Returns a free slot, if all the slots are used, the first slot, which is not
+	 * pinned and has not been used since the last pass of the clock hand, is
+	 * freed.
+	 */
+	private int freeSlot() throws IOException {
+		if (used < capacity) {
+			while (slotOffsets[hand] != EMPTY)
+				hand = (hand + 1) % capacity;
+		} else {
+			int steps = 0;
+			while (referenced.get(hand) || pinned.get(hand)) {
+				referenced.clear(hand);
+				hand = (hand + 1) % capacity;
+				if (++steps > 2 * capacity)
+					throw new RuntimeException("All the pages in the cache are pinned, the cache capacity is too small.");
+			}
+			if (changed.get(hand))
+				write(hand);
+			slots.remove(slotOffsets[hand]);
+			slotOffsets[hand] = EMPTY;
+			used--;
+		}
+		int slot = hand;
+		hand = (hand + 1) % capacity;
+		used++;
+		return slot;
+	}
+}
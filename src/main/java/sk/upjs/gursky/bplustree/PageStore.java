@@ -0,0 +1,130 @@
+/*
+ * sk.upjs.gursky.bplustree.PageStore.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Storage of the pages of the {@link BPTree}. The tree reads and writes its
+ * nodes, the superblock and the bitmap of free nodes by positional reads and
+ * writes with the semantics of {@link java.nio.channels.FileChannel}, so any
+ * store can be used with the same tree. The free nodes are allocated by the
+ * tree from its bitmap, the store only grows by the writes and is cut by
+ * <code>setSize()</code>.
+ * 
+ * The reads and writes can be called concurrently from more threads.
+ * 
+ * @see BPTree#setPageStore(Kind)
+ */
+public interface PageStore extends Closeable {
+
+	/**
+	 * Kinds of the stores.
+	 */
+	enum Kind {
+		/**
+		 * The index file read and written by a {@link java.nio.channels.FileChannel}.
+		 */
+		FILE,
+		/**
+		 * The index file mapped to the memory.
+		 */
+		MAPPED,
+		/**
+		 * Off-heap memory only, the index file is not used and the index is lost by
+		 * <code>close()</code>, so it is suitable for temporary indexes.
+		 */
+		MEMORY
+	}
+
+	/**
+	 * Opens the store of given kind. The files are created if they do not exist
+	 * and are opened for write.
+	 * 
+	 * @param kind     kind of the store
+	 * @param file     index file, not used by the memory store
+	 * @param readOnly true if the store is opened for read only
+	 * @return opened store
+	 * @throws IOException
+	 */
+	static PageStore open(Kind kind, File file, boolean readOnly) throws IOException {
+		switch (kind) {
+		case MAPPED:
+			return new MappedPageStore(file, readOnly);
+		case MEMORY:
+			return new MemoryPageStore();
+		default:
+			return new FilePageStore(file, readOnly);
+		}
+	}
+
+	/**
+	 * Reads the bytes from the given position to the remaining part of the
+	 * buffer.
+	 * 
+	 * @return the number of bytes read, -1 if the position is at the end of the
+	 *         store
+	 */
+	int read(ByteBuffer dst, long position) throws IOException;
+
+	/**
+	 * Writes the remaining part of the buffer to the given position, the store
+	 * grows if the position is after its end.
+	 * 
+	 * @return the number of bytes written
+	 */
+	int write(ByteBuffer src, long position) throws IOException;
+
+	/**
+	 * Reads one page, the buffer is filled from the position to its limit unless
+	 * the end of the store is reached.
+	 */
+	default void readPage(ByteBuffer dst, long offset) throws IOException {
+		int start = dst.position();
+		while (dst.hasRemaining() && read(dst, offset + dst.position() - start) > 0)
+			;
+	}
+
+	/**
+	 * Writes one page, the whole remaining part of the buffer.
+	 */
+	default void writePage(ByteBuffer src, long offset) throws IOException {
+		int start = src.position();
+		while (src.hasRemaining())
+			write(src, offset + src.position() - start);
+	}
+
+	/**
+	 * Returns the size of the store in bytes.
+	 */
+	long size() throws IOException;
+
+	/**
+	 * Sets the size of the store like {@link java.io.RandomAccessFile#setLength(long)}.
+	 */
+	void setSize(long size) throws IOException;
+
+	/**
+	 * Forces the written pages to the disk.
+	 */
+	void sync() throws IOException;
+}
@@ -0,0 +1,591 @@
+/*
+ * sk.upjs.gursky.bplustree.PrimitiveBPTree.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * B+tree with primitive keys of 4 or 8 bytes and long values, the base of
+ * {@link IntBPTree} and {@link LongBPTree}. The nodes are not objects, they are
+ * read and changed directly in the pages of the {@link PageCache}, so the keys
+ * are compared as primitives in the layout of the index file and no key or
+ * entry object is created. The entries are ordered by the key and the value,
+ * so one key can have more values.
+ * 
+ * A leaf stores its type (1 byte), number of entries (4 bytes), offset of the
+ * right leaf (8 bytes), then the array of keys and the array of values. An
+ * inner node stores its type, number of separators, the arrays of the keys and
+ * values of the separators and the array of the offsets of the children. The
+ * separator is the first entry of the child on its right. The first page of the
+ * index file is the superblock.
+ * 
+ * Removing does not rebalance the nodes, the emptied leafs stay in the tree
+ * like by the lazy rebalancing of {@link BPTree}. This class is not public and
+ * the trees are not thread-safe.
+ */
+abstract class PrimitiveBPTree {
+	private static final int MAGIC = 0x42505450; // "BPTP" at the beginning of the superblock
+	private static final int VERSION = 1;
+	private static final byte INNER = 1;
+	private static final byte LEAF = 2;
+	private static final int INNER_HEADER = 5; // type and number of separators
+	private static final int LEAF_HEADER = 13; // type, number of entries and the right leaf
+	private static final int SUPERBLOCK_SIZE = 44;
+	private static final int MIN_CACHE_CAPACITY = 16;
+
+	/**
+	 * Receives the entries found by a range scan.
+	 */
+	interface EntryConsumer {
+		void accept(long key, long value);
+	}
+
+	private final int keySize;
+	private final File indexFile;
+	private int nodeSize = 4096;
+	private int cacheCapacity = 64;
+	private PageStore.Kind storeKind = PageStore.Kind.FILE;
+	private PageStore store;
+	private PageCache cache;
+	private boolean opened;
+	private int leafCapacity;
+	private int innerCapacity;
+	private int valuesOffset; // position of the values in a leaf
+	private int separatorValuesOffset; // position of the values of the separators in an inner node
+	private int childrenOffset; // position of the children in an inner node
+	private long rootOffset;
+	private int treeHeight;
+	private long numberOfEntries;
+	private long lastOffset;
+	private long splitKey, splitValue, splitOffset; // separator and new node created by the last split
+
+	PrimitiveBPTree(File indexFile, int keySize) {
+		this.indexFile = indexFile;
+		this.keySize = keySize;
+	}
+
+	/**
+	 * Changes the size of one node in bytes. Default is 4096.
+	 * 
+	 * @param nodeSize new node size
+	 */
+	public void setNodeSize(int nodeSize) {
+		if (opened) {
+			throw new RuntimeException("Cannot change nodeSize over opened tree.");
+		}
+		if ((nodeSize - LEAF_HEADER) / (keySize + 16) < 3) {
+			throw new IllegalArgumentException("nodeSize is too small");
+		}
+		this.nodeSize = nodeSize;
+	}
+
+	/**
+	 * Changes the number of pages in the cache. Default is 64, the minimum is 16.
+	 * The cache grows, if one change of a high tree pins more pages.
+	 * 
+	 * @param cacheCapacity new cache capacity
+	 */
+	public void setCacheCapacity(int cacheCapacity) {
+		if (opened) {
+			throw new RuntimeException("Cannot change cacheCapacity over opened tree.");
+		}
+		this.cacheCapacity = Math.max(MIN_CACHE_CAPACITY, cacheCapacity);
+	}
+
+	/**
+	 * Sets the store of the pages of the tree.
+	 * 
+	 * @see BPTree#setPageStore(PageStore.Kind)
+	 */
+	public void setPageStore(PageStore.Kind storeKind) {
+		if (opened) {
+			throw new RuntimeException("Cannot change the page store over opened tree.");
+		}
+		this.storeKind = storeKind;
+	}
+
+	/**
+	 * Opens a new index file, if the file exists, it is reduced to zero size.
+	 * 
+	 * @throws IOException
+	 */
+	public void openNewFile() throws IOException {
+		store = PageStore.open(storeKind, indexFile, false);
+		store.setSize(0);
+		computeCapacities();
+		cache = new PageCache(store, nodeSize, cacheCapacity);
+		lastOffset = nodeSize; // the first page is the superblock
+		numberOfEntries = 0;
+		treeHeight = 0;
+		rootOffset = newPage(LEAF);
+		cache.release();
+		opened = true;
+	}
+
+	/**
+	 * Opens the index file created by the tree with the same size of keys. The
+	 * tree is described by the superblock of the file.
+	 * 
+	 * @throws IOException
+	 */
+	public void open() throws IOException {
+		if (storeKind == PageStore.Kind.MEMORY)
+			throw new IOException("The index in memory is lost by close(), it can only be created again.");
+		store = PageStore.open(storeKind, indexFile, false);
+		ByteBuffer bb = ByteBuffer.allocate(SUPERBLOCK_SIZE);
+		store.readPage(bb, 0);
+		bb.flip();
+		if (bb.remaining() < SUPERBLOCK_SIZE || bb.getInt() != MAGIC) {
+			store.close();
+			throw new IOException("The file " + indexFile + " is not an index of a primitive tree.");
+		}
+		int version = bb.getInt();
+		nodeSize = bb.getInt();
+		int size = bb.getInt();
+		if (version != VERSION || size != keySize) {
+			store.close();
+			throw new IOException("The index file " + indexFile + " has version " + version + " and keys of " + size
+					+ " bytes.");
+		}
+		rootOffset = bb.getLong();
+		treeHeight = bb.getInt();
+		numberOfEntries = bb.getLong();
+		lastOffset = bb.getLong();
+		computeCapacities();
+		cache = new PageCache(store, nodeSize, cacheCapacity);
+		opened = true;
+	}
+
+	/**
+	 * Writes the changed pages and the superblock to the index file and forces it
+	 * to the disk.
+	 * 
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		cache.flush();
+		ByteBuffer bb = ByteBuffer.allocate(nodeSize);
+		bb.putInt(MAGIC);
+		bb.putInt(VERSION);
+		bb.putInt(nodeSize);
+		bb.putInt(keySize);
+		bb.putLong(rootOffset);
+		bb.putInt(treeHeight);
+		bb.putLong(numberOfEntries);
+		bb.putLong(lastOffset);
+		bb.clear();
+		store.writePage(bb, 0);
+		store.sync();
+	}
+
+	/**
+	 * Stores the changed pages and the superblock and closes the index file.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (!opened)
+			return;
+		if (storeKind != PageStore.Kind.MEMORY)
+			checkpoint();
+		opened = false;
+		store.close();
+		store = null;
+		cache = null;
+	}
+
+	public long getNumberOfEntries() {
+		return numberOfEntries;
+	}
+
+	public int getTreeHeight() {
+		return treeHeight;
+	}
+
+	/**
+	 * Returns the number of pages read from the index file since the tree has been
+	 * opened.
+	 */
+	public long getCountIOs() {
+		return opened ? cache.getCountIOs() : 0;
+	}
+
+	private void computeCapacities() {
+		leafCapacity = (nodeSize - LEAF_HEADER) / (keySize + 8);
+		innerCapacity = (nodeSize - INNER_HEADER - 8) / (keySize + 16);
+		valuesOffset = LEAF_HEADER + leafCapacity * keySize;
+		separatorValuesOffset = INNER_HEADER + innerCapacity * keySize;
+		childrenOffset = separatorValuesOffset + innerCapacity * 8;
+	}
+
+	// the layout of the nodes
+
+	private long key(ByteBuffer page, int position) {
+		return keySize == 4 ? page.getInt(position) : page.getLong(position);
+	}
+
+	private void putKey(ByteBuffer page, int position, long key) {
+		if (keySize == 4)
+			page.putInt(position, (int) key);
+		else
+			page.putLong(position, key);
+	}
+
+	private static int count(ByteBuffer page) {
+		return page.getInt(1);
+	}
+
+	private long leafKey(ByteBuffer page, int i) {
+		return key(page, LEAF_HEADER + i * keySize);
+	}
+
+	private long leafValue(ByteBuffer page, int i) {
+		return page.getLong(valuesOffset + i * 8);
+	}
+
+	private void putLeafEntry(ByteBuffer page, int i, long key, long value) {
+		putKey(page, LEAF_HEADER + i * keySize, key);
+		page.putLong(valuesOffset + i * 8, value);
+	}
+
+	private static long rightLeaf(ByteBuffer page) {
+		return page.getLong(5);
+	}
+
+	private long separatorKey(ByteBuffer page, int i) {
+		return key(page, INNER_HEADER + i * keySize);
+	}
+
+	private long separatorValue(ByteBuffer page, int i) {
+		return page.getLong(separatorValuesOffset + i * 8);
+	}
+
+	private void putSeparator(ByteBuffer page, int i, long key, long value) {
+		putKey(page, INNER_HEADER + i * keySize, key);
+		page.putLong(separatorValuesOffset + i * 8, value);
+	}
+
+	private long child(ByteBuffer page, int i) {
+		return page.getLong(childrenOffset + i * 8);
+	}
+
+	private void putChild(ByteBuffer page, int i, long offset) {
+		page.putLong(childrenOffset + i * 8, offset);
+	}
+
+	private static int compare(long key1, long value1, long key2, long value2) {
+		int c = Long.compare(key1, key2);
+		return c != 0 ? c : Long.compare(value1, value2);
+	}
+
+	/**
+	 * Returns the position of the first entry of the leaf not smaller than the
+	 * given entry.
+	 */
+	private int lowerBound(ByteBuffer page, long key, long value) {
+		int low = 0, high = count(page);
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compare(leafKey(page, middle), leafValue(page, middle), key, value) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the position of the child, which can contain the given entry, it is
+	 * the number of the separators not bigger than the entry.
+	 */
+	private int childPosition(ByteBuffer page, long key, long value) {
+		int low = 0, high = count(page);
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compare(separatorKey(page, middle), separatorValue(page, middle), key, value) <= 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Allocates a new empty node.
+	 * 
+	 * @return offset of the node
+	 */
+	private long newPage(byte type) throws IOException {
+		long offset = lastOffset;
+		lastOffset += nodeSize;
+		ByteBuffer page = cache.create(offset);
+		page.put(0, type);
+		if (type == LEAF)
+			page.putLong(5, -1);
+		return offset;
+	}
+
+	/**
+	 * Returns the offset of the leaf, which can contain the given entry.
+	 */
+	private long findLeaf(long key, long value) throws IOException {
+		long offset = rootOffset;
+		for (int level = treeHeight; level > 0; level--) {
+			ByteBuffer page = cache.page(offset);
+			offset = child(page, childPosition(page, key, value));
+			cache.release();
+		}
+		return offset;
+	}
+
+	// operations
+
+	/**
+	 * Adds the entry, if it is not in the tree.
+	 * 
+	 * @return false if the tree already contains the entry
+	 * @throws RuntimeException if the index file cannot be read or written
+	 */
+	boolean insert(long key, long value) {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		try {
+			// the path, a new page on every level and a new root stay pinned
+			cache.ensureCapacity(2 * (treeHeight + 1) + 2);
+			int result = insert(rootOffset, treeHeight, key, value);
+			if (result < 0)
+				return false;
+			if (result > 0) { // the root has been split
+				long newRoot = newPage(INNER);
+				ByteBuffer page = cache.page(newRoot);
+				page.putInt(1, 1);
+				putSeparator(page, 0, splitKey, splitValue);
+				putChild(page, 0, rootOffset);
+				putChild(page, 1, splitOffset);
+				rootOffset = newRoot;
+				treeHeight++;
+			}
+			numberOfEntries++;
+			return true;
+		} catch (IOException e) {
+			throw new RuntimeException("Unsuccessful writing to the index file.", e);
+		} finally {
+			cache.release();
+		}
+	}
+
+	/**
+	 * Adds the entry to the subtree. The pages on the path stay pinned.
+	 * 
+	 * @return -1 if the entry is in the subtree, 0 if it is added, 1 if the node
+	 *         has been split and the split fields describe the new node
+	 */
+	private int insert(long offset, int level, long key, long value) throws IOException {
+		ByteBuffer page = cache.page(offset);
+		int n = count(page);
+		if (level == 0) {
+			int position = lowerBound(page, key, value);
+			if (position < n && leafKey(page, position) == key && leafValue(page, position) == value)
+				return -1;
+			cache.changed(offset);
+			if (n < leafCapacity) {
+				for (int i = n; i > position; i--)
+					putLeafEntry(page, i, leafKey(page, i - 1), leafValue(page, i - 1));
+				putLeafEntry(page, position, key, value);
+				page.putInt(1, n + 1);
+				return 0;
+			}
+			long[] keys = new long[n + 1];
+			long[] values = new long[n + 1];
+			for (int i = 0, j = 0; i <= n; i++) {
+				if (i == position) {
+					keys[i] = key;
+					values[i] = value;
+				} else {
+					keys[i] = leafKey(page, j);
+					values[i] = leafValue(page, j++);
+				}
+			}
+			long rightOffset = newPage(LEAF);
+			ByteBuffer right = cache.page(rightOffset);
+			int half = (n + 1) / 2;
+			for (int i = 0; i < half; i++)
+				putLeafEntry(page, i, keys[i], values[i]);
+			for (int i = half; i <= n; i++)
+				putLeafEntry(right, i - half, keys[i], values[i]);
+			page.putInt(1, half);
+			right.putInt(1, n + 1 - half);
+			right.putLong(5, rightLeaf(page));
+			page.putLong(5, rightOffset);
+			splitKey = keys[half];
+			splitValue = values[half];
+			splitOffset = rightOffset;
+			return 1;
+		}
+		int position = childPosition(page, key, value);
+		int result = insert(child(page, position), level - 1, key, value);
+		if (result <= 0)
+			return result;
+		cache.changed(offset);
+		if (n < innerCapacity) {
+			for (int i = n; i > position; i--) {
+				putSeparator(page, i, separatorKey(page, i - 1), separatorValue(page, i - 1));
+				putChild(page, i + 1, child(page, i));
+			}
+			putSeparator(page, position, splitKey, splitValue);
+			putChild(page, position + 1, splitOffset);
+			page.putInt(1, n + 1);
+			return 0;
+		}
+		long[] keys = new long[n + 1];
+		long[] values = new long[n + 1];
+		long[] children = new long[n + 2];
+		children[0] = child(page, 0);
+		for (int i = 0, j = 0; i <= n; i++) {
+			if (i == position) {
+				keys[i] = splitKey;
+				values[i] = splitValue;
+				children[i + 1] = splitOffset;
+			} else {
+				keys[i] = separatorKey(page, j);
+				values[i] = separatorValue(page, j);
+				children[i + 1] = child(page, ++j);
+			}
+		}
+		long rightOffset = newPage(INNER);
+		ByteBuffer right = cache.page(rightOffset);
+		int half = (n + 1) / 2; // the separator in the middle moves to the parent
+		for (int i = 0; i < half; i++)
+			putSeparator(page, i, keys[i], values[i]);
+		for (int i = 0; i <= half; i++)
+			putChild(page, i, children[i]);
+		for (int i = half + 1; i <= n; i++)
+			putSeparator(right, i - half - 1, keys[i], values[i]);
+		for (int i = half + 1; i <= n + 1; i++)
+			putChild(right, i - half - 1, children[i]);
+		page.putInt(1, half);
+		right.putInt(1, n - half);
+		splitKey = keys[half];
+		splitValue = values[half];
+		splitOffset = rightOffset;
+		return 1;
+	}
+
+	/**
+	 * Removes the entry from its leaf, the nodes are not rebalanced.
+	 * 
+	 * @return false if the tree does not contain the entry
+	 * @throws RuntimeException if the index file cannot be read or written
+	 */
+	boolean delete(long key, long value) {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		try {
+			long offset = findLeaf(key, value);
+			ByteBuffer page = cache.page(offset);
+			int n = count(page);
+			int position = lowerBound(page, key, value);
+			if (position == n || leafKey(page, position) != key || leafValue(page, position) != value)
+				return false;
+			cache.changed(offset);
+			for (int i = position; i < n - 1; i++)
+				putLeafEntry(page, i, leafKey(page, i + 1), leafValue(page, i + 1));
+			page.putInt(1, n - 1);
+			numberOfEntries--;
+			return true;
+		} catch (IOException e) {
+			throw new RuntimeException("Unsuccessful writing to the index file.", e);
+		} finally {
+			cache.release();
+		}
+	}
+
+	/**
+	 * Returns the value of the first entry with the given key.
+	 * 
+	 * @throws RuntimeException if the index file cannot be read
+	 */
+	long find(long key, long defaultValue) {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		try {
+			long offset = findLeaf(key, Long.MIN_VALUE);
+			while (offset >= 0) {
+				ByteBuffer page = cache.page(offset);
+				int position = lowerBound(page, key, Long.MIN_VALUE);
+				if (position < count(page))
+					return leafKey(page, position) == key ? leafValue(page, position) : defaultValue;
+				offset = rightLeaf(page); // the entry can be the first in the next leaf
+				cache.release();
+			}
+			return defaultValue;
+		} catch (IOException e) {
+			throw new RuntimeException("Unsuccessful reading from the index file.", e);
+		} finally {
+			cache.release();
+		}
+	}
+
+	/**
+	 * Passes the entries with keys from the interval to the consumer in the order
+	 * of the keys and values.
+	 * 
+	 * @return number of the entries
+	 * @throws RuntimeException if the index file cannot be read
+	 */
+	long scan(long low, long high, EntryConsumer consumer) {
+		if (!opened) {
+			throw new ManipulationWithClosedTreeException();
+		}
+		long count = 0;
+		try {
+			long offset = findLeaf(low, Long.MIN_VALUE);
+			int position = -1;
+			while (offset >= 0) {
+				ByteBuffer page = cache.page(offset);
+				int n = count(page);
+				if (position < 0)
+					position = lowerBound(page, low, Long.MIN_VALUE);
+				for (; position < n; position++) {
+					long key = leafKey(page, position);
+					if (key > high)
+						return count;
+					consumer.accept(key, leafValue(page, position));
+					count++;
+				}
+				offset = rightLeaf(page);
+				position = 0;
+				cache.release();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unsuccessful reading from the index file.", e);
+		} finally {
+			cache.release();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * sk.upjs.gursky.bplustree.SearchStrategy.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+/**
+ * Search of a key inside one node of the {@link BPTree}. All the strategies
+ * find the same child or entry, they differ only in the order in which the keys
+ * of the node are compared. The difference is visible with large nodes, e.g.
+ * with the node size of 64 KB used for scans.
+ * 
+ * @see BPTree#setSearchStrategy(SearchStrategy)
+ */
+public enum SearchStrategy {
+
+	/**
+	 * Classic binary search, it stops at the first equal key and walks left over
+	 * the duplicates.
+	 */
+	BINARY,
+
+	/**
+	 * Binary search of the first key not less than the searched one. The number
+	 * of steps depends only on the number of entries and the step chooses the
+	 * half by a conditional move, so the loop is not mispredicted.
+	 */
+	BRANCHLESS,
+
+	/**
+	 * Inner nodes of a tree opened for read are searched in a copy of their keys
+	 * in the Eytzinger (breadth-first) order, the first levels of the implicit
+	 * search tree share a few cache lines. Leafs and the nodes of a writable tree
+	 * are searched as by {@link #BRANCHLESS}.
+	 */
+	EYTZINGER,
+
+	/**
+	 * Interpolation search for the keys implementing {@link BPNumericKey}, the
+	 * position is estimated from the numeric values of the bounds, with a
+	 * bisection step whenever the estimate does not halve the range. Other keys
+	 * are searched as by {@link #BINARY}.
+	 */
+	INTERPOLATION
+}
@@ -0,0 +1,532 @@
+/*
+ * sk.upjs.gursky.bplustree.WriteAheadLog.java	ver 1.0, October 19th 2026
+ *
+ *	   Copyright 2009 Peter Gursky. All rights reserved.
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.upjs.gursky.bplustree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * One segment of the write-ahead log of the {@link BPTree}. The log contains
+ * logical records of the changes (added and removed entries, removed
+ * intervals), images of the changed nodes removed from the cache and the
+ * checkpoint records. Between two checkpoints the index file is not changed,
+ * the nodes removed from the cache are appended to the log and read from it, so
+ * the index file always keeps the tree of the last checkpoint and the logical
+ * records can be replayed over it.
+ *
+ * The log sequence number (LSN) of a record is its position in the whole log.
+ * Every checkpoint record ends its segment, the next segment starts at the LSN
+ * following it. The images of the segment are written to the index file in the
+ * background and then the segment is deleted.
+ *
+ * Every record is stored as the length of its payload (4 bytes), its type (1
+ * byte), the payload and the CRC32 of the type and payload (4 bytes), so a
+ * record damaged by a crash ends the log.
+ *
+ * The log is forced to the disk by group commit. A committer waits for the
+ * force covering its records, the log is forced at most once per group commit
+ * window and all the committers waiting within the window are released by one
+ * <code>force</code>. A failure of the log is thrown to the appending or
+ * committing thread. This class is not public.
+ *
+ * @see BPTree#setWriteAheadLog(boolean)
+ *
+ * @param <K> Key class used in inner nodes
+ * @param <O> Entry class used in leaf nodes
+ */
+class WriteAheadLog<K extends BPKey<K>, O extends BPObject<K, O>> {
+	static final byte ADD = 1; // payload is the entry
+	static final byte MERGE = 2; // payload is the entry added only if it is not in the tree
+	static final byte REMOVE = 3; // payload is the entry
+	static final byte REMOVE_RANGE = 4; // payload is the smallest and the biggest key
+	static final byte PAGE = 5; // payload is the offset and the image of the node
+	static final byte CHECKPOINT = 6; // payload is the last offset, the free map and the superblock
+	private static final int HEADER = 5; // 4 for the length of the payload, 1 for the type
+	private static final int TRAILER = 4; // CRC32 of the type and the payload
+	private static final int BUFFER_SIZE = 65536;
+
+	/**
+	 * Receives the records read from the log.
+	 */
+	interface RecordReader {
+		/**
+		 * @param type     type of the record
+		 * @param position position of the record in the log
+		 * @param payload  buffer with the payload of the record
+		 */
+		void read(byte type, long position, ByteBuffer payload) throws IOException;
+	}
+
+	private final BPTree<K, O> tree;
+	private final File file;
+	private final long startLsn; // LSN of the first record of the segment
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final ByteBuffer buffer; // records not written to the file yet
+	private final CRC32 crc = new CRC32();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition forced = lock.newCondition(); // signalled by every force
+	private final long groupCommitWindow; // in milliseconds, 0 forces the log by every commit
+	private final HashMap<Long, Long> pages = new HashMap<Long, Long>(); // positions of the node images by offsets
+	private long written; // number of bytes written to the file
+	private long synced; // number of bytes forced to the disk
+	private long lastSync; // System.nanoTime() of the last force
+	private CompletableFuture<Void> pendingSync; // force at the end of the group commit window
+	private IOException failure; // failure of the background force, thrown by the next append or commit
+	private long countSyncs;
+	boolean replaying; // logical records are not appended while they are replayed
+	volatile boolean hurry; // the images are written to the index file without waiting
+
+	WriteAheadLog(BPTree<K, O> tree, File file, long startLsn, long groupCommitWindow) throws IOException {
+		this.tree = tree;
+		this.file = file;
+		this.startLsn = startLsn;
+		this.groupCommitWindow = groupCommitWindow;
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, 2 * (HEADER + 8 + tree.nodeSize + TRAILER)));
+		written = synced = raf.length();
+		lastSync = System.nanoTime();
+	}
+
+	/**
+	 * Returns the number of bytes of the log.
+	 */
+	long size() {
+		lock.lock();
+		try {
+			return written + buffer.position();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getStartLsn() {
+		return startLsn;
+	}
+
+	/**
+	 * Returns the LSN following the last record.
+	 */
+	long getEndLsn() {
+		return startLsn + size();
+	}
+
+	/**
+	 * Returns the LSN following the checkpoint record with the free map of given
+	 * length, if it is appended now.
+	 */
+	long getCheckpointEndLsn(int freeMapLength) {
+		return getEndLsn() + HEADER + 12 + freeMapLength + tree.nodeSize + TRAILER;
+	}
+
+	/**
+	 * Returns the number of forces of the log to the disk.
+	 */
+	long getCountSyncs() {
+		return countSyncs;
+	}
+
+	/**
+	 * Appends a record with an entry, <code>ADD</code>, <code>MERGE</code> or
+	 * <code>REMOVE</code>.
+	 */
+	void logEntry(byte type, final O entry) throws IOException {
+		if (replaying)
+			return;
+		append(type, entry.getSize(), bb -> entry.save(bb));
+	}
+
+	/**
+	 * Appends a record of the removed interval of keys.
+	 */
+	void logRange(final K low, final K high) throws IOException {
+		if (replaying)
+			return;
+		final int keySize = low.getSize();
+		append(REMOVE_RANGE, 2 * keySize, bb -> {
+			int start = bb.position();
+			low.save(bb);
+			bb.position(start + keySize);
+			high.save(bb);
+		});
+	}
+
+	/**
+	 * Appends the image of a changed node removed from the cache. The node is
+	 * read from the log until the next checkpoint.
+	 */
+	void logPage(final BPNode<K, O> node) throws IOException {
+		final int nodeSize = tree.nodeSize;
+		long position = append(PAGE, 8 + nodeSize, bb -> {
+			bb.putLong(node.offset);
+			int start = bb.position();
+			node.save(bb);
+			bb.position(start + nodeSize);
+		});
+		lock.lock();
+		try {
+			pages.put(node.offset, position);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends the checkpoint record and forces the log.
+	 *
+	 * @param lastOffset offset after the last node
+	 * @param freeMap    bitmap of free nodes
+	 * @param superblock image of the superblock
+	 */
+	void logCheckpoint(final long lastOffset, final byte[] freeMap, final ByteBuffer superblock) throws IOException {
+		append(CHECKPOINT, 12 + freeMap.length + superblock.remaining(), bb -> {
+			bb.putLong(lastOffset);
+			bb.putInt(freeMap.length);
+			bb.put(freeMap);
+			bb.put(superblock.duplicate());
+		});
+		sync();
+	}
+
+	/**
+	 * Appends one record to the buffer. A record bigger than the buffer is written
+	 * directly.
+	 *
+	 * @return position of the record in the log
+	 */
+	private long append(byte type, int length, Consumer<ByteBuffer> payload) throws IOException {
+		lock.lock();
+		try {
+			checkFailure();
+			int recordSize = HEADER + length + TRAILER;
+			if (buffer.remaining() < recordSize)
+				writeBuffer();
+			ByteBuffer bb = recordSize <= buffer.capacity() ? buffer : ByteBuffer.allocate(recordSize);
+			long position = written + bb.position();
+			int start = bb.position();
+			bb.putInt(length);
+			bb.put(type);
+			payload.accept(bb);
+			bb.position(start + HEADER + length);
+			ByteBuffer checked = bb.duplicate();
+			checked.position(start + 4);
+			checked.limit(start + HEADER + length);
+			crc.reset();
+			crc.update(checked);
+			bb.putInt((int) crc.getValue());
+			if (bb != buffer) {
+				bb.flip();
+				while (bb.hasRemaining())
+					written += channel.write(bb, written);
+			}
+			return position;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Throws the failure of the background force, the log cannot be used after it.
+	 */
+	private void checkFailure() throws IOException {
+		if (failure != null)
+			throw new IOException("The write-ahead log has not been forced to the disk.", failure);
+	}
+
+	/**
+	 * Writes the buffered records to the file without forcing them to the disk.
+	 */
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			written += channel.write(buffer, written);
+		buffer.clear();
+	}
+
+	/**
+	 * Waits until all the records appended so far are forced to the disk. If the
+	 * log has not been forced for the whole group commit window, it is forced now,
+	 * otherwise the committer waits for the force at the end of the window, which
+	 * covers the records of all the committers within the window.
+	 */
+	void commit() throws IOException {
+		if (replaying)
+			return;
+		lock.lock();
+		try {
+			long end = written + buffer.position();
+			while (synced < end) {
+				checkFailure();
+				long remaining = groupCommitWindow * 1000000 - (System.nanoTime() - lastSync);
+				if (remaining <= 0) {
+					sync();
+					return;
+				}
+				try {
+					forced.awaitNanos(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the group commit.");
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Schedules the force of the log to the end of the group commit window, so the
+	 * records are durable at most the window after they are appended also without
+	 * <code>commit()</code>. A failure of the force is thrown by the next append
+	 * or commit.
+	 */
+	void scheduleSync() {
+		if (replaying)
+			return;
+		lock.lock();
+		try {
+			if (pendingSync == null || pendingSync.isDone()) {
+				long delay = groupCommitWindow - (System.nanoTime() - lastSync) / 1000000;
+				pendingSync = CompletableFuture.runAsync(this::backgroundSync,
+						CompletableFuture.delayedExecutor(Math.max(0, delay), TimeUnit.MILLISECONDS));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the buffered records and forces the log to the disk.
+	 */
+	void sync() throws IOException {
+		lock.lock();
+		try {
+			checkFailure();
+			writeBuffer();
+			if (synced < written) {
+				channel.force(false);
+				countSyncs++;
+				synced = written;
+			}
+			lastSync = System.nanoTime();
+			forced.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void backgroundSync() {
+		lock.lock();
+		try {
+			if (channel.isOpen() && failure == null)
+				sync();
+		} catch (IOException e) {
+			failure = e;
+			forced.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if the log contains the image of the node with given offset
+	 */
+	boolean hasPage(long offset) {
+		lock.lock();
+		try {
+			return pages.containsKey(offset);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the last image of the node with given offset to the buffer.
+	 *
+	 * @return false if the log has no image of the node
+	 */
+	boolean readPage(long offset, ByteBuffer bb) throws IOException {
+		lock.lock();
+		try {
+			Long position = pages.get(offset);
+			if (position == null || !channel.isOpen())
+				return false;
+			if (position >= written)
+				writeBuffer();
+			bb.clear();
+			bb.limit(tree.nodeSize);
+			long start = position + HEADER + 8;
+			while (bb.hasRemaining() && channel.read(bb, start + bb.position()) > 0)
+				;
+			bb.rewind();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Remembers the image of the node stored by the record at given position,
+	 * used by the recovery.
+	 */
+	void putPage(long offset, long position) {
+		lock.lock();
+		try {
+			pages.put(offset, position);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forgets the images of the nodes, they are read from the index file again.
+	 */
+	void forgetPages() {
+		lock.lock();
+		try {
+			pages.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the last images of all the nodes in the log to the index file in the
+	 * order of their offsets. The log is locked only while an image is read, so
+	 * the nodes can be read from the log in the meantime.
+	 *
+	 * @param target        store of the index file
+	 * @param pagesPerSecond maximal number of images written per second, 0 for no
+	 *                       limit, the limit is not kept when <code>hurry</code>
+	 *                       is set
+	 * @return number of written nodes
+	 */
+	int writePages(PageStore target, int pagesPerSecond) throws IOException {
+		Long[] offsets;
+		lock.lock();
+		try {
+			offsets = pages.keySet().toArray(new Long[pages.size()]);
+		} finally {
+			lock.unlock();
+		}
+		Arrays.sort(offsets);
+		ByteBuffer bb = ByteBuffer.allocateDirect(tree.nodeSize);
+		long start = System.nanoTime();
+		for (int i = 0; i < offsets.length; i++) {
+			readPage(offsets[i], bb);
+			while (bb.hasRemaining())
+				target.write(bb, offsets[i] + bb.position());
+			if (pagesPerSecond > 0 && !hurry) {
+				long wait = start + (i + 1) * 1000000000L / pagesPerSecond - System.nanoTime();
+				if (wait > 0) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(wait);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						hurry = true;
+					}
+				}
+			}
+		}
+		return offsets.length;
+	}
+
+	/**
+	 * Reads the records from the beginning of the log. Reading stops at the first
+	 * incomplete or damaged record, the log is cut there, so the new records
+	 * follow the last valid one.
+	 */
+	void read(RecordReader reader) throws IOException {
+		lock.lock();
+		try {
+			writeBuffer();
+		} finally {
+			lock.unlock();
+		}
+		long end = written;
+		long position = 0;
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		while (position + HEADER + TRAILER <= end) {
+			header.clear();
+			while (header.hasRemaining() && channel.read(header, position + header.position()) > 0)
+				;
+			int length = header.getInt(0);
+			if (length < 0 || position + HEADER + length + TRAILER > end)
+				break;
+			ByteBuffer record = ByteBuffer.allocate(1 + length + TRAILER);
+			while (record.hasRemaining() && channel.read(record, position + 4 + record.position()) > 0)
+				;
+			crc.reset();
+			crc.update(record.array(), 0, 1 + length);
+			if (record.getInt(1 + length) != (int) crc.getValue())
+				break;
+			record.position(1);
+			record.limit(1 + length);
+			reader.read(record.get(0), position, record.slice());
+			position += HEADER + length + TRAILER;
+		}
+		if (position < end && size() == end) {
+			lock.lock();
+			try {
+				channel.truncate(position);
+				written = synced = position;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Forces the records and closes the log.
+	 */
+	void close() throws IOException {
+		if (pendingSync != null)
+			pendingSync.cancel(false);
+		lock.lock();
+		try {
+			if (!channel.isOpen())
+				return;
+			sync();
+			raf.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes and deletes the segment, its records are not needed any more.
+	 */
+	void delete() throws IOException {
+		close();
+		file.delete();
+	}
+}
@@ -3,10 +3,10 @@ package sk.upjs.gursky.bplustree.entries;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 
-import sk.upjs.gursky.bplustree.BPKey;
+import sk.upjs.gursky.bplustree.BPNumericKey;
 
 
-public class BPKeyDouble implements BPKey<BPKeyDouble>, Serializable
+public class BPKeyDouble implements BPNumericKey<BPKeyDouble>, Serializable
 {
 
 	private static final long serialVersionUID = -6511749774122198926L;
@@ -60,8 +60,17 @@ public class BPKeyDouble implements BPKey<BPKeyDouble>, Serializable
 		return key == ((BPKeyDouble)obj).key;
 	}
 
+	@Override
+	public int hashCode() {
+		return Double.hashCode(key + 0.0); // -0.0 is equal to 0.0
+	}
+
 	public double getKeyLong() {
 		return key;
 	}
 
+	public double getNumericValue() {
+		return key;
+	}
+
 }
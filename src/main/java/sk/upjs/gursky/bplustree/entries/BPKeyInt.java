@@ -3,10 +3,10 @@ package sk.upjs.gursky.bplustree.entries;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 
-import sk.upjs.gursky.bplustree.BPKey;
+import sk.upjs.gursky.bplustree.BPNumericKey;
 
 
-public class BPKeyInt implements BPKey<BPKeyInt>, Serializable
+public class BPKeyInt implements BPNumericKey<BPKeyInt>, Serializable
 {
 
 	private static final long serialVersionUID = 330263900419603008L;
@@ -60,8 +60,17 @@ public class BPKeyInt implements BPKey<BPKeyInt>, Serializable
 		return key == ((BPKeyInt)obj).key;
 	}
 
+	@Override
+	public int hashCode() {
+		return key;
+	}
+
 	public int getKeyInt() {
 		return key;
 	}
 
+	public double getNumericValue() {
+		return key;
+	}
+
 }
@@ -3,10 +3,10 @@ package sk.upjs.gursky.bplustree.entries;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 
-import sk.upjs.gursky.bplustree.BPKey;
+import sk.upjs.gursky.bplustree.BPNumericKey;
 
 
-public class BPKeyLong implements BPKey<BPKeyLong>, Serializable
+public class BPKeyLong implements BPNumericKey<BPKeyLong>, Serializable
 {
 
 	private static final long serialVersionUID = 809951016755954693L;
@@ -60,8 +60,17 @@ public class BPKeyLong implements BPKey<BPKeyLong>, Serializable
 		return key == ((BPKeyLong)obj).key;
 	}
 
+	@Override
+	public int hashCode() {
+		return Long.hashCode(key);
+	}
+
 	public long getKeyLong() {
 		return key;
 	}
 
+	public double getNumericValue() {
+		return key;
+	}
+
 }
@@ -71,6 +71,11 @@ public class BPObjectIntDouble implements BPObject<BPKeyInt,BPObjectIntDouble>,
 		return id == ((BPObjectIntDouble)obj).id && value == ((BPObjectIntDouble)obj).value ? true : false;
 	}
 
+	@Override
+	public int hashCode() {
+		return 31 * id + Double.hashCode(value + 0.0); // -0.0 is equal to 0.0
+	}
+
 	public double getValueDouble() {
 		return value;
 	}
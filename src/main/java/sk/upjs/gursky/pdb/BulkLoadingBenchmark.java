@@ -0,0 +1,46 @@
+package sk.upjs.gursky.pdb;
+
+import java.io.File;
+
+/**
+ * Measures the bulk loading of the clustered index from persons files 1 to 50
+ * times bigger than the heap. Run it with a small heap, e.g. <code>-Xmx32m</code>,
+ * the factors can be given as arguments. The run size is derived from the heap
+ * size, the fan-in is set by the <code>fanin</code> system property.
+ * 
+ * <pre>
+ * java -Xmx32m -Dfanin=64 sk.upjs.gursky.pdb.BulkLoadingBenchmark 1 2 5 10 20 50
+ * </pre>
+ */
+public class BulkLoadingBenchmark {
+
+	private static final int PERSON_HEAP_SIZE = 160; // approximate bytes of a PersonEntry with its strings in heap
+
+	public static void main(String[] args) throws Exception {
+		int[] factors = { 1, 2, 5, 10, 20, 50 };
+		if (args.length > 0) {
+			factors = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				factors[i] = Integer.parseInt(args[i]);
+			}
+		}
+		long heap = Runtime.getRuntime().maxMemory();
+		int runSize = (int) Math.min(Integer.MAX_VALUE, heap / 4 / PERSON_HEAP_SIZE);
+		int fanIn = Integer.getInteger("fanin", 64);
+		File personsFile = new File("person.bench");
+		File indexFile = new File("person.bench.kl");
+		System.out.println("heap " + heap / (1024 * 1024) + " MB, run size " + runSize + ", fan-in " + fanIn);
+		for (int factor : factors) {
+			int pages = (int) (heap * factor / ClusteredBPTree.PAGE_SIZE);
+			Generator.generateFile(pages, personsFile);
+			long time = System.nanoTime();
+			ClusteredBPTree tree = ClusteredBPTree.newTreeBulkLoading(personsFile, indexFile, runSize, fanIn);
+			tree.close();
+			time = System.nanoTime() - time;
+			System.out.printf("%3dx heap (%6d MB): %10.1f ms, %d entries%n", factor,
+					personsFile.length() / (1024 * 1024), time / 1e6, tree.getNumberOfEntries());
+			personsFile.delete();
+			indexFile.delete();
+		}
+	}
+}
@@ -2,20 +2,16 @@ package sk.upjs.gursky.pdb;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 
+import sk.upjs.gursky.bplustree.BPExternalSorter;
 import sk.upjs.gursky.bplustree.BPTree;
 
 public class ClusteredBPTree extends BPTree<PersonStringKey, PersonEntry> {
 	
 	public static final int PAGE_SIZE = 4096;
 	
-	private ClusteredBPTree(File indexFile) {
+	ClusteredBPTree(File indexFile) {
 		super(PersonEntry.class, indexFile);	
 	}
 
@@ -23,57 +19,40 @@ public class ClusteredBPTree extends BPTree<PersonStringKey, PersonEntry> {
 		super(PersonEntry.class, indexFile);
 		setNodeSize(PAGE_SIZE);
 		openNewFile();
-		RandomAccessFile raf = new RandomAccessFile(personsFile, "r");
-
-		FileChannel channel = raf.getChannel();
-		ByteBuffer buffer = ByteBuffer.allocateDirect(PAGE_SIZE);
-		
-		
-		long fileSize = personsFile.length();
-		long pagesCount = fileSize / PAGE_SIZE;
-		for (int offset = 0; offset < fileSize; offset += PAGE_SIZE) {
-			//System.out.println("Citam " + (offset / PAGE_SIZE) + ". stranku");
-			buffer.clear();
-			channel.read(buffer, offset);
-			buffer.rewind();
-			int personsCount = buffer.getInt();
-			for (int i = 0; i < personsCount; i++) {
-				PersonEntry entry = new PersonEntry();
-				entry.load(buffer);
-				add(entry);
-			}
-		}
-		channel.close();
-		raf.close();
+		PersonsFile.scan(personsFile, (entry, offset) -> add(entry));
 	}
 	
 	public static ClusteredBPTree newTreeBulkLoading(File personsFile, File indexFile) throws IOException {
+		return newTreeBulkLoading(personsFile, indexFile, BPExternalSorter.DEFAULT_RUN_SIZE,
+				BPExternalSorter.DEFAULT_FAN_IN);
+	}
+
+	/**
+	 * Creates the index by batch update. The entries are sorted by
+	 * {@link BPExternalSorter}, so at most <code>runSize</code> of them are held
+	 * in memory and sorted runs are merged by <code>fanIn</code> at once.
+	 */
+	public static ClusteredBPTree newTreeBulkLoading(File personsFile, File indexFile, int runSize, int fanIn)
+			throws IOException {
+		IndexBuilder builder = new IndexBuilder(personsFile, runSize, fanIn);
+		ClusteredBPTree tree = builder.addClustered(indexFile);
+		builder.build();
+		return tree;
+	}
+
+	/**
+	 * Creates the index using all the cores. Pages of the persons file are parsed
+	 * in parallel, the entries are sorted by {@link Arrays#parallelSort} and the
+	 * tree is built by {@link BPTree#openAndParallelBatchUpdate}. All the entries
+	 * are held in memory.
+	 */
+	public static ClusteredBPTree newTreeParallelBulkLoading(File personsFile, File indexFile) throws IOException {
 		ClusteredBPTree tree = new ClusteredBPTree(indexFile);
 		tree.setNodeSize(PAGE_SIZE);
-		RandomAccessFile raf = new RandomAccessFile(personsFile, "r");
-
-		FileChannel channel = raf.getChannel();
-		ByteBuffer buffer = ByteBuffer.allocateDirect(PAGE_SIZE);
-		
-		List<PersonEntry> persons = new ArrayList<PersonEntry>();
-		long fileSize = personsFile.length();
-		long pagesCount = fileSize / PAGE_SIZE;
-		for (int offset = 0; offset < fileSize; offset += PAGE_SIZE) {
-			//System.out.println("Citam " + (offset / PAGE_SIZE) + ". stranku");
-			buffer.clear();
-			channel.read(buffer, offset);
-			buffer.rewind();
-			int personsCount = buffer.getInt();
-			for (int i = 0; i < personsCount; i++) {
-				PersonEntry entry = new PersonEntry();
-				entry.load(buffer);
-				persons.add(entry);
-			}
-		}
-		channel.close();
-		raf.close();
-		Collections.sort(persons);
-		tree.openAndBatchUpdate(persons.iterator(), persons.size());
+		PersonEntry[] entries = PersonsFile.readParallel(personsFile, PersonEntry[]::new,
+				(person, offset) -> person);
+		Arrays.parallelSort(entries);
+		tree.openAndParallelBatchUpdate(entries);
 		return tree;
 	}
 
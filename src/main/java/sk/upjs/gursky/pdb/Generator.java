@@ -52,34 +52,76 @@ public class Generator {
 			if (i == numberOfPages - 1) {
 				z = (int) (Math.random() * 84 + 1);
 			}
-			buffer.clear();
-			buffer.putInt(z);
-			for (int j = 0; j < z; j++) {
-				String str = Long.toString(Math.abs(r.nextLong()), 36);
-				
-				for (int k = 0; k < 10; k++) {
-					try {
-						buffer.putChar(str.charAt(k));
-					} catch (StringIndexOutOfBoundsException e) {
-						buffer.putChar(' ');
-					}
-				}
-				str = Long.toString(Math.abs(r.nextLong()), 36);
-				for (int k = 0; k < 10; k++) {
-					try {
-						buffer.putChar(str.charAt(k));
-					} catch (StringIndexOutOfBoundsException e) {
-						buffer.putChar(' ');
-					}
-				}
-				buffer.putInt((int) (Math.random() * 50 + 18));
-				buffer.putInt((int) (Math.random() * 2000 + 300));
-			}
-			buffer.rewind();
-			channel.write(buffer, i * 4096);
+			writePage(channel, buffer, r, z, i * 4096L);
+		}
+		
+		channel.close();
+		raf.close();
+	}
+	
+	/**
+	 * Vytvori riedky (sparse) subor zadanej velkosti, v ktorom je zadany pocet plnych stranok
+	 * s 85 nahodnymi zaznamami rovnomerne rozlozenych od zaciatku po koniec suboru. Ostatne
+	 * stranky su prazdne (maju 0 zaznamov) a na disku nezaberaju miesto, ak to suborovy system
+	 * podporuje. Sluzi na testovanie suborov vacsich ako 2GB alebo 4GB.
+	 * 
+	 * @param fileSize - velkost suboru v bajtoch, zaokruhli sa nadol na cele stranky
+	 * @param numberOfPages - kolko stranok naplnenych nahodnymi datami sa ma vytvorit
+	 * @param f - subor, ktory sa ma vytvorit
+	 * @throws Exception
+	 */
+	public static void generateSparseFile(long fileSize, int numberOfPages, File f) throws Exception {
+		
+		Random r = new Random();
+		long pages = fileSize / 4096;
+		if (numberOfPages > pages) {
+			throw new RuntimeException("The file of " + fileSize + " bytes has less than " + numberOfPages + " pages");
+		}
+		
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		raf.setLength(0);
+		raf.setLength(pages * 4096);
+		
+		FileChannel channel = raf.getChannel();
+		ByteBuffer  buffer = ByteBuffer.allocateDirect(4096);
+		
+		for (int i = 0; i < numberOfPages; i++) {
+			long page = numberOfPages == 1 ? pages - 1 : i * (pages - 1) / (numberOfPages - 1);
+			writePage(channel, buffer, r, 85, page * 4096);
 		}
 		
 		channel.close();
 		raf.close();
 	}
+	
+	/**
+	 * Zapise stranku so zadanym poctom nahodnych zaznamov na zadany offset v subore.
+	 */
+	private static void writePage(FileChannel channel, ByteBuffer buffer, Random r, int z, long offset) throws Exception {
+		buffer.clear();
+		buffer.putInt(z);
+		for (int j = 0; j < z; j++) {
+			String str = Long.toString(Math.abs(r.nextLong()), 36);
+			
+			for (int k = 0; k < 10; k++) {
+				try {
+					buffer.putChar(str.charAt(k));
+				} catch (StringIndexOutOfBoundsException e) {
+					buffer.putChar(' ');
+				}
+			}
+			str = Long.toString(Math.abs(r.nextLong()), 36);
+			for (int k = 0; k < 10; k++) {
+				try {
+					buffer.putChar(str.charAt(k));
+				} catch (StringIndexOutOfBoundsException e) {
+					buffer.putChar(' ');
+				}
+			}
+			buffer.putInt((int) (Math.random() * 50 + 18));
+			buffer.putInt((int) (Math.random() * 2000 + 300));
+		}
+		buffer.rewind();
+		channel.write(buffer, offset);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,207 @@
+package sk.upjs.gursky.pdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+
+import sk.upjs.gursky.bplustree.BPExternalSorter;
+import sk.upjs.gursky.bplustree.BPKey;
+import sk.upjs.gursky.bplustree.BPObject;
+import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.NodeSizeAdvisor;
+
+/**
+ * Builds any number of indexes over the persons file by one scan of the file.
+ * Every index is defined by a tree and an extractor creating the entry of the
+ * index from a person and its offset in the file. The entries of every index
+ * are sorted by its own {@link BPExternalSorter} and the trees are bulk loaded
+ * in parallel.
+ *
+ * <pre>
+ * IndexBuilder builder = new IndexBuilder(Generator.GENERATED_FILE);
+ * ClusteredBPTree clustered = builder.addClustered(new File("person.kl"));
+ * UnclusteredBPTreeSalary salaryIndex = builder.addSalaryIndex(new File("person.sal"));
+ * builder.build();
+ * </pre>
+ * 
+ * The node sizes of the indexes can be chosen by {@link NodeSizeAdvisor} from a
+ * sample of their entries, see <code>setNodeSizeAdvice</code>.
+ */
+public class IndexBuilder {
+
+	private final File personsFile;
+	private final int runSize;
+	private final int fanIn;
+	private final List<Definition<?, ?>> definitions = new ArrayList<Definition<?, ?>>();
+	private boolean advice; // the node sizes are chosen by NodeSizeAdvisor
+	private double pointFraction;
+	private long rangeLength;
+	private long cacheMemory;
+
+	public IndexBuilder(File personsFile) {
+		this(personsFile, BPExternalSorter.DEFAULT_RUN_SIZE, BPExternalSorter.DEFAULT_FAN_IN);
+	}
+
+	/**
+	 * @param runSize maximal number of entries of one index sorted in memory
+	 * @param fanIn   maximal number of sorted runs merged at once
+	 */
+	public IndexBuilder(File personsFile, int runSize, int fanIn) {
+		this.personsFile = personsFile;
+		this.runSize = runSize;
+		this.fanIn = fanIn;
+	}
+
+	/**
+	 * The node size of every index is chosen by {@link NodeSizeAdvisor} before the
+	 * bulk load instead of the node size set to its tree. The advisor measures the
+	 * node sizes on a sample of at most 10 000 entries of the index.
+	 * 
+	 * @param pointFraction part of the queries which are point lookups
+	 * @param rangeLength   average number of entries returned by a range query
+	 * @param cacheMemory   bytes of the nodes kept in the cache of the tree
+	 * @see NodeSizeAdvisor#setWorkload(double, long)
+	 */
+	public void setNodeSizeAdvice(double pointFraction, long rangeLength, long cacheMemory) {
+		this.advice = true;
+		this.pointFraction = pointFraction;
+		this.rangeLength = rangeLength;
+		this.cacheMemory = cacheMemory;
+	}
+
+	/**
+	 * Adds a definition of an index. The tree must not be opened, it is opened by
+	 * <code>build()</code>.
+	 *
+	 * @param tree      tree to build
+	 * @param classO    class of the entries of the tree
+	 * @param extractor creates the entry from the person and its offset
+	 * @return the tree
+	 */
+	public <K extends BPKey<K>, O extends BPObject<K, O>, T extends BPTree<K, O>> T add(T tree, Class<O> classO,
+			BiFunction<PersonEntry, Long, O> extractor) {
+		definitions.add(
+				new Definition<K, O>(tree, classO, new BPExternalSorter<O>(classO, runSize, fanIn), extractor));
+		return tree;
+	}
+
+	/**
+	 * Adds the clustered index of persons by surname.
+	 */
+	public ClusteredBPTree addClustered(File indexFile) {
+		ClusteredBPTree tree = new ClusteredBPTree(indexFile);
+		tree.setNodeSize(ClusteredBPTree.PAGE_SIZE);
+		return add(tree, PersonEntry.class, (person, offset) -> person);
+	}
+
+	/**
+	 * Adds the unclustered index of persons by surname.
+	 */
+	public UnclusteredBPTree addSurnameIndex(File indexFile) {
+		UnclusteredBPTree tree = new UnclusteredBPTree(indexFile, personsFile);
+		tree.setNodeSize(UnclusteredBPTree.PAGE_SIZE);
+		return add(tree, SurnameAndOffsetEntry.class,
+				(person, offset) -> new SurnameAndOffsetEntry(person.surname, offset));
+	}
+
+	/**
+	 * Adds the unclustered index of persons by salary.
+	 */
+	public UnclusteredBPTreeSalary addSalaryIndex(File indexFile) {
+		UnclusteredBPTreeSalary tree = new UnclusteredBPTreeSalary(indexFile, personsFile);
+		tree.setNodeSize(UnclusteredBPTreeSalary.PAGE_SIZE);
+		return add(tree, SalaryOffsetEntry.class, (person, offset) -> new SalaryOffsetEntry(person.salary, offset));
+	}
+
+	/**
+	 * Scans the persons file once and bulk loads all the added trees. The trees
+	 * are opened after this method.
+	 *
+	 * @throws IOException
+	 */
+	public void build() throws IOException {
+		try {
+			PersonsFile.scan(personsFile, (person, offset) -> {
+				for (Definition<?, ?> definition : definitions) {
+					definition.add(person, offset, advice);
+				}
+			});
+			if (advice) {
+				for (Definition<?, ?> definition : definitions) {
+					definition.advise(pointFraction, rangeLength, cacheMemory);
+				}
+			}
+			List<CompletableFuture<Void>> loads = new ArrayList<CompletableFuture<Void>>();
+			for (final Definition<?, ?> definition : definitions) {
+				loads.add(CompletableFuture.runAsync(() -> definition.load()));
+			}
+			CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		} finally {
+			for (Definition<?, ?> definition : definitions) {
+				definition.sorter.close();
+			}
+			definitions.clear();
+		}
+	}
+
+	private static class Definition<K extends BPKey<K>, O extends BPObject<K, O>> {
+		static final int SAMPLE_SIZE = 10000;
+		final BPTree<K, O> tree;
+		final Class<O> classO;
+		final BPExternalSorter<O> sorter;
+		final BiFunction<PersonEntry, Long, O> extractor;
+		final List<O> sample = new ArrayList<O>(); // uniform sample of the entries by reservoir sampling
+		final Random random = new Random(1);
+		long count;
+
+		Definition(BPTree<K, O> tree, Class<O> classO, BPExternalSorter<O> sorter,
+				BiFunction<PersonEntry, Long, O> extractor) {
+			this.tree = tree;
+			this.classO = classO;
+			this.sorter = sorter;
+			this.extractor = extractor;
+		}
+
+		void add(PersonEntry person, long offset, boolean sampled) {
+			O entry = extractor.apply(person, offset);
+			count++;
+			if (sampled) {
+				if (sample.size() < SAMPLE_SIZE)
+					sample.add(entry);
+				else if (random.nextDouble() * count < SAMPLE_SIZE)
+					sample.set(random.nextInt(SAMPLE_SIZE), entry);
+			}
+			try {
+				sorter.add(entry);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}
+
+		void advise(double pointFraction, long rangeLength, long cacheMemory) throws IOException {
+			if (sample.isEmpty())
+				return;
+			NodeSizeAdvisor<K, O> advisor = new NodeSizeAdvisor<K, O>(classO);
+			advisor.setWorkload(pointFraction, rangeLength);
+			advisor.setCacheMemory(cacheMemory);
+			tree.setNodeSize(advisor.recommend(sample, count));
+		}
+
+		void load() {
+			try {
+				tree.openAndBatchUpdate(sorter.iterator(), sorter.size());
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package sk.upjs.gursky.pdb;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Compares the cache of node objects holding all the nodes of the clustered
+ * index with a small cache of objects and the off-heap cache of the same
+ * capacity. For both configurations it measures random lookups, the number and
+ * time of the garbage collections and the heap used by the cached nodes.
+ */
+public class OffHeapCacheBenchmark {
+
+	private static final int LOOKUPS = 500000;
+	private static final int OBJECT_CACHE = 1000;
+	private static final String ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+	public static void main(String[] args) throws Exception {
+		if (!Generator.GENERATED_FILE.exists()) {
+			Generator.generateFile(Generator.NUMBER_OF_PAGES, Generator.GENERATED_FILE);
+		}
+		File indexFile = new File("person.kl");
+		ClusteredBPTree tree = ClusteredBPTree.newTreeBulkLoading(Generator.GENERATED_FILE, indexFile);
+		int nodes = (int) (indexFile.length() / ClusteredBPTree.PAGE_SIZE) + 1;
+		tree.close();
+
+		for (boolean offHeap : new boolean[] { false, true }) {
+			tree.setCacheCapacity(offHeap ? OBJECT_CACHE : nodes);
+			tree.setOffHeapCacheCapacity(offHeap ? nodes : 0);
+			tree.openForRead();
+			run(tree, new Random(1)); // warms up the caches
+			long heap = usedHeap();
+			long collections = collections();
+			long gcTime = gcTime();
+			long time = System.nanoTime();
+			run(tree, new Random(2));
+			time = System.nanoTime() - time;
+			System.out.printf("%-28s %8.0f lookups/s, heap %6d MB, GC %4d collections %6d ms%n",
+					offHeap ? "objects " + OBJECT_CACHE + " + off-heap " + nodes : "objects " + nodes,
+					LOOKUPS / (time / 1e9), heap >> 20, collections() - collections, gcTime() - gcTime);
+			tree.close();
+		}
+		indexFile.delete();
+	}
+
+	private static void run(ClusteredBPTree tree, Random random) {
+		for (int i = 0; i < LOOKUPS; i++) {
+			String prefix = "" + ALPHABET.charAt(random.nextInt(36)) + ALPHABET.charAt(random.nextInt(36))
+					+ ALPHABET.charAt(random.nextInt(36));
+			tree.intervalQuery(new PersonStringKey(prefix), new PersonStringKey(prefix + "0"));
+		}
+	}
+
+	private static long usedHeap() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += gc.getCollectionCount();
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			time += gc.getCollectionTime();
+		return time;
+	}
+}
@@ -0,0 +1,50 @@
+package sk.upjs.gursky.pdb;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the build time of the salary index by the sequential bulk loading
+ * and by the parallel bulk loading with 1, 2, 4, ... worker threads up to the
+ * number of cores.
+ */
+public class ParallelBulkLoadingBenchmark {
+
+	private static final int REPEATS = 3;
+
+	public static void main(String[] args) throws Exception {
+		if (!Generator.GENERATED_FILE.exists()) {
+			Generator.generateFile(Generator.NUMBER_OF_PAGES, Generator.GENERATED_FILE);
+		}
+		final File indexFile = new File("person.bench.sal");
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < REPEATS; r++) {
+			long time = System.nanoTime();
+			UnclusteredBPTreeSalary.newTreeBulkLoading(Generator.GENERATED_FILE, indexFile).close();
+			best = Math.min(best, System.nanoTime() - time);
+			indexFile.delete();
+		}
+		System.out.printf("sequential:        %8.1f ms%n", best / 1e6);
+		double single = 0;
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1;; threads = Math.min(threads * 2, cores)) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			best = Long.MAX_VALUE;
+			for (int r = 0; r < REPEATS; r++) {
+				long time = System.nanoTime();
+				pool.submit(() -> {
+					UnclusteredBPTreeSalary.newTreeParallelBulkLoading(Generator.GENERATED_FILE, indexFile).close();
+					return null;
+				}).get();
+				best = Math.min(best, System.nanoTime() - time);
+				indexFile.delete();
+			}
+			pool.shutdown();
+			if (threads == 1)
+				single = best;
+			System.out.printf("parallel %2d threads: %8.1f ms, speed-up %.2f%n", threads, best / 1e6, single / best);
+			if (threads == cores)
+				break;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package sk.upjs.gursky.pdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import sk.upjs.gursky.bplustree.BPCursor;
+
+/**
+ * Cursor that reads person records from the heap file for the offsets returned
+ * by an unclustered index. The heap file is opened once for the whole cursor
+ * and a page is read again only if the next record is on a different page. The
+ * file is closed at the end of iteration or by <code>close()</code>.
+ */
+public class PersonCursor implements BPCursor<PersonEntry> {
+
+	public static final int PAGE_SIZE = 4096;
+
+	private Iterator<? extends PersonOffset> pointers;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private long pageOffset = -1; // offset of the page in buffer
+
+	public PersonCursor(File personsFile, Iterator<? extends PersonOffset> pointers) throws IOException {
+		this.pointers = pointers;
+		raf = new RandomAccessFile(personsFile, "r");
+		channel = raf.getChannel();
+		buffer = ByteBuffer.allocateDirect(PAGE_SIZE);
+	}
+
+	public boolean hasNext() {
+		if (raf == null) {
+			return false;
+		}
+		if (!pointers.hasNext()) {
+			close();
+			return false;
+		}
+		return true;
+	}
+
+	public PersonEntry next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		long offset = pointers.next().getOffset();
+		long page = (offset / PAGE_SIZE) * PAGE_SIZE;
+		try {
+			if (page != pageOffset) {
+				buffer.clear();
+				channel.read(buffer, page);
+				pageOffset = page;
+			}
+		} catch (IOException e) {
+			close();
+			throw new RuntimeException("Unsuccessful reading from the persons file.", e);
+		}
+		buffer.position((int) (offset - page));
+		PersonEntry personEntry = new PersonEntry();
+		personEntry.load(buffer);
+		return personEntry;
+	}
+
+	public void close() {
+		if (pointers instanceof BPCursor) {
+			((BPCursor<?>) pointers).close();
+		}
+		if (raf != null) {
+			try {
+				channel.close();
+				raf.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			raf = null;
+			channel = null;
+			buffer = null;
+		}
+	}
+
+	public void remove() {
+		throw new RuntimeException("Cannot remove from B+tree during iteration.");
+	}
+}
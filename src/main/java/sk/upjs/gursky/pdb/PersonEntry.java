@@ -61,7 +61,14 @@ public class PersonEntry implements BPObject<PersonStringKey, PersonEntry> {
 	}
 
 	public int compareTo(PersonEntry zaznam) {
-		return Integer.compare(this.salary, zaznam.salary);
-
+		// entries must be ordered by the key (surname) first
+		int result = surname.compareTo(zaznam.surname);
+		if (result == 0)
+			result = name.compareTo(zaznam.name);
+		if (result == 0)
+			result = Integer.compare(this.age, zaznam.age);
+		if (result == 0)
+			result = Integer.compare(this.salary, zaznam.salary);
+		return result;
 	}
 }
\ No newline at end of file
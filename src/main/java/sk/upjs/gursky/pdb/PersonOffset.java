@@ -0,0 +1,15 @@
+package sk.upjs.gursky.pdb;
+
+/**
+ * Entry of an unclustered index, which points to a person record in the
+ * <code>person.tab</code> file.
+ */
+public interface PersonOffset {
+
+	/**
+	 * Returns the offset of the person record in the heap file.
+	 * 
+	 * @return offset of the record in the heap file
+	 */
+	public long getOffset();
+}
@@ -42,4 +42,16 @@ public class PersonStringKey implements BPKey<PersonStringKey> {
 		
 		return key.compareTo(personStringKey.key);
 	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof PersonStringKey))
+			return false;
+		return key.equals(((PersonStringKey) obj).key);
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode();
+	}
 }
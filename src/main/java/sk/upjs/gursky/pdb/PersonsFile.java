@@ -0,0 +1,103 @@
+package sk.upjs.gursky.pdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Reading of the persons file. The file is either scanned once through memory
+ * mapped chunks or read by all the cores, where every page is read by a
+ * positional read and parsed independently.
+ */
+final class PersonsFile {
+
+	public static final int PAGE_SIZE = 4096;
+	public static final int CHUNK_SIZE = 16384 * PAGE_SIZE; // bytes mapped at once, files over 2GB need more chunks
+
+	private PersonsFile() {
+	}
+
+	/**
+	 * Passes all the persons from the file with their offsets to the consumer in
+	 * the order of the file. The file is mapped to the memory by chunks.
+	 * 
+	 * @param personsFile file with persons
+	 * @param consumer    consumer of the persons and their offsets in the file
+	 */
+	static void scan(File personsFile, BiConsumer<PersonEntry, Long> consumer) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(personsFile, "r");
+		FileChannel channel = raf.getChannel();
+		try {
+			long fileSize = channel.size();
+			for (long chunk = 0; chunk < fileSize; chunk += CHUNK_SIZE) {
+				MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, chunk, Math.min(CHUNK_SIZE, fileSize - chunk));
+				for (int page = 0; page + 4 <= buffer.limit(); page += PAGE_SIZE) {
+					buffer.position(page);
+					int personsCount = buffer.getInt();
+					for (int i = 0; i < personsCount; i++) {
+						PersonEntry personEntry = new PersonEntry();
+						personEntry.load(buffer);
+						consumer.accept(personEntry, chunk + page + 4 + (i * personEntry.getSize()));
+					}
+				}
+			}
+		} finally {
+			channel.close();
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads all the persons from the file in parallel and maps them to the entries
+	 * of an index.
+	 * All the entries must fit to one array, bigger files are indexed by the
+	 * {@link IndexBuilder} sorting the entries externally.
+	 * 
+	 * @param personsFile file with persons
+	 * @param array       constructor of the resulting array
+	 * @param mapper      creates an entry from the person and its offset in the
+	 *                    file
+	 * @return entries in the order of persons in the file
+	 */
+	static <T> T[] readParallel(File personsFile, IntFunction<T[]> array, BiFunction<PersonEntry, Long, T> mapper)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(personsFile, "r");
+		final FileChannel channel = raf.getChannel();
+		final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(PAGE_SIZE));
+		int pagesCount = (int) ((personsFile.length() + PAGE_SIZE - 1) / PAGE_SIZE);
+		try {
+			return IntStream.range(0, pagesCount).parallel().mapToObj(page -> {
+				long offset = page * (long) PAGE_SIZE;
+				ByteBuffer buffer = buffers.get();
+				buffer.clear();
+				try {
+					while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0)
+						;
+				} catch (IOException e) {
+					throw new RuntimeException("Unsuccessful reading of the page " + page + " from the persons file.", e);
+				}
+				buffer.rewind();
+				int personsCount = buffer.getInt();
+				T[] entries = array.apply(personsCount);
+				for (int i = 0; i < personsCount; i++) {
+					PersonEntry personEntry = new PersonEntry();
+					personEntry.load(buffer);
+					entries[i] = mapper.apply(personEntry, offset + 4 + (i * personEntry.getSize()));
+				}
+				return entries;
+			}).flatMap(Arrays::stream).toArray(array);
+		} finally {
+			channel.close();
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package sk.upjs.gursky.pdb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs queries over the person indexes, each request in its own task. On Java
+ * 21 and newer every request gets its own virtual thread, so thousands of
+ * requests waiting for the disk do not need thousands of platform threads. On
+ * older Java a fixed pool of platform threads is used.
+ *
+ * The indexes should be opened for read, then the nodes missing in the cache
+ * are read concurrently without holding the cache lock.
+ *
+ * <pre>
+ * QueryExecutor executor = new QueryExecutor(clustered, surnameIndex, salaryIndex);
+ * executor.personsBySalary(1000, 1010).thenAccept(list -&gt; System.out.println(list.size()));
+ * executor.close();
+ * </pre>
+ */
+public class QueryExecutor implements Closeable {
+
+	public static final int PLATFORM_THREADS = 64;
+
+	private final ClusteredBPTree clustered;
+	private final UnclusteredBPTree surnameIndex;
+	private final UnclusteredBPTreeSalary salaryIndex;
+	private final ExecutorService executor;
+	private final boolean virtual;
+
+	/**
+	 * Any of the indexes can be <code>null</code>, if the queries using it are not
+	 * needed.
+	 */
+	public QueryExecutor(ClusteredBPTree clustered, UnclusteredBPTree surnameIndex,
+			UnclusteredBPTreeSalary salaryIndex) {
+		this(clustered, surnameIndex, salaryIndex, true);
+	}
+
+	/**
+	 * @param virtualThreads false to use the pool of platform threads even if
+	 *                       virtual threads are available
+	 */
+	public QueryExecutor(ClusteredBPTree clustered, UnclusteredBPTree surnameIndex,
+			UnclusteredBPTreeSalary salaryIndex, boolean virtualThreads) {
+		this.clustered = clustered;
+		this.surnameIndex = surnameIndex;
+		this.salaryIndex = salaryIndex;
+		ExecutorService service = virtualThreads ? newVirtualThreadExecutor() : null;
+		virtual = service != null;
+		executor = virtual ? service : Executors.newFixedThreadPool(PLATFORM_THREADS);
+	}
+
+	/**
+	 * Returns an executor starting a new virtual thread for each task or
+	 * <code>null</code> if this Java has no virtual threads. It is looked up by
+	 * reflection, so the class compiles also for Java 11.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the requests run in virtual threads
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Runs any query in the executor.
+	 */
+	public <T> CompletableFuture<T> submit(final Callable<T> query) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return query.call();
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Persons with surnames from the interval read from the clustered index.
+	 */
+	public CompletableFuture<List<PersonEntry>> personsBySurname(String low, String high) {
+		return submit(() -> clustered.intervalQuery(new PersonStringKey(low), new PersonStringKey(high)));
+	}
+
+	/**
+	 * Persons with surnames from the interval found by the unclustered index and
+	 * read from the persons file.
+	 */
+	public CompletableFuture<List<PersonEntry>> personsBySurnameUnclustered(String low, String high) {
+		return submit(() -> surnameIndex.intervalQueryEntries(new PersonStringKey(low), new PersonStringKey(high)));
+	}
+
+	/**
+	 * Persons with salaries from the interval found by the unclustered index and
+	 * read from the persons file.
+	 */
+	public CompletableFuture<List<PersonEntry>> personsBySalary(int low, int high) {
+		return submit(() -> salaryIndex.intervalQueryEntries(new SalaryKey(low), new SalaryKey(high)));
+	}
+
+	/**
+	 * Waits for the running requests and stops the executor. The indexes stay
+	 * opened.
+	 */
+	public void close() throws IOException {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package sk.upjs.gursky.pdb;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Measures the throughput and latency of a mixed workload (clustered surname
+ * ranges, unclustered surname ranges and salary lookups) for 1 to 10 000
+ * concurrent requests, once with virtual threads (if available) and once with
+ * the pool of platform threads.
+ */
+public class QueryExecutorBenchmark {
+
+	private static final int[] CONCURRENCY = { 1, 10, 100, 1000, 10000 };
+	private static final int REQUESTS = 20000;
+	private static final String ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+	public static void main(String[] args) throws Exception {
+		if (!Generator.GENERATED_FILE.exists()) {
+			Generator.generateFile(Generator.NUMBER_OF_PAGES, Generator.GENERATED_FILE);
+		}
+		File clusteredFile = new File("person.kl");
+		File surnameFile = new File("person.unkl");
+		File salaryFile = new File("person.sal");
+		ClusteredBPTree clustered = ClusteredBPTree.newTreeBulkLoading(Generator.GENERATED_FILE, clusteredFile);
+		UnclusteredBPTree surnameIndex = UnclusteredBPTree.newTreeBulkLoading(Generator.GENERATED_FILE, surnameFile);
+		UnclusteredBPTreeSalary salaryIndex = UnclusteredBPTreeSalary.newTreeBulkLoading(Generator.GENERATED_FILE,
+				salaryFile);
+		clustered.close();
+		surnameIndex.close();
+		salaryIndex.close();
+		clustered.setCacheCapacity(1000);
+		surnameIndex.setCacheCapacity(1000);
+		salaryIndex.setCacheCapacity(1000);
+		clustered.openForRead();
+		surnameIndex.openForRead();
+		salaryIndex.openForRead();
+
+		for (boolean virtualThreads : new boolean[] { true, false }) {
+			QueryExecutor executor = new QueryExecutor(clustered, surnameIndex, salaryIndex, virtualThreads);
+			System.out.println(executor.isVirtual() ? "virtual threads" : "platform threads");
+			for (int concurrency : CONCURRENCY) {
+				run(executor, concurrency);
+			}
+			executor.close();
+			if (!executor.isVirtual())
+				break;
+		}
+
+		clustered.close();
+		surnameIndex.close();
+		salaryIndex.close();
+		clusteredFile.delete();
+		surnameFile.delete();
+		salaryFile.delete();
+	}
+
+	private static void run(QueryExecutor executor, int concurrency) throws InterruptedException {
+		final Semaphore inFlight = new Semaphore(concurrency);
+		final long[] latencies = new long[REQUESTS];
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[REQUESTS];
+		Random random = new Random(concurrency);
+		long time = System.nanoTime();
+		for (int i = 0; i < REQUESTS; i++) {
+			inFlight.acquire();
+			final int request = i;
+			final long start = System.nanoTime();
+			String prefix = "" + ALPHABET.charAt(random.nextInt(36)) + ALPHABET.charAt(random.nextInt(36))
+					+ ALPHABET.charAt(random.nextInt(36));
+			CompletableFuture<List<PersonEntry>> future;
+			switch (i % 3) {
+			case 0:
+				future = executor.personsBySurname(prefix, prefix + "zzzzzzz");
+				break;
+			case 1:
+				future = executor.personsBySurnameUnclustered(prefix, prefix + "zzzzzzz");
+				break;
+			default:
+				int salary = 300 + random.nextInt(2000);
+				future = executor.personsBySalary(salary, salary);
+			}
+			futures[i] = future.whenComplete((result, e) -> {
+				latencies[request] = System.nanoTime() - start;
+				inFlight.release();
+			});
+		}
+		CompletableFuture.allOf(futures).join();
+		time = System.nanoTime() - time;
+		Arrays.sort(latencies);
+		System.out.printf("concurrency %5d: %8.0f req/s, p50 %8.3f ms, p99 %8.3f ms%n", concurrency,
+				REQUESTS / (time / 1e9), latencies[REQUESTS / 2] / 1e6, latencies[REQUESTS * 99 / 100] / 1e6);
+	}
+}
@@ -2,9 +2,9 @@ package sk.upjs.gursky.pdb;
 
 import java.nio.ByteBuffer;
 
-import sk.upjs.gursky.bplustree.BPKey;
+import sk.upjs.gursky.bplustree.BPNumericKey;
 
-public class SalaryKey implements BPKey<SalaryKey> {
+public class SalaryKey implements BPNumericKey<SalaryKey> {
 
 	private static final long serialVersionUID = -1062718514927725257L;
 	private int key;
@@ -32,4 +32,20 @@ public class SalaryKey implements BPKey<SalaryKey> {
 	public int compareTo(SalaryKey salaryKey) {
 		return Integer.compare(this.key, salaryKey.key); 
 	}
+
+	public double getNumericValue() {
+		return key;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SalaryKey))
+			return false;
+		return key == ((SalaryKey) obj).key;
+	}
+
+	@Override
+	public int hashCode() {
+		return key;
+	}
 }
@@ -4,7 +4,7 @@ import java.nio.ByteBuffer;
 
 import sk.upjs.gursky.bplustree.BPObject;
 
-public class SalaryOffsetEntry implements BPObject<SalaryKey, SalaryOffsetEntry> {
+public class SalaryOffsetEntry implements BPObject<SalaryKey, SalaryOffsetEntry>, PersonOffset {
 
 	private static final long serialVersionUID = -4574151963333928340L;
 	
@@ -4,7 +4,7 @@ import java.nio.ByteBuffer;
 
 import sk.upjs.gursky.bplustree.BPObject;
 
-public class SurnameAndOffsetEntry implements BPObject<PersonStringKey, SurnameAndOffsetEntry> {
+public class SurnameAndOffsetEntry implements BPObject<PersonStringKey, SurnameAndOffsetEntry>, PersonOffset {
 
 	private static final long serialVersionUID = 6636012031385997564L;
 	String surname; // char(10) 20B
@@ -2,15 +2,14 @@ package sk.upjs.gursky.pdb;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
+import sk.upjs.gursky.bplustree.BPCursor;
+import sk.upjs.gursky.bplustree.BPExternalSorter;
 import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.BPVisitor;
 
 public class UnclusteredBPTreeSalary  extends BPTree<SalaryKey, SalaryOffsetEntry> {
 	
@@ -29,54 +28,86 @@ public class UnclusteredBPTreeSalary  extends BPTree<SalaryKey, SalaryOffsetEntr
 	}
 	
 	public static UnclusteredBPTreeSalary newTreeBulkLoading(File personsFile, File indexFile) throws IOException {
-		UnclusteredBPTreeSalary tree = new UnclusteredBPTreeSalary(indexFile, personsFile);
-		tree.setNodeSize(PAGE_SIZE);
-		RandomAccessFile raf = new RandomAccessFile(personsFile, "r");
+		return newTreeBulkLoading(personsFile, indexFile, BPExternalSorter.DEFAULT_RUN_SIZE,
+				BPExternalSorter.DEFAULT_FAN_IN);
+	}
 
-		FileChannel channel = raf.getChannel();
-		ByteBuffer buffer = ByteBuffer.allocateDirect(PAGE_SIZE);
+	/**
+	 * Creates the index by batch update. The entries are sorted by
+	 * {@link BPExternalSorter}, so at most <code>runSize</code> of them are held
+	 * in memory and sorted runs are merged by <code>fanIn</code> at once.
+	 */
+	public static UnclusteredBPTreeSalary newTreeBulkLoading(File personsFile, File indexFile, int runSize, int fanIn)
+			throws IOException {
+		IndexBuilder builder = new IndexBuilder(personsFile, runSize, fanIn);
+		UnclusteredBPTreeSalary tree = builder.addSalaryIndex(indexFile);
+		builder.build();
+		return tree;
+	}
 
-		List<SalaryOffsetEntry> pairs = new ArrayList<>();
-		long fileSize = personsFile.length();
-		long pagesCount = fileSize / PAGE_SIZE;
-		for (int offset = 0; offset < fileSize; offset += PAGE_SIZE) {
-			// System.out.println("Citam " + (offset / PAGE_SIZE) + ". stranku");
-			buffer.clear();
-			channel.read(buffer, offset);
-			buffer.rewind();
-			int personsCount = buffer.getInt();
-			for (int i = 0; i < personsCount; i++) {
-				PersonEntry personEntry = new PersonEntry();
-				personEntry.load(buffer);
-				pairs.add(new SalaryOffsetEntry(personEntry.salary, offset + 4 + (i * personEntry.getSize())));
-			}
-		}
-		channel.close();
-		raf.close();
-		Collections.sort(pairs);
-		tree.openAndBatchUpdate(pairs.iterator(), pairs.size());
+	/**
+	 * Creates the index using all the cores. Pages of the persons file are parsed
+	 * in parallel, the entries are sorted by {@link Arrays#parallelSort} and the
+	 * tree is built by {@link BPTree#openAndParallelBatchUpdate}. All the entries
+	 * are held in memory.
+	 */
+	public static UnclusteredBPTreeSalary newTreeParallelBulkLoading(File personsFile, File indexFile) throws IOException {
+		UnclusteredBPTreeSalary tree = new UnclusteredBPTreeSalary(indexFile, personsFile);
+		tree.setNodeSize(PAGE_SIZE);
+		SalaryOffsetEntry[] entries = PersonsFile.readParallel(personsFile, SalaryOffsetEntry[]::new,
+				(person, offset) -> new SalaryOffsetEntry(person.salary, offset));
+		Arrays.parallelSort(entries);
+		tree.openAndParallelBatchUpdate(entries);
 		return tree;
 	}
 	
 	public List<PersonEntry> intervalQueryEntries(SalaryKey low, SalaryKey high) throws IOException {
-		List<SalaryOffsetEntry> pairs = super.intervalQuery(low, high);
-		RandomAccessFile raf = new RandomAccessFile(personsFile, "r");
-		FileChannel channel = raf.getChannel();
-		ByteBuffer buffer = ByteBuffer.allocateDirect(PAGE_SIZE);
-		List<PersonEntry> entries = new LinkedList<PersonEntry>();
-		for (SalaryOffsetEntry pair : pairs) {
-			buffer.clear();
-			long pageOffset = (pair.getOffset() / PAGE_SIZE) * PAGE_SIZE;
-			int bufferOffset = (int) (pair.getOffset() - pageOffset);
-			channel.read(buffer, pageOffset);
-			buffer.position(bufferOffset);
-			PersonEntry personEntry = new PersonEntry();
-			personEntry.load(buffer);
-			entries.add(personEntry);
-		}
-		channel.close();
-		raf.close();
+		final List<PersonEntry> entries = new ArrayList<PersonEntry>();
+		intervalQueryEntries(low, high, new BPVisitor<PersonEntry>() {
+			public boolean visit(PersonEntry entry) {
+				return entries.add(entry);
+			}
+		});
 		return entries;
 	}
 
+	/**
+	 * Passes the persons with keys from the interval to the visitor without storing
+	 * the result. The query stops if the visitor returns false.
+	 * 
+	 * @return number of persons passed to the visitor
+	 */
+	public long intervalQueryEntries(SalaryKey low, SalaryKey high, BPVisitor<? super PersonEntry> visitor)
+			throws IOException {
+		BPCursor<PersonEntry> cursor = intervalCursorEntries(low, high);
+		long count = 0;
+		try {
+			while (cursor.hasNext()) {
+				count++;
+				if (!visitor.visit(cursor.next())) {
+					break;
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a cursor over the persons with keys from the interval. The cursor
+	 * must be closed if it is not read to the end.
+	 */
+	public BPCursor<PersonEntry> intervalCursorEntries(SalaryKey low, SalaryKey high) throws IOException {
+		return new PersonCursor(personsFile, intervalCursor(low, high));
+	}
+
+	/**
+	 * Returns a cursor over at most <code>limit</code> first persons with keys from
+	 * the interval. The cursor must be closed if it is not read to the end.
+	 */
+	public BPCursor<PersonEntry> intervalCursorEntries(SalaryKey low, SalaryKey high, long limit) throws IOException {
+		return new PersonCursor(personsFile, intervalCursor(low, high, limit));
+	}
+
 }
@@ -2,13 +2,41 @@ package sk.upjs.gursky.pdb;
 
 import static org.junit.Assert.*;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import sk.upjs.gursky.bplustree.BPCursor;
+import sk.upjs.gursky.bplustree.BPExternalSorter;
+import sk.upjs.gursky.bplustree.BPFragmentation;
 import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.IntBPTree;
+import sk.upjs.gursky.bplustree.LongBPTree;
+import sk.upjs.gursky.bplustree.NodeSizeAdvisor;
+import sk.upjs.gursky.bplustree.PageStore;
+import sk.upjs.gursky.bplustree.SearchStrategy;
 import sk.upjs.gursky.bplustree.entries.BPKeyInt;
 import sk.upjs.gursky.bplustree.entries.BPObjectIntDouble;
 
@@ -24,7 +52,8 @@ public class BPTreeTest {
 
 	@After
 	public void tearDown() throws Exception {
-        tree.close();
+        if (tree.isOpened())
+            tree.close();
         INDEX_FILE.delete();
 	}
 
@@ -46,4 +75,947 @@ public class BPTreeTest {
         }
 	}
 
+	@Test
+	public void testParallelStream() throws Exception {
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(50);
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 5000; i++) {
+			values.add(new BPObjectIntDouble((int)(Math.random()*1000000000),Math.random()));
+		}
+		values.add(values.get(0)); // the batch update keeps equal entries
+		Collections.sort(values);
+		tree.openAndBatchUpdate(values.iterator(), values.size());
+		assertEquals(values.size(), tree.parallelStream().count());
+		assertEquals(values, tree.parallelStream().collect(Collectors.toList()));
+		assertEquals(values.size() - 1, tree.stream().distinct().count());
+
+		BPKeyInt low = new BPKeyInt(250000000);
+		BPKeyInt high = new BPKeyInt(750000000);
+		List<BPObjectIntDouble> expected = tree.intervalQuery(low, high);
+		assertTrue(expected.size() > 0);
+		assertEquals(expected, tree.rangeStream(low, high).parallel().collect(Collectors.toList()));
+		assertEquals(expected.size(), tree.rangeStream(low, high).count());
+	}
+
+	@Test
+	public void testExternalSort() throws Exception {
+		tree.setNodeSize(256);
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		BPExternalSorter<BPObjectIntDouble> sorter = new BPExternalSorter<BPObjectIntDouble>(BPObjectIntDouble.class,
+				100, 3);
+		for (int i = 0; i < 5000; i++) {
+			BPObjectIntDouble entry = new BPObjectIntDouble((int)(Math.random()*1000000000),Math.random());
+			values.add(entry);
+			sorter.add(entry);
+		}
+		Collections.sort(values);
+		tree.openAndBatchUpdate(sorter.iterator(), sorter.size());
+		sorter.close();
+		assertTrue(sorter.getCountRuns() > 50);
+		assertEquals(values.size(), tree.getNumberOfEntries());
+		assertEquals(values, tree.stream().collect(Collectors.toList()));
+
+		// the memory limits the run before the number of entries
+		File tempDirectory = Files.createTempDirectory("bpsort").toFile();
+		try (BPExternalSorter<BPObjectIntDouble> limited = new BPExternalSorter<BPObjectIntDouble>(
+				BPObjectIntDouble.class, 1000000, 3, tempDirectory)) {
+			limited.setRunMemory(100 * (12 + BPExternalSorter.ENTRY_OVERHEAD));
+			for (BPObjectIntDouble entry : values) {
+				limited.add(entry);
+			}
+			Iterator<BPObjectIntDouble> it = limited.iterator();
+			assertEquals(50 + 24, limited.getCountRuns()); // runs of 100 entries and the intermediate merges
+			assertEquals(values.get(0), it.next());
+			assertTrue(tempDirectory.list().length > 0);
+		} // the runs, which have not been read, are deleted
+		assertEquals(0, tempDirectory.list().length);
+		tempDirectory.delete();
+	}
+
+	@Test
+	public void testParallelBatchUpdate() throws Exception {
+		tree.setNodeSize(128);
+		tree.setCacheCapacity(20);
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 20000; i++) {
+			values.add(new BPObjectIntDouble(2 * i, Math.random()));
+		}
+		BPObjectIntDouble[] entries = values.toArray(new BPObjectIntDouble[0]);
+		tree.openAndParallelBatchUpdate(entries);
+		assertTrue(tree.getTreeHeight() > 2);
+		assertEquals(values, tree.stream().collect(Collectors.toList()));
+		List<BPObjectIntDouble> inverse = new ArrayList<BPObjectIntDouble>();
+		for (Iterator<BPObjectIntDouble> it = tree.inverseIterator(); it.hasNext();) {
+			inverse.add(it.next());
+		}
+		Collections.reverse(inverse);
+		assertEquals(values, inverse);
+		for (int i = 0; i < 20000; i += 7) {
+			assertEquals(values.get(i), tree.get(new BPKeyInt(2 * i)));
+			assertNull(tree.get(new BPKeyInt(2 * i + 1)));
+		}
+		for (int i = 0; i < 1000; i++) {
+			tree.add(new BPObjectIntDouble(2 * i + 1, 0));
+		}
+		assertEquals(21000, tree.stream().count());
+		assertEquals(2001, tree.intervalQuery(new BPKeyInt(0), new BPKeyInt(2000)).size());
+	}
+
+	@Test
+	public void testFillFactor() throws Exception {
+		tree.setNodeSize(256);
+		tree.setFillFactor(0.7, 0.7);
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 5000; i++) {
+			values.add(new BPObjectIntDouble(2 * i, Math.random()));
+		}
+		tree.openAndBatchUpdate(values.iterator(), values.size());
+		for (int i = 0; i < 100; i++) {
+			BPObjectIntDouble entry = new BPObjectIntDouble(100 * i + 1, 0);
+			tree.add(entry);
+			values.add(entry);
+		}
+		assertEquals(0, tree.getCountSplits());
+		Collections.sort(values);
+		assertEquals(values, tree.stream().collect(Collectors.toList()));
+		tree.close();
+
+		tree.setFillFactor(1, 1);
+		tree.openAndBatchUpdate(values.iterator(), values.size());
+		tree.add(new BPObjectIntDouble(3, 0));
+		assertTrue(tree.getCountSplits() > 0);
+	}
+
+	@Test
+	public void testAppend() throws Exception {
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(20);
+		tree.setAppendSplitRatio(0.5);
+		tree.openNewFile();
+		for (int i = 0; i < 20000; i++) {
+			tree.add(new BPObjectIntDouble(i, 1));
+		}
+		long halfSplits = tree.getCountSplits();
+		long halfSize = INDEX_FILE.length();
+		tree.close();
+
+		tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class, INDEX_FILE);
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(20);
+		tree.openNewFile();
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 20000; i++) {
+			BPObjectIntDouble entry = new BPObjectIntDouble(i, 1);
+			tree.add(entry);
+			values.add(entry);
+		}
+		assertTrue(tree.getCountSplits() < halfSplits * 2 / 3);
+		assertTrue(INDEX_FILE.length() < halfSize * 2 / 3);
+		for (int i = 0; i < 1000; i++) { // inserts between the appended entries still split in the middle
+			BPObjectIntDouble entry = new BPObjectIntDouble(20 * i, 2);
+			tree.add(entry);
+			values.add(entry);
+		}
+		tree.add(new BPObjectIntDouble(30000, 1));
+		values.add(new BPObjectIntDouble(30000, 1));
+		Collections.sort(values);
+		assertEquals(values.size(), tree.getNumberOfEntries());
+		assertEquals(values, tree.stream().collect(Collectors.toList()));
+		assertEquals(30000, tree.getMax().getKeyInt());
+	}
+
+	@Test
+	public void testAddAllSorted() throws Exception {
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(20);
+		tree.setFillFactor(0.8, 1);
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 5000; i++) {
+			values.add(new BPObjectIntDouble(4 * i, 1));
+		}
+		tree.openAndBatchUpdate(values.iterator(), values.size());
+		List<BPObjectIntDouble> batch = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 5000; i++) {
+			batch.add(new BPObjectIntDouble(4 * i + (i % 3), 1)); // every third entry is already in the tree
+		}
+		for (int i = 20000; i < 21000; i++) {
+			batch.add(new BPObjectIntDouble(i, 1));
+			if (i % 100 == 0)
+				batch.add(new BPObjectIntDouble(i, 1)); // equal to the previous entry
+		}
+		assertEquals(5000 - 1667 + 1000, tree.addAllSorted(batch.iterator()));
+		List<BPObjectIntDouble> expected = new ArrayList<BPObjectIntDouble>(values);
+		for (BPObjectIntDouble entry : batch) {
+			if (Collections.binarySearch(values, entry) < 0 && !entry.equals(expected.get(expected.size() - 1)))
+				expected.add(entry);
+		}
+		Collections.sort(expected);
+		assertEquals(expected.size(), tree.getNumberOfEntries());
+		assertEquals(expected, tree.stream().collect(Collectors.toList()));
+		assertEquals(20999, tree.getMax().getKeyInt());
+
+		List<BPObjectIntDouble> batch2 = new ArrayList<BPObjectIntDouble>();
+		for (int i = -100; i < 100; i++) {
+			batch2.add(new BPObjectIntDouble(i, 1));
+		}
+		File newIndexFile = new File("TESTindexBP2.idx");
+		BPTree<BPKeyInt, BPObjectIntDouble> merged = tree.mergeSortedToNewFile(batch2, newIndexFile);
+		assertEquals(expected.size(), tree.getNumberOfEntries()); // this tree is not changed
+		for (BPObjectIntDouble entry : batch2) {
+			if (Collections.binarySearch(expected, entry) < 0)
+				expected.add(entry);
+		}
+		Collections.sort(expected);
+		assertEquals(expected.size(), merged.getNumberOfEntries());
+		assertEquals(expected, merged.stream().collect(Collectors.toList()));
+		assertEquals(-100, merged.getMin().getKeyInt());
+		merged.close();
+		newIndexFile.delete();
+	}
+
+	@Test
+	public void testLazyRebalancing() throws Exception {
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 20000; i++) {
+			values.add(new BPObjectIntDouble(i, 1));
+		}
+		List<BPObjectIntDouble> removed = new ArrayList<BPObjectIntDouble>(values.subList(0, 15000));
+		Collections.shuffle(removed, new Random(1));
+		long[] writes = new long[2];
+		for (int lazy = 0; lazy < 2; lazy++) {
+			tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class, INDEX_FILE);
+			tree.setNodeSize(256);
+			tree.setCacheCapacity(20);
+			tree.setLazyRebalancing(lazy == 1);
+			tree.openAndBatchUpdate(values.iterator(), values.size());
+			tree.resetCountWrites();
+			for (BPObjectIntDouble entry : removed) {
+				assertTrue(tree.remove(entry));
+			}
+			tree.close();
+			writes[lazy] = tree.getCountWrites();
+		}
+		assertTrue(writes[1] < writes[0]);
+		tree.open();
+		List<BPObjectIntDouble> expected = values.subList(15000, 20000);
+		assertEquals(expected.size(), tree.getNumberOfEntries());
+		assertEquals(expected, tree.stream().collect(Collectors.toList()));
+
+		int height = tree.getTreeHeight();
+		tree.rebalance();
+		assertTrue(tree.getTreeHeight() <= height);
+		assertEquals(expected, tree.stream().collect(Collectors.toList()));
+		tree.close();
+		tree.open();
+		assertEquals(expected, tree.stream().collect(Collectors.toList()));
+		tree.setLazyRebalancing(false);
+		for (BPObjectIntDouble entry : expected) { // the strict removing needs the half filled nodes
+			assertTrue(tree.remove(entry));
+		}
+		assertEquals(0, tree.stream().count());
+	}
+
+	@Test
+	public void testOptimize() throws Exception {
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(20);
+		tree.openNewFile();
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 10000; i++) {
+			values.add(new BPObjectIntDouble(i, 1));
+		}
+		Collections.shuffle(values, new Random(1));
+		for (BPObjectIntDouble entry : values) {
+			tree.add(entry);
+		}
+		for (BPObjectIntDouble entry : values.subList(0, 4000)) {
+			tree.remove(entry);
+		}
+		List<BPObjectIntDouble> expected = new ArrayList<BPObjectIntDouble>(values.subList(4000, 10000));
+		Collections.sort(expected);
+		BPFragmentation before = tree.getFragmentation();
+		assertTrue(before.getAverageLeafJump() > 2);
+		assertTrue(before.getFillFactor() < 0.8);
+		assertTrue(before.getNumberOfFreeNodes() > 0);
+		long size = INDEX_FILE.length();
+
+		tree.optimize();
+		BPFragmentation after = tree.getFragmentation();
+		assertTrue(after.getAverageLeafJump() < 1.1); // only the inner nodes lie between the leafs
+		assertTrue(after.getFillFactor() > 0.95);
+		assertEquals(0, after.getNumberOfFreeNodes());
+		assertTrue(after.getNumberOfLeafs() < before.getNumberOfLeafs());
+		assertTrue(INDEX_FILE.length() < size);
+		assertFalse(new File(INDEX_FILE.getPath() + ".tmp").exists());
+		assertEquals(expected.size(), tree.getNumberOfEntries());
+		assertEquals(expected, tree.stream().collect(Collectors.toList()));
+
+		tree.add(new BPObjectIntDouble(20000, 1)); // the tree stays opened for write
+		expected.add(new BPObjectIntDouble(20000, 1));
+		tree.close();
+		tree.open();
+		assertEquals(expected, tree.stream().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testSuperblock() throws Exception {
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(20);
+		tree.openNewFile();
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 3000; i++) {
+			values.add(new BPObjectIntDouble(i, 1));
+		}
+		Collections.shuffle(values, new Random(2));
+		for (BPObjectIntDouble entry : values) {
+			tree.add(entry);
+		}
+		for (BPObjectIntDouble entry : values.subList(0, 1500)) {
+			tree.remove(entry);
+		}
+		List<BPObjectIntDouble> expected = new ArrayList<BPObjectIntDouble>(values.subList(1500, 3000));
+		Collections.sort(expected);
+		int height = tree.getTreeHeight();
+		int freeNodes = tree.getFragmentation().getNumberOfFreeNodes();
+		assertTrue(freeNodes > 0);
+		tree.close();
+
+		// the new instance with the default node size takes everything from the index file
+		tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class, INDEX_FILE);
+		tree.openForRead();
+		assertEquals(expected.size(), tree.getNumberOfEntries());
+		assertEquals(height, tree.getTreeHeight());
+		assertEquals(expected.get(0).getKey().getKeyInt(), tree.getMin().getKeyInt());
+		assertEquals(expected, tree.stream().collect(Collectors.toList()));
+		tree.close();
+
+		tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class, INDEX_FILE);
+		tree.setCacheCapacity(20);
+		tree.open();
+		assertEquals(freeNodes, tree.getFragmentation().getNumberOfFreeNodes());
+		long size = INDEX_FILE.length();
+		for (BPObjectIntDouble entry : values.subList(0, 1500)) {
+			tree.add(entry);
+		}
+		assertTrue(tree.getFragmentation().getNumberOfFreeNodes() < freeNodes); // the free nodes are reused
+		tree.close();
+		assertTrue(INDEX_FILE.length() < size + freeNodes * 256L);
+		tree.open();
+		assertEquals(3000, tree.getNumberOfEntries());
+		assertEquals(2999, tree.getMax().getKeyInt());
+		Collections.sort(values);
+		assertEquals(values, tree.stream().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testWriteAheadLog() throws Exception {
+		File crashFile = new File("TESTindexBPcrash.idx");
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 20000; i++) {
+			values.add(new BPObjectIntDouble(i, 1));
+		}
+		Collections.shuffle(values, new Random(3));
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(20);
+		tree.setWriteAheadLog(true);
+		tree.setCheckpointInterval(100000); // many checkpoints during the test
+		tree.setCheckpointRate(2000); // the checkpoints run in the background while the tree is changed
+		tree.openNewFile();
+		TreeSet<BPObjectIntDouble> expected = new TreeSet<BPObjectIntDouble>();
+		for (int i = 0; i < 15000; i++) {
+			tree.add(values.get(i));
+			expected.add(values.get(i));
+			if (i % 3 == 2) {
+				assertTrue(tree.remove(values.get(i / 2)));
+				expected.remove(values.get(i / 2));
+			}
+		}
+		tree.removeRange(new BPKeyInt(1000), new BPKeyInt(2999));
+		expected.subSet(new BPObjectIntDouble(1000, 0), new BPObjectIntDouble(3000, 0)).clear();
+		List<BPObjectIntDouble> batch = values.subList(15000, 20000);
+		tree.addAll(batch);
+		expected.addAll(batch);
+		tree.removeAll(values.subList(0, 500));
+		expected.removeAll(values.subList(0, 500));
+		tree.commit();
+		File[] segments = logSegments(INDEX_FILE);
+		// only the current segment and the segment of the last checkpoint are kept
+		assertTrue(segments.length >= 1 && segments.length <= 2);
+
+		// crash: the files are taken as they are without closing the tree, the log
+		// before the index file, which can be changed by the background checkpoint
+		File crashLog = null;
+		for (File segment : segments) {
+			crashLog = new File(segment.getPath().replace(INDEX_FILE.getName(), crashFile.getName()));
+			Files.copy(segment.toPath(), crashLog.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.copy(INDEX_FILE.toPath(), crashFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.write(crashLog.toPath(), new byte[] { 9, 0, 0, 0, 1, 2, 3 }, StandardOpenOption.APPEND); // torn record
+		BPTree<BPKeyInt, BPObjectIntDouble> recovered = new BPTree<BPKeyInt, BPObjectIntDouble>(
+				BPObjectIntDouble.class, crashFile);
+		recovered.setCacheCapacity(20);
+		recovered.open();
+		assertEquals(0, logSegments(crashFile).length); // the recovered tree does not use the log
+		assertEquals(expected.size(), recovered.getNumberOfEntries());
+		assertEquals(new ArrayList<BPObjectIntDouble>(expected), recovered.stream().collect(Collectors.toList()));
+		recovered.close();
+		assertEquals(0, logSegments(crashFile).length);
+		recovered.openForRead();
+		assertEquals(new ArrayList<BPObjectIntDouble>(expected), recovered.stream().collect(Collectors.toList()));
+		recovered.close();
+		crashFile.delete();
+
+		tree.close();
+		assertEquals(0, logSegments(INDEX_FILE).length);
+		tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class, INDEX_FILE);
+		tree.setWriteAheadLog(true);
+		tree.setGroupCommitWindow(50);
+		tree.open();
+		for (int i = 0; i < 500; i++) {
+			tree.remove(values.get(19000 + i));
+		}
+		assertTrue(tree.getCountLogSyncs() < 250); // the removes are forced together
+		tree.commit();
+		assertEquals(expected.size() - 500, tree.getNumberOfEntries());
+		tree.close();
+
+		// every commit waits for its force, the concurrent commits share the forces
+		tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class, INDEX_FILE);
+		tree.setWriteAheadLog(true);
+		tree.setGroupCommitWindow(5);
+		tree.open();
+		final BPTree<BPKeyInt, BPObjectIntDouble> shared = tree;
+		long syncs = tree.getCountLogSyncs();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> commits = new ArrayList<Future<?>>();
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			commits.add(executor.submit(() -> {
+				for (int i = 0; i < 50; i++) {
+					synchronized (shared) {
+						shared.remove(values.get(18000 + thread * 50 + i));
+					}
+					shared.commit();
+				}
+				return null;
+			}));
+		}
+		for (Future<?> commit : commits)
+			commit.get();
+		executor.shutdown();
+		assertTrue(tree.getCountLogSyncs() - syncs < 400);
+		tree.close();
+		tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class, INDEX_FILE);
+		tree.openForRead();
+		assertEquals(expected.size() - 900, tree.getNumberOfEntries());
+	}
+
+	private static File[] logSegments(File indexFile) {
+		String prefix = indexFile.getName() + ".wal.";
+		File[] segments = indexFile.getAbsoluteFile().getParentFile()
+				.listFiles((dir, name) -> name.startsWith(prefix));
+		// ordered by the LSN at the end of the name
+		Arrays.sort(segments, Comparator.comparingLong(f -> Long.parseLong(f.getName().substring(prefix.length()))));
+		return segments;
+	}
+
+	@Test
+	public void testPageStores() throws Exception {
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 10000; i++) {
+			values.add(new BPObjectIntDouble(i, i));
+		}
+		Collections.shuffle(values, new Random(5));
+		TreeSet<BPObjectIntDouble> expected = new TreeSet<BPObjectIntDouble>(values.subList(0, 8000));
+		for (PageStore.Kind kind : PageStore.Kind.values()) {
+			tree = new BPTree<BPKeyInt, BPObjectIntDouble>(BPObjectIntDouble.class, INDEX_FILE);
+			tree.setNodeSize(256);
+			tree.setCacheCapacity(20);
+			tree.setPageStore(kind);
+			tree.openNewFile();
+			for (BPObjectIntDouble value : values) {
+				tree.add(value);
+			}
+			for (BPObjectIntDouble value : values.subList(8000, 10000)) {
+				assertTrue(tree.remove(value));
+			}
+			assertEquals(new ArrayList<BPObjectIntDouble>(expected), tree.stream().collect(Collectors.toList()));
+			assertEquals(expected.stream().filter(v -> v.getKey().getKeyInt() <= 200).collect(Collectors.toList()),
+					tree.intervalQueryAsync(new BPKeyInt(0), new BPKeyInt(200)).get());
+			tree.close();
+			if (kind == PageStore.Kind.MEMORY) {
+				try {
+					tree.open();
+					fail("the index in memory is lost by close()");
+				} catch (IOException e) {
+				}
+				continue;
+			}
+			// the mapped and the file store create the same index file
+			tree.setPageStore(kind == PageStore.Kind.FILE ? PageStore.Kind.MAPPED : PageStore.Kind.FILE);
+			tree.openForRead();
+			assertEquals(expected.size(), tree.getNumberOfEntries());
+			assertEquals(new ArrayList<BPObjectIntDouble>(expected), tree.stream().collect(Collectors.toList()));
+			final BPTree<BPKeyInt, BPObjectIntDouble> reader = tree;
+			assertTrue(values.parallelStream() // concurrent readers of the store
+					.allMatch(v -> expected.contains(v) == v.equals(reader.get(v.getKey()))));
+			tree.close();
+			INDEX_FILE.delete();
+		}
+	}
+
+	@Test
+	public void testOffHeapCache() throws Exception {
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 20000; i++) {
+			values.add(new BPObjectIntDouble(i, i));
+		}
+		Collections.shuffle(values, new Random(7));
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(5);
+		tree.setOffHeapCacheCapacity(5000); // all the nodes
+		tree.openNewFile();
+		TreeSet<BPObjectIntDouble> expected = new TreeSet<BPObjectIntDouble>();
+		for (int i = 0; i < values.size(); i++) {
+			tree.add(values.get(i));
+			expected.add(values.get(i));
+			if (i % 4 == 3) {
+				assertTrue(tree.remove(values.get(i / 2)));
+				expected.remove(values.get(i / 2));
+			}
+		}
+		tree.resetCountIOs();
+		for (BPObjectIntDouble value : values) {
+			assertEquals(expected.contains(value), tree.get(value.getKey()) != null);
+		}
+		assertEquals(0, tree.getCountIOs()); // the nodes missing in the cache are in the off-heap cache
+		assertTrue(tree.getCountOffHeapHits() > 0);
+		assertEquals(new ArrayList<BPObjectIntDouble>(expected), tree.stream().collect(Collectors.toList()));
+		tree.close();
+
+		tree.setOffHeapCacheCapacity(100); // the nodes are replaced in the off-heap cache
+		tree.open();
+		assertEquals(new ArrayList<BPObjectIntDouble>(expected), tree.stream().collect(Collectors.toList()));
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(expected.remove(values.get(i)), tree.remove(values.get(i)));
+		}
+		assertEquals(new ArrayList<BPObjectIntDouble>(expected), tree.stream().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testOffHeapCacheWithCheckpoints() throws Exception {
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(5);
+		tree.setOffHeapCacheCapacity(10000);
+		for (boolean writeAheadLog : new boolean[] { false, true }) {
+			tree.setWriteAheadLog(writeAheadLog);
+			tree.openNewFile();
+			Random random = new Random(3);
+			TreeSet<BPObjectIntDouble> expected = new TreeSet<BPObjectIntDouble>();
+			for (int i = 0; i < 20000; i++) {
+				BPObjectIntDouble entry = new BPObjectIntDouble(random.nextInt(5000), 0);
+				if (random.nextBoolean()) {
+					tree.add(entry);
+					expected.add(entry);
+				} else {
+					assertEquals(expected.remove(entry), tree.remove(entry));
+				}
+				if (i % 7 == 6)
+					tree.checkpoint(); // the cached nodes are saved, their old images are in the off-heap cache
+			}
+			assertTrue(tree.getCountOffHeapHits() > 0);
+			assertEquals(new ArrayList<BPObjectIntDouble>(expected), tree.stream().collect(Collectors.toList()));
+			tree.close();
+			tree.setWriteAheadLog(false);
+			tree.open();
+			assertEquals(new ArrayList<BPObjectIntDouble>(expected), tree.stream().collect(Collectors.toList()));
+			tree.close();
+		}
+	}
+
+	@Test
+	public void testPrimitiveTrees() throws Exception {
+		File file = new File("TESTindexPrimitive.idx");
+		Random random = new Random(11);
+		TreeSet<Long> expected = new TreeSet<Long>(); // key * 8 + value
+		IntBPTree intTree = new IntBPTree(file);
+		intTree.setNodeSize(256);
+		intTree.openNewFile();
+		for (int i = 0; i < 30000; i++) {
+			int key = random.nextInt(5000) - 2500; // more values for a key
+			long value = random.nextInt(8);
+			assertEquals(expected.add(key * 8L + value), intTree.add(key, value));
+		}
+		for (int i = 0; i < 10000; i++) {
+			int key = random.nextInt(5000) - 2500;
+			long value = random.nextInt(8);
+			assertEquals(expected.remove(key * 8L + value), intTree.remove(key, value));
+		}
+		assertEquals(expected.size(), intTree.getNumberOfEntries());
+		assertTrue(intTree.getTreeHeight() > 1);
+		intTree.close();
+		intTree.setCacheCapacity(20);
+		intTree.open();
+		for (int key = -2600; key < 2600; key += 7) {
+			Long first = expected.ceiling(key * 8L);
+			long value = first != null && first < key * 8L + 8 ? first - key * 8L : -1;
+			assertEquals(value, intTree.get(key, -1));
+		}
+		final List<Long> scanned = new ArrayList<Long>();
+		long count = intTree.rangeScan(-100, 300, (key, value) -> scanned.add(key * 8L + value));
+		assertEquals(new ArrayList<Long>(expected.subSet(-800L, 2408L)), scanned);
+		assertEquals(scanned.size(), count);
+		intTree.close();
+
+		LongBPTree longTree = new LongBPTree(file);
+		longTree.setPageStore(PageStore.Kind.MEMORY);
+		longTree.setNodeSize(512);
+		longTree.openNewFile();
+		for (long key = 0; key < 20000; key++) {
+			assertTrue(longTree.add(key * 1000000007L, key));
+		}
+		assertFalse(longTree.add(5 * 1000000007L, 5));
+		assertEquals(17, longTree.get(17 * 1000000007L, -1));
+		assertEquals(-1, longTree.get(17, -1));
+		assertEquals(101, longTree.rangeScan(100 * 1000000007L, 200 * 1000000007L, (key, value) -> {
+		}));
+		longTree.close();
+
+		// the path of a high tree of small nodes pins more pages than the cache has
+		intTree = new IntBPTree(file);
+		intTree.setPageStore(PageStore.Kind.MEMORY);
+		intTree.setNodeSize(80);
+		intTree.setCacheCapacity(16);
+		intTree.openNewFile();
+		for (int key = 0; key < 20000; key++) {
+			assertTrue(intTree.add(random.nextInt(), key));
+		}
+		assertTrue(intTree.getTreeHeight() > 7);
+		assertEquals(20000, intTree.getNumberOfEntries());
+		intTree.close();
+		file.delete();
+	}
+
+	@Test
+	public void testAddAllRemoveAll() throws Exception {
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(20);
+		tree.openNewFile();
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 20000; i++) {
+			values.add(new BPObjectIntDouble((int) (Math.random() * 1000000000), i));
+		}
+		for (int i = 20000; i < 22000; i++) { // duplicate keys spanning more leafs
+			values.add(new BPObjectIntDouble(500000000 + i % 20, i));
+		}
+		TreeSet<BPObjectIntDouble> expected = new TreeSet<BPObjectIntDouble>(values);
+		assertEquals(21000, tree.addAll(values.subList(0, 20000)) + tree.addAll(values.subList(20000, 21000)));
+		for (BPObjectIntDouble entry : values.subList(21000, 22000)) { // the rebalancing mixes the duplicates
+			tree.add(entry);
+		}
+		assertEquals(expected.size(), tree.getNumberOfEntries());
+		List<BPObjectIntDouble> actual = tree.stream().collect(Collectors.toList());
+		Collections.sort(actual); // the entries with equal keys are streamed in any order
+		assertEquals(new ArrayList<BPObjectIntDouble>(expected), actual);
+
+		List<BPObjectIntDouble> removed = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < values.size(); i += 3) {
+			removed.add(values.get(i));
+			removed.add(new BPObjectIntDouble(-i - 1, 1)); // not in the tree
+		}
+		expected.removeAll(removed);
+		assertEquals(values.size() - expected.size(), tree.removeAll(removed));
+		assertEquals(expected.size(), tree.getNumberOfEntries());
+		actual = tree.stream().collect(Collectors.toList());
+		Collections.sort(actual);
+		assertEquals(new ArrayList<BPObjectIntDouble>(expected), actual);
+		assertEquals(expected.first().getKey().getKeyInt(), tree.getMin().getKeyInt());
+
+		assertEquals(expected.size(), tree.removeAll(new ArrayList<BPObjectIntDouble>(expected)));
+		assertEquals(0, tree.getNumberOfEntries());
+		assertEquals(0, tree.stream().count());
+	}
+
+	@Test
+	public void testRemoveRange() throws Exception {
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(20);
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 20000; i++) {
+			values.add(new BPObjectIntDouble((int) (Math.random() * 5000), Math.random())); // duplicate keys
+		}
+		Collections.sort(values);
+		tree.openAndBatchUpdate(values.iterator(), values.size());
+		TreeSet<BPObjectIntDouble> expected = new TreeSet<BPObjectIntDouble>(values);
+		for (int i = 0; i < 50; i++) {
+			int low = (int) (Math.random() * 5000);
+			int high = low + (int) (Math.random() * (i % 5 == 0 ? 1000 : 20));
+			int count = 0;
+			for (Iterator<BPObjectIntDouble> it = expected.iterator(); it.hasNext();) {
+				int key = it.next().getKey().getKeyInt();
+				if (key >= low && key <= high) {
+					it.remove();
+					count++;
+				}
+			}
+			assertEquals(count, tree.removeRange(new BPKeyInt(low), new BPKeyInt(high)));
+			assertEquals(expected.size(), tree.getNumberOfEntries());
+		}
+		assertEquals(new ArrayList<BPObjectIntDouble>(expected), tree.stream().collect(Collectors.toList()));
+		List<BPObjectIntDouble> inverse = new ArrayList<BPObjectIntDouble>();
+		tree.inverseIterator().forEachRemaining(inverse::add);
+		Collections.reverse(inverse);
+		assertEquals(new ArrayList<BPObjectIntDouble>(expected), inverse);
+		assertEquals(expected.first().getKey().getKeyInt(), tree.getMin().getKeyInt());
+
+		int key = expected.last().getKey().getKeyInt();
+		assertTrue(tree.remove(new BPKeyInt(key)));
+		assertFalse(tree.remove(new BPKeyInt(key)));
+		expected.removeIf(entry -> entry.getKey().getKeyInt() == key);
+		for (int i = 0; i < 5000; i++) {
+			BPObjectIntDouble entry = new BPObjectIntDouble(i, 1);
+			if (expected.subSet(new BPObjectIntDouble(i, 0), new BPObjectIntDouble(i + 1, 0)).isEmpty()) {
+				tree.add(entry); // only new keys to the holes after the removed ranges
+				expected.add(entry);
+			}
+		}
+		tree.close();
+		tree.open();
+		assertEquals(new ArrayList<BPObjectIntDouble>(expected), tree.stream().collect(Collectors.toList()));
+
+		assertEquals(expected.size(), tree.removeRange(new BPKeyInt(Integer.MIN_VALUE), new BPKeyInt(Integer.MAX_VALUE)));
+		assertEquals(0, tree.getNumberOfEntries());
+		assertEquals(0, tree.getTreeHeight());
+		assertEquals(0, tree.stream().count());
+	}
+
+	@Test
+	public void testReadAhead() throws Exception {
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 5000; i++) {
+			values.add(new BPObjectIntDouble(i, Math.random()));
+		}
+		tree.setNodeSize(256);
+		tree.setCacheCapacity(50);
+		tree.openAndBatchUpdate(values.iterator(), values.size());
+		tree.close();
+		tree.resetCountIOs();
+		tree.open();
+		int count = 0;
+		for (BPObjectIntDouble entry : tree) {
+			assertEquals(values.get(count++), entry);
+		}
+		long ios = tree.getCountIOs();
+		tree.close();
+
+		tree.setReadAhead(16);
+		tree.resetCountIOs();
+		tree.open();
+		count = 0;
+		for (BPObjectIntDouble entry : tree) {
+			assertEquals(values.get(count++), entry);
+		}
+		assertEquals(values.size(), count);
+		assertTrue(tree.getCountIOs() < ios);
+		Iterator<BPObjectIntDouble> it = tree.inverseIterator();
+		while (it.hasNext()) {
+			assertEquals(values.get(--count), it.next());
+		}
+		assertEquals(0, count);
+		tree.close();
+
+		tree.openForRead();
+		assertEquals(values.size(), tree.intervalQuery(new BPKeyInt(0), new BPKeyInt(5000)).size());
+		tree.close();
+
+		// the leafs of the first half are split and scattered, a scan of them does
+		// not disturb the read ahead of an interleaved scan of the second half
+		List<BPObjectIntDouble> inserted = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 2500; i++) {
+			inserted.add(new BPObjectIntDouble(-1 - i, Math.random()));
+		}
+		Collections.shuffle(inserted, new Random(3));
+		tree.open();
+		for (BPObjectIntDouble entry : inserted) {
+			tree.add(entry);
+		}
+		tree.close();
+		tree.setReadAhead(0);
+		tree.resetCountIOs();
+		tree.open();
+		scanInterleaved(tree);
+		ios = tree.getCountIOs();
+		tree.close();
+		tree.setReadAhead(16);
+		tree.resetCountIOs();
+		tree.open();
+		scanInterleaved(tree);
+		assertTrue(tree.getCountIOs() < ios * 3 / 4);
+	}
+
+	private static void scanInterleaved(BPTree<BPKeyInt, BPObjectIntDouble> tree) {
+		BPCursor<BPObjectIntDouble> scattered = tree.intervalCursor(new BPKeyInt(-2500), new BPKeyInt(-1));
+		BPCursor<BPObjectIntDouble> contiguous = tree.intervalCursor(new BPKeyInt(0), new BPKeyInt(4999));
+		for (int i = 0; i < 5000; i++) {
+			if (i < 2500)
+				assertEquals(-2500 + i, scattered.next().getKey().getKeyInt());
+			assertEquals(i, contiguous.next().getKey().getKeyInt());
+		}
+		assertFalse(scattered.hasNext());
+		assertFalse(contiguous.hasNext());
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 20000; i++) {
+			values.add(new BPObjectIntDouble(2 * i, Math.random()));
+		}
+		tree.setNodeSize(512);
+		tree.setCacheCapacity(20);
+		tree.setAsyncConcurrency(8);
+		tree.openAndBatchUpdate(values.iterator(), values.size());
+		tree.close();
+		tree.open();
+		List<CompletableFuture<BPObjectIntDouble>> lookups = new ArrayList<CompletableFuture<BPObjectIntDouble>>();
+		for (int i = 0; i < 2000; i++) {
+			lookups.add(tree.getAsync(new BPKeyInt(i * 19)));
+		}
+		for (int i = 0; i < 2000; i++) {
+			BPObjectIntDouble entry = lookups.get(i).get();
+			assertEquals(tree.get(new BPKeyInt(i * 19)), entry);
+			assertEquals(i % 2 == 0 ? values.get(i * 19 / 2) : null, entry);
+		}
+		BPKeyInt low = new BPKeyInt(1001);
+		BPKeyInt high = new BPKeyInt(30000);
+		assertEquals(tree.intervalQuery(low, high), tree.intervalQueryAsync(low, high).get());
+		assertEquals(1, tree.getListForKeyAsync(new BPKeyInt(4000)).get().size());
+		assertNull(tree.getListForKeyAsync(new BPKeyInt(4001)).get());
+
+		// the last node is cut off the index file
+		for (int i = 0; i < 100; i++) {
+			tree.add(new BPObjectIntDouble(40000 + i, 1));
+		}
+		tree.close();
+		try (RandomAccessFile file = new RandomAccessFile(INDEX_FILE, "rw")) {
+			file.setLength(file.length() - 100);
+		}
+		tree.open();
+		try {
+			tree.getAsync(new BPKeyInt(40099)).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof EOFException);
+		}
+	}
+
+	@Test
+	public void testSearchStrategies() throws Exception {
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 30000; i++) {
+			values.add(new BPObjectIntDouble(2 * i, Math.random()));
+		}
+		tree.setNodeSize(1024);
+		tree.openAndBatchUpdate(values.iterator(), values.size());
+		tree.close();
+		for (SearchStrategy strategy : SearchStrategy.values()) {
+			tree.setSearchStrategy(strategy);
+			assertEquals(strategy, tree.getSearchStrategy());
+			for (boolean readOnly : new boolean[] { false, true }) {
+				if (readOnly)
+					tree.openForRead();
+				else
+					tree.open();
+				for (int key = -1; key <= 60001; key += 7) {
+					assertEquals(strategy + " " + readOnly, key % 2 == 0 && key < 60000 ? values.get(key / 2) : null,
+							tree.get(new BPKeyInt(key)));
+				}
+				assertEquals(values.subList(100, 1000), tree.intervalQuery(new BPKeyInt(199), new BPKeyInt(1999)));
+				if (!readOnly) {
+					BPObjectIntDouble entry = values.get(50);
+					tree.remove(entry);
+					assertNull(tree.get(entry.getKey()));
+					tree.add(entry);
+				}
+				tree.close();
+			}
+		}
+		tree.open();
+		try {
+			tree.setSearchStrategy(SearchStrategy.BINARY);
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals(SearchStrategy.INTERPOLATION, tree.getSearchStrategy());
+		}
+	}
+
+	@Test
+	public void testNodeSizeAdvisor() throws Exception {
+		List<BPObjectIntDouble> sample = new ArrayList<BPObjectIntDouble>();
+		Random random = new Random(1);
+		for (int i = 0; i < 5000; i++) {
+			sample.add(new BPObjectIntDouble(random.nextInt(), i));
+		}
+		NodeSizeAdvisor<BPKeyInt, BPObjectIntDouble> advisor = new NodeSizeAdvisor<BPKeyInt, BPObjectIntDouble>(
+				BPObjectIntDouble.class);
+		advisor.setNodeSizes(32, 1024, 4096, 65536); // 32 B cannot hold two entries
+		advisor.setWorkload(0.5, 10000);
+		List<NodeSizeAdvisor.Option> options = advisor.advise(sample, 100000000);
+		assertEquals(3, options.size());
+		for (int i = 1; i < options.size(); i++) {
+			assertTrue(options.get(i - 1).getCost() <= options.get(i).getCost());
+		}
+		options.sort(Comparator.comparingInt(NodeSizeAdvisor.Option::getNodeSize));
+		assertEquals(4, options.get(0).getTreeHeight()); // 1 204 820 leafs of 83 entries, fanout 85
+		for (int i = 1; i < options.size(); i++) {
+			assertTrue(options.get(i - 1).getTreeHeight() >= options.get(i).getTreeHeight());
+			assertTrue(options.get(i - 1).getRangeReads() > options.get(i).getRangeReads());
+		}
+		advisor.setCacheMemory(Long.MAX_VALUE);
+		for (NodeSizeAdvisor.Option option : advisor.advise(sample, 100000000)) {
+			assertEquals(0, option.getPointReads(), 0);
+		}
+		int nodeSize = advisor.recommend(sample, 100000000);
+		assertTrue(nodeSize == 1024 || nodeSize == 4096 || nodeSize == 65536);
+	}
+
+	@Test
+	public void testAdaptiveHashIndex() throws Exception {
+		List<BPObjectIntDouble> values = new ArrayList<BPObjectIntDouble>();
+		for (int i = 0; i < 20000; i++) {
+			values.add(new BPObjectIntDouble(2 * i, i));
+		}
+		tree.setNodeSize(512);
+		tree.setCacheCapacity(50);
+		tree.setAdaptiveHashIndex(64);
+		tree.openAndBatchUpdate(values.iterator(), values.size());
+		for (int round = 0; round < 10; round++) {
+			for (int key = 0; key < 400; key += 20) {
+				assertEquals(values.get(key / 2), tree.get(new BPKeyInt(key)));
+			}
+		}
+		long hits = tree.getCountAdaptiveHashHits();
+		assertTrue(hits > 100);
+		for (int i = 0; i < 3000; i++) { // splits and merges move the hot entries
+			tree.add(new BPObjectIntDouble(2 * i + 1, i));
+			tree.remove(values.get(i + 100));
+		}
+		for (int key = 0; key < 400; key += 20) {
+			BPObjectIntDouble expected = key / 2 >= 100 && key / 2 < 3100 ? null : values.get(key / 2);
+			assertEquals(expected, tree.get(new BPKeyInt(key)));
+			assertEquals(key < 6000 ? new BPObjectIntDouble(key + 1, key / 2) : null, tree.get(new BPKeyInt(key + 1)));
+		}
+		tree.close();
+
+		tree.openForRead();
+		assertEquals(0, tree.getCountAdaptiveHashHits());
+		for (int round = 0; round < 10; round++) {
+			for (int key = 8000; key < 8400; key += 20) {
+				assertEquals(values.get(key / 2), tree.get(new BPKeyInt(key)));
+			}
+		}
+		assertTrue(tree.getCountAdaptiveHashHits() > 100);
+	}
+
 }
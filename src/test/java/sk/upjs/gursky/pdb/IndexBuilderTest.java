@@ -0,0 +1,112 @@
+package sk.upjs.gursky.pdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import sk.upjs.gursky.bplustree.BPTree;
+import sk.upjs.gursky.bplustree.NodeSizeAdvisor;
+
+public class IndexBuilderTest {
+
+	private static final File CLUSTERED_FILE = new File("person.kl");
+	private static final File SURNAME_FILE = new File("person.unkl");
+	private static final File SALARY_FILE = new File("person.sal");
+	private static final File SPARSE_FILE = new File("person.sparse");
+	private ClusteredBPTree clustered;
+	private UnclusteredBPTree surnameIndex;
+	private UnclusteredBPTreeSalary salaryIndex;
+
+	@After
+	public void tearDown() throws Exception {
+		clustered.close();
+		surnameIndex.close();
+		salaryIndex.close();
+		CLUSTERED_FILE.delete();
+		SURNAME_FILE.delete();
+		SALARY_FILE.delete();
+		SPARSE_FILE.delete();
+	}
+
+	@Test
+	public void test() throws Exception {
+		IndexBuilder builder = new IndexBuilder(Generator.GENERATED_FILE, 100000, 16);
+		clustered = builder.addClustered(CLUSTERED_FILE);
+		surnameIndex = builder.addSurnameIndex(SURNAME_FILE);
+		salaryIndex = builder.addSalaryIndex(SALARY_FILE);
+		builder.build();
+
+		long persons = clustered.getNumberOfEntries();
+		assertTrue(persons > 0);
+		assertEquals(persons, surnameIndex.getNumberOfEntries());
+		assertEquals(persons, salaryIndex.getNumberOfEntries());
+
+		PersonStringKey low = new PersonStringKey("a");
+		PersonStringKey high = new PersonStringKey("azzzzzzzzz");
+		List<PersonEntry> expected = clustered.intervalQuery(low, high);
+		List<PersonEntry> result = surnameIndex.intervalQueryEntries(low, high);
+		assertEquals(expected.size(), result.size());
+		for (PersonEntry entry : result) {
+			assertTrue(entry.surname.startsWith("a"));
+		}
+		for (PersonEntry entry : salaryIndex.intervalQueryEntries(new SalaryKey(1000), new SalaryKey(1001))) {
+			assertTrue(entry.salary >= 1000 && entry.salary <= 1001);
+		}
+	}
+
+	@Test
+	public void testNodeSizeAdvice() throws Exception {
+		IndexBuilder builder = new IndexBuilder(Generator.GENERATED_FILE, 100000, 16);
+		builder.setNodeSizeAdvice(0.5, 1000, 1024 * 1024);
+		clustered = builder.addClustered(CLUSTERED_FILE);
+		surnameIndex = builder.addSurnameIndex(SURNAME_FILE);
+		salaryIndex = builder.addSalaryIndex(SALARY_FILE);
+		builder.build();
+
+		for (BPTree<?, ?> tree : new BPTree<?, ?>[] { clustered, surnameIndex, salaryIndex }) {
+			assertTrue(Arrays.binarySearch(NodeSizeAdvisor.DEFAULT_NODE_SIZES, tree.getNodeSize()) >= 0);
+		}
+		long persons = clustered.getNumberOfEntries();
+		assertTrue(persons > 0);
+		assertEquals(persons, surnameIndex.getNumberOfEntries());
+		assertEquals(persons, salaryIndex.getNumberOfEntries());
+		PersonStringKey low = new PersonStringKey("a");
+		PersonStringKey high = new PersonStringKey("azzzzzzzzz");
+		assertEquals(clustered.intervalQuery(low, high).size(), surnameIndex.intervalQueryEntries(low, high).size());
+	}
+
+	@Test
+	public void testFileOver4GB() throws Exception {
+		Generator.generateSparseFile(5L * 1024 * 1024 * 1024, 64, SPARSE_FILE);
+		IndexBuilder builder = new IndexBuilder(SPARSE_FILE);
+		clustered = builder.addClustered(CLUSTERED_FILE);
+		surnameIndex = builder.addSurnameIndex(SURNAME_FILE);
+		salaryIndex = builder.addSalaryIndex(SALARY_FILE);
+		builder.build();
+
+		assertEquals(64 * 85, clustered.getNumberOfEntries());
+		assertEquals(64 * 85, surnameIndex.getNumberOfEntries());
+		assertEquals(64 * 85, salaryIndex.getNumberOfEntries());
+
+		long maxOffset = 0;
+		for (SalaryOffsetEntry entry : salaryIndex.intervalQuery(new SalaryKey(0), new SalaryKey(Integer.MAX_VALUE))) {
+			maxOffset = Math.max(maxOffset, entry.getOffset());
+		}
+		assertTrue(maxOffset > 4L * 1024 * 1024 * 1024);
+
+		List<PersonEntry> expected = clustered.intervalQuery(new PersonStringKey("0"), new PersonStringKey("zzzzzzzzzz"));
+		List<PersonEntry> result = surnameIndex.intervalQueryEntries(new PersonStringKey("0"),
+				new PersonStringKey("zzzzzzzzzz"));
+		assertEquals(64 * 85, expected.size());
+		assertEquals(expected.size(), result.size());
+		for (int i = 0; i < result.size(); i++) {
+			assertEquals(expected.get(i).surname, result.get(i).surname);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package sk.upjs.gursky.pdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryExecutorTest {
+
+	private static final File CLUSTERED_FILE = new File("person.kl");
+	private static final File SALARY_FILE = new File("person.unkl");
+	private ClusteredBPTree clustered;
+	private UnclusteredBPTreeSalary salaryIndex;
+
+	@Before
+	public void setUp() throws Exception {
+		clustered = ClusteredBPTree.newTreeBulkLoading(Generator.GENERATED_FILE, CLUSTERED_FILE);
+		salaryIndex = UnclusteredBPTreeSalary.newTreeBulkLoading(Generator.GENERATED_FILE, SALARY_FILE);
+		clustered.close();
+		salaryIndex.close();
+		clustered.setCacheCapacity(100);
+		salaryIndex.setCacheCapacity(100);
+		clustered.openForRead();
+		salaryIndex.openForRead();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		clustered.close();
+		salaryIndex.close();
+		CLUSTERED_FILE.delete();
+		SALARY_FILE.delete();
+	}
+
+	@Test
+	public void test() throws Exception {
+		QueryExecutor executor = new QueryExecutor(clustered, null, salaryIndex);
+		List<CompletableFuture<List<PersonEntry>>> bySurname = new ArrayList<>();
+		List<CompletableFuture<List<PersonEntry>>> bySalary = new ArrayList<>();
+		for (int i = 0; i < 36; i++) {
+			String prefix = Character.toString(Character.forDigit(i, 36));
+			bySurname.add(executor.personsBySurname(prefix, prefix + "zzzzzzzzz"));
+			bySalary.add(executor.personsBySalary(1000 + i, 1000 + i));
+		}
+		int count = 0;
+		for (int i = 0; i < 36; i++) {
+			String prefix = Character.toString(Character.forDigit(i, 36));
+			List<PersonEntry> result = bySurname.get(i).get();
+			List<PersonEntry> expected = clustered.intervalQuery(new PersonStringKey(prefix),
+					new PersonStringKey(prefix + "zzzzzzzzz"));
+			assertEquals(expected.size(), result.size());
+			for (int j = 0; j < result.size(); j++) {
+				assertEquals(0, expected.get(j).compareTo(result.get(j)));
+			}
+			count += result.size();
+			for (PersonEntry entry : bySalary.get(i).get()) {
+				assertEquals(1000 + i, entry.salary);
+			}
+		}
+		assertEquals(clustered.getNumberOfEntries(), count);
+		executor.close();
+		assertTrue(bySalary.get(0).isDone());
+	}
+}
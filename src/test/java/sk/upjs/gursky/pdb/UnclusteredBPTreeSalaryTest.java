@@ -1,5 +1,7 @@
 package sk.upjs.gursky.pdb;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -10,6 +12,9 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import sk.upjs.gursky.bplustree.BPCursor;
+import sk.upjs.gursky.bplustree.BPVisitor;
+
 public class UnclusteredBPTreeSalaryTest {
 
 	private static final File INDEX_FILE = new File("person.unkl");
@@ -38,4 +43,26 @@ public class UnclusteredBPTreeSalaryTest {
 		}
 		assertTrue(result.size() > 0);
 	}
+
+	@Test
+	public void testCursor() throws Exception {
+		BPCursor<PersonEntry> cursor = bptree.intervalCursorEntries(new SalaryKey(1000), new SalaryKey(1079), 10);
+		int count = 0;
+		while (cursor.hasNext()) {
+			PersonEntry entry = cursor.next();
+			assertTrue(entry.salary >= 1000 && entry.salary <= 1079);
+			count++;
+		}
+		assertEquals(10, count);
+		assertFalse(cursor.hasNext());
+
+		final int[] visited = new int[1];
+		long result = bptree.intervalQueryEntries(new SalaryKey(1000), new SalaryKey(1079), new BPVisitor<PersonEntry>() {
+			public boolean visit(PersonEntry entry) {
+				return ++visited[0] < 5;
+			}
+		});
+		assertEquals(5, result);
+		assertEquals(5, visited[0]);
+	}
 }